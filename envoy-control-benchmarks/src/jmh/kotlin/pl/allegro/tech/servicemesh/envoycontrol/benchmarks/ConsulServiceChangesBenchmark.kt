@@ -0,0 +1,125 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import com.ecwid.consul.v1.ConsulClient
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import org.openjdk.jmh.annotations.AuxCounters
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import pl.allegro.tech.discovery.consul.recipes.ConsulRecipes
+import pl.allegro.tech.discovery.consul.recipes.watch.ConsulWatcher
+import pl.allegro.tech.servicemesh.envoycontrol.config.consul.FakeConsul
+import pl.allegro.tech.servicemesh.envoycontrol.consul.BulkWatchProperties
+import pl.allegro.tech.servicemesh.envoycontrol.consul.services.ConsulServiceChanges
+import pl.allegro.tech.servicemesh.envoycontrol.consul.services.EcwidConsulHealthClient
+import pl.allegro.tech.servicemesh.envoycontrol.server.NoopReadinessStateHandler
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import reactor.core.Disposable
+import java.net.URI
+import java.time.Duration
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Latency of propagating a re-registration of one service out of many to the services state. Watching every service
+ * holds one blocking query per service open in Consul, watching in bulk holds queries on health checks and catalog
+ * services and fetches all watched services, because a re-registration doesn't change checks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ConsulServiceChangesBenchmark {
+    companion object {
+        private val TIMEOUT = Duration.ofSeconds(30)
+    }
+
+    @Param("100", "1000")
+    @JvmField
+    var services: Int = 0
+
+    @Param("false", "true")
+    @JvmField
+    var bulk: Boolean = false
+
+    private lateinit var consul: FakeConsul
+    private lateinit var watcherPool: ExecutorService
+    private lateinit var watcher: ConsulWatcher
+    private lateinit var subscription: Disposable
+
+    @Volatile
+    private var state = ServicesState()
+    private var changedService = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        consul = FakeConsul(services)
+        watcherPool = Executors.newFixedThreadPool(1)
+        val dispatcher = Dispatcher().apply {
+            maxRequests = services + 1
+            maxRequestsPerHost = services + 1
+        }
+        watcher = ConsulRecipes.consulRecipes()
+            .withAgentUri(URI("http://localhost:${consul.port}"))
+            .withWatchesHttpClient(
+                OkHttpClient.Builder()
+                    .dispatcher(dispatcher)
+                    .readTimeout(Duration.ofMinutes(6))
+                    .build()
+            )
+            .build()
+            .consulWatcher(watcherPool)
+            .build()
+        val changes = ConsulServiceChanges(
+            watcher = watcher,
+            readinessStateHandler = NoopReadinessStateHandler,
+            bulkWatch = BulkWatchProperties().also { it.enabled = bulk },
+            healthClient = EcwidConsulHealthClient(ConsulClient("localhost", consul.port))
+        )
+        subscription = changes.watchState().subscribe { state = it }
+        await { state.allInstances().count { it.instances.isNotEmpty() } == services }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        subscription.dispose()
+        watcher.close()
+        watcherPool.shutdownNow()
+        consul.close()
+    }
+
+    @Benchmark
+    fun changeService(requests: ConsulRequests) {
+        val service = "service-${changedService++ % services}"
+        val requestsBefore = consul.requests.get()
+        val port = consul.change(service)
+        await { state[service]?.instances?.any { it.port == port } == true }
+        requests.requests += consul.requests.get() - requestsBefore
+    }
+
+    private fun await(condition: () -> Boolean) {
+        val deadline = System.nanoTime() + TIMEOUT.toNanos()
+        while (!condition()) {
+            check(System.nanoTime() < deadline) { "services state not updated within $TIMEOUT" }
+            Thread.onSpinWait()
+        }
+    }
+
+    /**
+     * Requests made to Consul per change.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    open class ConsulRequests {
+        @JvmField
+        var requests: Long = 0
+    }
+}
@@ -0,0 +1,89 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import pl.allegro.tech.servicemesh.envoycontrol.groups.CommunicationMode
+import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.ClusterConfiguration
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.EnvoySnapshotFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.GlobalSnapshot
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Builds of the global snapshot from services of all clusters.
+ *
+ * [fullBuild] measures the first build, when there is no previous snapshot to reuse resources from.
+ * [incrementalBuild] measures a build after instances of a single service have changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class GlobalSnapshotBenchmark {
+
+    @Param("100", "1000")
+    @JvmField
+    var services: Int = 0
+
+    @Param("5")
+    @JvmField
+    var instances: Int = 0
+
+    @Param("3")
+    @JvmField
+    var clusters: Int = 0
+
+    private lateinit var properties: SnapshotProperties
+    private lateinit var clusterConfigurations: Map<String, ClusterConfiguration>
+    private lateinit var states: List<MultiClusterState>
+    private lateinit var envoySnapshotFactory: EnvoySnapshotFactory
+    private var build = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        properties = SnapshotFactories.productionLikeProperties()
+        clusterConfigurations = SyntheticData.clusterConfigurations(services)
+        val state = SyntheticData.multiClusterState(services, instances, clusters)
+        states = listOf(state, withChangedService(state))
+        envoySnapshotFactory = SnapshotFactories.envoySnapshotFactory(properties)
+        envoySnapshotFactory.newSnapshot(state, clusterConfigurations, CommunicationMode.ADS)
+    }
+
+    @Benchmark
+    fun fullBuild(factory: ColdFactory): GlobalSnapshot =
+        factory.envoySnapshotFactory.newSnapshot(states[0], clusterConfigurations, CommunicationMode.ADS)
+
+    @Benchmark
+    fun incrementalBuild(): GlobalSnapshot =
+        envoySnapshotFactory.newSnapshot(states[++build % states.size], clusterConfigurations, CommunicationMode.ADS)
+
+    private fun withChangedService(state: MultiClusterState): MultiClusterState {
+        val local = state.first()
+        val serviceName = SyntheticData.serviceName(0)
+        val servicesState = local.servicesState.change(
+            SyntheticData.serviceInstances(serviceName, this.instances, 0, Random(services))
+        )
+        return MultiClusterState(listOf(local.copy(servicesState = servicesState)) + state.drop(1))
+    }
+
+    /**
+     * A factory without any previously built snapshot.
+     */
+    @State(Scope.Thread)
+    open class ColdFactory {
+        lateinit var envoySnapshotFactory: EnvoySnapshotFactory
+
+        @Setup(Level.Invocation)
+        fun setUp(benchmark: GlobalSnapshotBenchmark) {
+            envoySnapshotFactory = SnapshotFactories.envoySnapshotFactory(benchmark.properties)
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
+import pl.allegro.tech.servicemesh.envoycontrol.groups.GroupInterner
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ServicesGroup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Lookups of groups in a map, as in the snapshot cache, snapshot versions and group change watcher.
+ *
+ * [internedGroupLookup] looks up canonical instances given by [GroupInterner], with a cached hash and equals by
+ * identity. [equalGroupLookup] looks up equal copies of groups, which have to compute the hash and compare all settings
+ * - as every lookup did when groups were plain data classes. Scores are per single lookup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class GroupLookupBenchmark {
+    companion object {
+        const val GROUPS = 100
+    }
+
+    @Param("1000")
+    @JvmField
+    var services: Int = 0
+
+    @Param("10", "100", "500")
+    @JvmField
+    var dependencies: Int = 0
+
+    private lateinit var versions: Map<Group, String>
+    private lateinit var internedGroups: List<Group>
+    private lateinit var groups: List<ServicesGroup>
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val interner = GroupInterner()
+        val properties = SnapshotFactories.productionLikeProperties()
+        groups = SyntheticData.groups(GROUPS, dependencies, services, properties).map { it as ServicesGroup }
+        internedGroups = groups.map { interner.intern(it) }
+        versions = HashMap(internedGroups.associateWith { "version" })
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    fun internedGroupLookup(blackhole: Blackhole) {
+        internedGroups.forEach { blackhole.consume(versions[it]) }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    fun equalGroupLookup(blackhole: Blackhole) {
+        // a fresh copy doesn't have the hash computed yet
+        groups.forEach { blackhole.consume(versions[it.copy()]) }
+    }
+}
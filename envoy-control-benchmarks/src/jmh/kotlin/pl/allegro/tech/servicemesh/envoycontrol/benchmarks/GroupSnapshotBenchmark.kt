@@ -0,0 +1,74 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import io.envoyproxy.controlplane.cache.v3.Snapshot
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import pl.allegro.tech.servicemesh.envoycontrol.groups.CommunicationMode
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.EnvoySnapshotFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.GlobalSnapshot
+import java.util.concurrent.TimeUnit
+
+/**
+ * Builds of group snapshots, which includes clusters, endpoints, listeners with RBAC filters, routes and versions.
+ *
+ * Scores (and gc.alloc.rate.norm of the gc profiler) are per single group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class GroupSnapshotBenchmark {
+    companion object {
+        const val GROUPS = 100
+    }
+
+    @Param("1000")
+    @JvmField
+    var services: Int = 0
+
+    @Param("5")
+    @JvmField
+    var instances: Int = 0
+
+    @Param("3")
+    @JvmField
+    var clusters: Int = 0
+
+    @Param("10", "100")
+    @JvmField
+    var dependencies: Int = 0
+
+    private lateinit var envoySnapshotFactory: EnvoySnapshotFactory
+    private lateinit var globalSnapshot: GlobalSnapshot
+    private lateinit var groups: List<Group>
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val properties = SnapshotFactories.productionLikeProperties()
+        envoySnapshotFactory = SnapshotFactories.envoySnapshotFactory(properties)
+        globalSnapshot = envoySnapshotFactory.newSnapshot(
+            SyntheticData.multiClusterState(services, instances, clusters),
+            SyntheticData.clusterConfigurations(services),
+            CommunicationMode.ADS
+        )
+        groups = SyntheticData.groups(GROUPS, dependencies, services, properties)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    fun groupSnapshot(blackhole: Blackhole) {
+        groups.forEach { group ->
+            val snapshot: Snapshot = envoySnapshotFactory.getSnapshotForGroup(group, globalSnapshot)
+            blackhole.consume(snapshot)
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import com.google.protobuf.ListValue
+import com.google.protobuf.Struct
+import com.google.protobuf.Value
+import io.envoyproxy.envoy.config.core.v3.Node
+import io.envoyproxy.envoy.service.discovery.v3.DiscoveryRequest
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
+import pl.allegro.tech.servicemesh.envoycontrol.groups.MetadataNodeGroup
+import pl.allegro.tech.servicemesh.envoycontrol.groups.NodeMetadataCache
+import pl.allegro.tech.servicemesh.envoycontrol.groups.NodeMetadataValidator
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
+import java.util.concurrent.TimeUnit
+
+/**
+ * Validation and grouping of a node re-sent with every discovery request of a stream. With separate caches the
+ * validator parses metadata of every request and the node group parses it again on a miss, with a shared cache
+ * metadata validated for the stream is reused by both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class NodeRequestHandlingBenchmark {
+    companion object {
+        // requests are parsed from bytes, so like requests received from Envoy they don't share metadata instances
+        const val REQUESTS = 16
+    }
+
+    @Param("false", "true")
+    @JvmField
+    var shared: Boolean = false
+
+    @Param("false", "true")
+    @JvmField
+    var nodeGroupCache: Boolean = false
+
+    @Param("100")
+    @JvmField
+    var dependencies: Int = 0
+
+    private lateinit var validator: NodeMetadataValidator
+    private lateinit var nodeGroup: MetadataNodeGroup
+    private lateinit var requests: List<DiscoveryRequest>
+    private var nextRequest = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val properties = SnapshotProperties().also {
+            it.nodeGroupCache.enabled = nodeGroupCache
+            it.outgoingPermissions.enabled = true
+            it.incomingPermissions.enabled = true
+        }
+        val cache = NodeMetadataCache(properties)
+        validator = NodeMetadataValidator(properties, cache)
+        nodeGroup = MetadataNodeGroup(
+            properties,
+            nodeMetadataCache = if (shared) cache else NodeMetadataCache(properties)
+        )
+        val bytes = DiscoveryRequest.newBuilder()
+            .setNode(Node.newBuilder().setId("node").setMetadata(metadata()))
+            .build()
+            .toByteArray()
+        requests = (0 until REQUESTS).map { DiscoveryRequest.parseFrom(bytes) }
+    }
+
+    @Benchmark
+    fun handleRequest(): Group {
+        val request = requests[nextRequest++ % REQUESTS]
+        validator.onV3StreamRequest(1, request)
+        if (!shared) {
+            // metadata isn't remembered for the stream, as before it was shared
+            validator.onStreamClose(1, null)
+        }
+        return nodeGroup.hash(request.node)
+    }
+
+    private fun metadata(): Struct = struct(
+        "service_name" to string("service"),
+        "ads" to Value.newBuilder().setBoolValue(true).build(),
+        "proxy_settings" to struct(
+            "incoming" to struct(
+                "endpoints" to list((0 until 10).map {
+                    struct(
+                        "path" to string("/endpoint-$it"),
+                        "methods" to list(listOf(string("GET"), string("POST"))),
+                        "clients" to list((0 until 5).map { client -> string("client-$client") })
+                    )
+                })
+            ),
+            "outgoing" to struct(
+                "dependencies" to list((0 until dependencies).map {
+                    struct("service" to string(SyntheticData.serviceName(it)))
+                })
+            )
+        )
+    ).structValue
+
+    private fun struct(vararg fields: Pair<String, Value>): Value =
+        Value.newBuilder().setStructValue(Struct.newBuilder().putAllFields(fields.toMap())).build()
+
+    private fun list(values: List<Value>): Value =
+        Value.newBuilder().setListValue(ListValue.newBuilder().addAllValues(values)).build()
+
+    private fun string(value: String): Value = Value.newBuilder().setStringValue(value).build()
+}
@@ -0,0 +1,72 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import pl.allegro.tech.servicemesh.envoycontrol.services.transformers.EmptyAddressFilter
+import pl.allegro.tech.servicemesh.envoycontrol.services.transformers.InstanceMerger
+import pl.allegro.tech.servicemesh.envoycontrol.services.transformers.InvalidPortFilter
+import pl.allegro.tech.servicemesh.envoycontrol.services.transformers.IpAddressFilter
+import pl.allegro.tech.servicemesh.envoycontrol.services.transformers.ServiceInstancesTransformer
+import pl.allegro.tech.servicemesh.envoycontrol.services.transformers.ServiceInstancesTransformerPipeline
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Default transformers applied to all services of a state: chained one after another, in a fused single pass and in
+ * a pipeline which transforms again only the one service changed since the previous state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ServiceInstancesTransformersBenchmark {
+
+    @Param("5000")
+    @JvmField
+    var services: Int = 0
+
+    @Param("10")
+    @JvmField
+    var instances: Int = 0
+
+    private val transformers: List<ServiceInstancesTransformer> = listOf(
+        EmptyAddressFilter(), InvalidPortFilter(), InstanceMerger(), IpAddressFilter()
+    )
+    private lateinit var states: List<ServicesState>
+    private lateinit var memoizedPipeline: ServiceInstancesTransformerPipeline
+    private var transformation = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val state = SyntheticData.servicesState(services, instances, 0)
+        val serviceName = SyntheticData.serviceName(0)
+        states = listOf(
+            state,
+            state.change(SyntheticData.serviceInstances(serviceName, instances, 0, Random(services)))
+        )
+        memoizedPipeline = ServiceInstancesTransformerPipeline(transformers)
+        states.forEach { transform(memoizedPipeline, it) }
+    }
+
+    @Benchmark
+    fun chained(): List<ServiceInstances> = transformers
+        .fold(states[0].allInstances().asSequence()) { instances, transformer -> transformer.transform(instances) }
+        .toList()
+
+    @Benchmark
+    fun fused(): List<ServiceInstances> = transform(ServiceInstancesTransformerPipeline(transformers), states[0])
+
+    @Benchmark
+    fun memoized(): List<ServiceInstances> = transform(memoizedPipeline, states[++transformation % states.size])
+
+    private fun transform(pipeline: ServiceInstancesTransformerPipeline, state: ServicesState) =
+        state.allInstances().mapNotNull { pipeline.transform(it) }
+}
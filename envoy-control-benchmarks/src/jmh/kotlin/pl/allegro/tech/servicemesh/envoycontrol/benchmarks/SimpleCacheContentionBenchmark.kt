@@ -0,0 +1,113 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import io.envoyproxy.controlplane.cache.NodeGroup
+import io.envoyproxy.controlplane.cache.Resources
+import io.envoyproxy.controlplane.cache.XdsRequest
+import io.envoyproxy.controlplane.cache.v3.Snapshot
+import io.envoyproxy.envoy.config.cluster.v3.Cluster
+import io.envoyproxy.envoy.config.core.v3.Node
+import io.envoyproxy.envoy.config.endpoint.v3.ClusterLoadAssignment
+import io.envoyproxy.envoy.service.discovery.v3.DiscoveryRequest
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Group
+import org.openjdk.jmh.annotations.GroupThreads
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import pl.allegro.tech.servicemesh.envoycontrol.v3.SimpleCache
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Many threads updating snapshots of groups (as the parallel group snapshot update does) while many other threads
+ * create watches (as connecting Envoys do).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class SimpleCacheContentionBenchmark {
+    companion object {
+        const val CLUSTERS_PER_GROUP = 10
+        const val WRITERS = 4
+        const val WATCH_CREATORS = 4
+    }
+
+    @Param("1000")
+    @JvmField
+    var groups: Int = 0
+
+    private lateinit var cache: SimpleCache<String>
+    private lateinit var snapshots: List<Snapshot>
+    private lateinit var requests: List<XdsRequest>
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        cache = SimpleCache(NodeGroup { it.id }, false)
+        snapshots = listOf(snapshot("v1"), snapshot("v2"))
+        requests = (0 until groups).map { group ->
+            XdsRequest.create(
+                DiscoveryRequest.newBuilder()
+                    .setNode(Node.newBuilder().setId(groupName(group)))
+                    .setTypeUrl(Resources.V3.CLUSTER_TYPE_URL)
+                    .setVersionInfo("v1")
+                    .build()
+            )
+        }
+        (0 until groups).forEach { cache.setSnapshot(groupName(it), snapshots[0]) }
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(WRITERS)
+    fun setSnapshot(position: Position) {
+        val group = position.next(groups)
+        cache.setSnapshot(groupName(group), snapshots[position.round % snapshots.size])
+    }
+
+    @Benchmark
+    @Group("contention")
+    @GroupThreads(WATCH_CREATORS)
+    fun createWatch(position: Position) {
+        val request = requests[position.next(groups)]
+        // the watch is either responded immediately or left open until the next update, in both cases it's not
+        // needed anymore
+        cache.createWatch(true, request, emptySet(), {}, false, false).cancel()
+    }
+
+    private fun groupName(group: Int) = "group-$group"
+
+    private fun snapshot(version: String): Snapshot {
+        val clusters = (0 until CLUSTERS_PER_GROUP).map { Cluster.newBuilder().setName("cluster-$it").build() }
+        return Snapshot.create(
+            clusters,
+            clusters.map { ClusterLoadAssignment.newBuilder().setClusterName(it.name).build() },
+            emptyList(),
+            emptyList(),
+            emptyList(),
+            version
+        )
+    }
+
+    /**
+     * Position of a thread in groups, threads start at random groups to spread the load.
+     */
+    @State(Scope.Thread)
+    open class Position {
+        private var index = ThreadLocalRandom.current().nextInt(Int.MAX_VALUE)
+        var round = 0
+            private set
+
+        fun next(groups: Int): Int {
+            val group = Math.floorMod(index++, groups)
+            if (group == 0) {
+                round++
+            }
+            return group
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.EnvoySnapshotFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotsVersions
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.clusters.EnvoyClustersFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.endpoints.EnvoyEndpointsFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners.EnvoyListenersFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners.filters.EnvoyHttpFilters
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.routes.EnvoyEgressRoutesFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.routes.EnvoyIngressRoutesFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.routes.ServiceTagMetadataGenerator
+
+object SnapshotFactories {
+
+    /**
+     * Properties with the features most of production deployments use: incoming and outgoing permissions
+     * and dynamic listeners.
+     */
+    fun productionLikeProperties() = SnapshotProperties().also {
+        it.incomingPermissions.enabled = true
+        it.outgoingPermissions.enabled = true
+        it.dynamicListeners.enabled = true
+    }
+
+    /**
+     * Wires [EnvoySnapshotFactory] the same way as the control plane does.
+     */
+    fun envoySnapshotFactory(
+        properties: SnapshotProperties,
+        snapshotsVersions: SnapshotsVersions = SnapshotsVersions()
+    ): EnvoySnapshotFactory {
+        val envoyHttpFilters = EnvoyHttpFilters.defaultFilters(properties)
+        return EnvoySnapshotFactory(
+            ingressRoutesFactory = EnvoyIngressRoutesFactory(properties, envoyHttpFilters, SyntheticData.CURRENT_ZONE),
+            egressRoutesFactory = EnvoyEgressRoutesFactory(properties),
+            clustersFactory = EnvoyClustersFactory(properties, SyntheticData.CURRENT_ZONE),
+            endpointsFactory = EnvoyEndpointsFactory(
+                properties,
+                ServiceTagMetadataGenerator(properties.routing.serviceTags),
+                SyntheticData.CURRENT_ZONE
+            ),
+            listenersFactory = EnvoyListenersFactory(properties, envoyHttpFilters),
+            snapshotsVersions = snapshotsVersions,
+            properties = properties,
+            meterRegistry = SimpleMeterRegistry()
+        )
+    }
+}
@@ -0,0 +1,118 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import io.envoyproxy.envoy.config.cluster.v3.Cluster
+import io.envoyproxy.envoy.config.endpoint.v3.ClusterLoadAssignment
+import io.envoyproxy.envoy.config.listener.v3.Listener
+import io.envoyproxy.envoy.config.route.v3.RouteConfiguration
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OperationsPerInvocation
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import pl.allegro.tech.servicemesh.envoycontrol.groups.CommunicationMode
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotsVersions
+import java.util.concurrent.TimeUnit
+
+/**
+ * Version computation of group snapshots.
+ *
+ * Every call gets resources equal to, but not the same as, the previous ones - as after rebuilding a snapshot.
+ * [unchangedResources] compares them with the previous resources, [changedEndpoints] additionally generates
+ * a new endpoints version. Scores are per single group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class SnapshotsVersionsBenchmark {
+    companion object {
+        const val GROUPS = 100
+    }
+
+    @Param("1000")
+    @JvmField
+    var services: Int = 0
+
+    @Param("10", "100")
+    @JvmField
+    var dependencies: Int = 0
+
+    private lateinit var snapshotsVersions: SnapshotsVersions
+    private lateinit var resources: List<List<GroupResources>>
+    private lateinit var resourcesWithChangedEndpoints: List<List<GroupResources>>
+    private var call = 0
+
+    @Setup(Level.Trial)
+    fun setUp() {
+        val properties = SnapshotFactories.productionLikeProperties()
+        val envoySnapshotFactory = SnapshotFactories.envoySnapshotFactory(properties)
+        val globalSnapshot = envoySnapshotFactory.newSnapshot(
+            SyntheticData.multiClusterState(services, instances = 5, clusters = 3),
+            SyntheticData.clusterConfigurations(services),
+            CommunicationMode.ADS
+        )
+        val groupsResources = SyntheticData.groups(GROUPS, dependencies, services, properties).map { group ->
+            val snapshot = envoySnapshotFactory.getSnapshotForGroup(group, globalSnapshot)
+            GroupResources(
+                group = group,
+                clusters = snapshot.clusters().resources().values.toList(),
+                endpoints = snapshot.endpoints().resources().values.toList(),
+                listeners = snapshot.listeners().resources().values.toList(),
+                routes = snapshot.routes().resources().values.toList()
+            )
+        }
+        resources = listOf(groupsResources.map { it.copyOf() }, groupsResources.map { it.copyOf() })
+        resourcesWithChangedEndpoints = listOf(
+            groupsResources.map { it.copyOf() },
+            groupsResources.map { it.copyOf(endpoints = it.endpoints.map(::withoutFirstEndpoint)) }
+        )
+        snapshotsVersions = SnapshotsVersions()
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    fun unchangedResources(blackhole: Blackhole) {
+        version(resources[++call % resources.size], blackhole)
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GROUPS)
+    fun changedEndpoints(blackhole: Blackhole) {
+        version(resourcesWithChangedEndpoints[++call % resourcesWithChangedEndpoints.size], blackhole)
+    }
+
+    private fun version(groupsResources: List<GroupResources>, blackhole: Blackhole) {
+        groupsResources.forEach {
+            blackhole.consume(snapshotsVersions.version(it.group, it.clusters, it.endpoints, it.listeners, it.routes))
+        }
+    }
+
+    private fun withoutFirstEndpoint(loadAssignment: ClusterLoadAssignment): ClusterLoadAssignment =
+        if (loadAssignment.endpointsCount == 0) {
+            loadAssignment
+        } else {
+            loadAssignment.toBuilder().removeEndpoints(0).build()
+        }
+
+    class GroupResources(
+        val group: Group,
+        val clusters: List<Cluster>,
+        val endpoints: List<ClusterLoadAssignment>,
+        val listeners: List<Listener>,
+        val routes: List<RouteConfiguration>
+    ) {
+        fun copyOf(endpoints: List<ClusterLoadAssignment> = this.endpoints) = GroupResources(
+            group = group,
+            clusters = clusters.toList(),
+            endpoints = endpoints.toList(),
+            listeners = listeners.toList(),
+            routes = routes.toList()
+        )
+    }
+}
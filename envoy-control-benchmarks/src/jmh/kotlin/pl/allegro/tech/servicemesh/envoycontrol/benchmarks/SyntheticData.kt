@@ -0,0 +1,152 @@
+package pl.allegro.tech.servicemesh.envoycontrol.benchmarks
+
+import pl.allegro.tech.servicemesh.envoycontrol.groups.AccessLogFilterSettings
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ClientWithSelector
+import pl.allegro.tech.servicemesh.envoycontrol.groups.CommunicationMode
+import pl.allegro.tech.servicemesh.envoycontrol.groups.DomainDependency
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Incoming
+import pl.allegro.tech.servicemesh.envoycontrol.groups.IncomingEndpoint
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ListenersConfig
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Outgoing
+import pl.allegro.tech.servicemesh.envoycontrol.groups.PathMatchingType
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ProxySettings
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Role
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ServiceDependency
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ServicesGroup
+import pl.allegro.tech.servicemesh.envoycontrol.services.ClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.services.Locality
+import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstance
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.ClusterConfiguration
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.random.Random
+
+/**
+ * Deterministic generators of discovery states and groups resembling a production mesh.
+ */
+@Suppress("MagicNumber")
+object SyntheticData {
+    const val CURRENT_ZONE = "dc1"
+    private const val SEED = 42
+    private val TAGS = listOf("hermes", "lorem", "ipsum", "version:v1", "version:v2")
+
+    fun serviceName(index: Int) = "service-$index"
+
+    fun clusterName(index: Int) = "dc${index + 1}"
+
+    /**
+     * [services] services with [instances] instances each, in every of [clusters] clusters. The first cluster is local.
+     */
+    fun multiClusterState(services: Int, instances: Int, clusters: Int): MultiClusterState =
+        MultiClusterState((0 until clusters).map { cluster ->
+            ClusterState(
+                servicesState = servicesState(services, instances, cluster),
+                locality = if (cluster == 0) Locality.LOCAL else Locality.REMOTE,
+                cluster = clusterName(cluster)
+            )
+        })
+
+    fun servicesState(services: Int, instances: Int, cluster: Int): ServicesState {
+        val random = Random(SEED + cluster)
+        val state = ConcurrentHashMap<String, ServiceInstances>()
+        (0 until services).forEach { service ->
+            state[serviceName(service)] = serviceInstances(serviceName(service), instances, cluster, random)
+        }
+        return ServicesState(state)
+    }
+
+    fun serviceInstances(serviceName: String, instances: Int, cluster: Int, random: Random) = ServiceInstances(
+        serviceName,
+        (0 until instances).mapTo(HashSet()) { instance ->
+            ServiceInstance(
+                id = "$serviceName-${clusterName(cluster)}-$instance",
+                tags = TAGS.filterTo(HashSet()) { random.nextInt(3) == 0 },
+                address = "10.$cluster.${random.nextInt(256)}.${random.nextInt(256)}",
+                port = 31000 + random.nextInt(1000),
+                canary = random.nextInt(10) == 0,
+                weight = 1 + random.nextInt(10)
+            )
+        }
+    )
+
+    fun clusterConfigurations(services: Int): Map<String, ClusterConfiguration> =
+        (0 until services).associate { service ->
+            serviceName(service) to ClusterConfiguration(serviceName(service), http2Enabled = service % 4 == 0)
+        }
+
+    /**
+     * [groups] groups of different services, each with [dependencies] outgoing services dependencies and incoming
+     * endpoints allowing a few clients.
+     */
+    fun groups(
+        groups: Int,
+        dependencies: Int,
+        services: Int,
+        properties: SnapshotProperties,
+        communicationMode: CommunicationMode = CommunicationMode.ADS
+    ): List<Group> {
+        val random = Random(SEED)
+        return (0 until groups).map { group ->
+            val serviceName = serviceName(group % services)
+            ServicesGroup(
+                communicationMode = communicationMode,
+                serviceName = serviceName,
+                discoveryServiceName = serviceName,
+                proxySettings = ProxySettings(
+                    incoming = incoming(services, random),
+                    outgoing = outgoing(dependencies, services, random)
+                ),
+                listenersConfig = listenersConfig(properties)
+            )
+        }
+    }
+
+    private fun outgoing(dependencies: Int, services: Int, random: Random) = Outgoing(
+        serviceDependencies = randomServices(dependencies, services, random).map { ServiceDependency(it) },
+        domainDependencies = listOf(
+            DomainDependency("https://example-${random.nextInt(100)}.com"),
+            DomainDependency("http://example-${random.nextInt(100)}.com:8080")
+        )
+    )
+
+    private fun incoming(services: Int, random: Random) = Incoming(
+        endpoints = listOf(
+            IncomingEndpoint(
+                path = "/api/",
+                pathMatchingType = PathMatchingType.PATH_PREFIX,
+                methods = setOf("GET"),
+                clients = clients(5, services, random) + ClientWithSelector.create("readers")
+            ),
+            IncomingEndpoint(
+                path = "/api/resource",
+                methods = setOf("POST", "PUT"),
+                clients = clients(2, services, random)
+            ),
+            IncomingEndpoint(
+                path = "/status/.*",
+                pathMatchingType = PathMatchingType.PATH_REGEX,
+                clients = clients(1, services, random)
+            )
+        ),
+        permissionsEnabled = true,
+        roles = listOf(Role("readers", clients(10, services, random)))
+    )
+
+    private fun clients(count: Int, services: Int, random: Random): Set<ClientWithSelector> =
+        randomServices(count, services, random).mapTo(HashSet()) { ClientWithSelector.create(it) }
+
+    private fun randomServices(count: Int, services: Int, random: Random): List<String> =
+        (0 until count).map { serviceName(random.nextInt(services)) }.distinct()
+
+    private fun listenersConfig(properties: SnapshotProperties) = ListenersConfig(
+        ingressHost = "0.0.0.0",
+        ingressPort = 5001,
+        egressHost = "0.0.0.0",
+        egressPort = 5000,
+        accessLogFilterSettings = AccessLogFilterSettings(null, properties.dynamicListeners.httpFilters.accessLog.filters)
+    )
+}
@@ -0,0 +1,32 @@
+package pl.allegro.tech.servicemesh.envoycontrol;
+
+import io.envoyproxy.controlplane.cache.Snapshot;
+import io.envoyproxy.controlplane.cache.SnapshotCache;
+
+/**
+ * Snapshot cache which tells when a watch adds a new group, so new groups are found without comparing copies of
+ * {@link #groups()} taken before and after every watch.
+ */
+public interface GroupsAwareSnapshotCache<T, U extends Snapshot> extends SnapshotCache<T, U> {
+
+    /**
+     * Returns the number of groups, the same as the size of {@link #groups()} without copying them.
+     */
+    int groupsCount();
+
+    /**
+     * Sets the listener called when a watch is created for a group which the cache has no status of. It's called by
+     * the thread creating the watch, after the watch is created and the lock of the group is released.
+     */
+    void setNewGroupListener(NewGroupListener<T> listener);
+
+    @FunctionalInterface
+    interface NewGroupListener<T> {
+
+        /**
+         * @param group             the new group
+         * @param watchRequestNanos {@link System#nanoTime()} when the watch adding the group was requested
+         */
+        void onNewGroup(T group, long watchRequestNanos);
+    }
+}
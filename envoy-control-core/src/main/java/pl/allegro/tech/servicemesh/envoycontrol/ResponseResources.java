@@ -0,0 +1,48 @@
+package pl.allegro.tech.servicemesh.envoycontrol;
+
+import com.google.protobuf.Message;
+import io.envoyproxy.controlplane.cache.Resources;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Resources of responses to watches of groups at their current snapshots.
+ *
+ * <p>Watches of a group requesting the same resources at the same version are responded with the same collection of
+ * resources. The serializer packs it once for all of them, instead of once per watch, which matters for groups with
+ * many Envoys.
+ */
+final class ResponseResources<T> {
+
+    private final Map<T, Map<Key, Collection<? extends Message>>> resources = new ConcurrentHashMap<>();
+
+    /**
+     * Drops resources of the previous snapshot of the group. It has to be called under the write lock of the group.
+     */
+    void snapshotChanged(T group) {
+        resources.put(group, new ConcurrentHashMap<>());
+    }
+
+    void remove(T group) {
+        resources.remove(group);
+    }
+
+    Collection<? extends Message> get(T group,
+                                      Resources.ResourceType resourceType,
+                                      String version,
+                                      List<String> resourceNames,
+                                      Supplier<Collection<? extends Message>> filter) {
+        Map<Key, Collection<? extends Message>> groupResources = resources.get(group);
+        if (groupResources == null) {
+            return filter.get();
+        }
+        return groupResources.computeIfAbsent(new Key(resourceType, version, resourceNames), key -> filter.get());
+    }
+
+    private record Key(Resources.ResourceType resourceType, String version, List<String> resourceNames) {
+    }
+}
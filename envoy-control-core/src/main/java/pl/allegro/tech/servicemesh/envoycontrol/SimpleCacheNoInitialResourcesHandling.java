@@ -5,6 +5,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import com.google.protobuf.Message;
 import io.envoyproxy.controlplane.cache.AbstractWatch;
 import io.envoyproxy.controlplane.cache.CacheStatusInfo;
@@ -20,7 +21,6 @@ import io.envoyproxy.controlplane.cache.Resources;
 import static io.envoyproxy.controlplane.cache.Resources.RESOURCE_TYPES_IN_ORDER;
 import io.envoyproxy.controlplane.cache.Response;
 import io.envoyproxy.controlplane.cache.Snapshot;
-import io.envoyproxy.controlplane.cache.SnapshotCache;
 import io.envoyproxy.controlplane.cache.StatusInfo;
 import io.envoyproxy.controlplane.cache.VersionedResource;
 import io.envoyproxy.controlplane.cache.Watch;
@@ -29,20 +29,20 @@ import io.envoyproxy.controlplane.cache.XdsRequest;
 import io.envoyproxy.envoy.config.endpoint.v3.ClusterLoadAssignment;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import javax.annotation.concurrent.GuardedBy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,20 +50,27 @@ import org.slf4j.LoggerFactory;
  * This class is copy of {@link io.envoyproxy.controlplane.cache.SimpleCache}
  * todo #920 Remove this class with a feature flag after deploying and testing on production
  */
-public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implements SnapshotCache<T, U> {
+public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implements GroupsAwareSnapshotCache<T, U> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SimpleCacheNoInitialResourcesHandling.class);
+    private static final int LOCK_STRIPES = 1024;
 
     private final NodeGroup<T> groups;
     private final boolean shouldSendMissingEndpoints;
 
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
-    private final Lock readLock = lock.readLock();
-    private final Lock writeLock = lock.writeLock();
+    // Locks are striped by group. Watches of a group are created under a read lock and its snapshot is replaced under
+    // a write lock, so updating snapshots of different groups doesn't block each other nor watches of other groups.
+    private final Striped<ReadWriteLock> locks = Striped.readWriteLock(LOCK_STRIPES);
 
-    @GuardedBy("lock")
-    private final Map<T, U> snapshots = new HashMap<>();
+    private final Map<T, U> snapshots = new ConcurrentHashMap<>();
+    // deltas between the current and the previous snapshot of a group, for resource types with delta watches
+    private final Map<T, Map<Resources.ResourceType, SnapshotDelta>> deltas = new ConcurrentHashMap<>();
+    private final ResponseResources<T> responseResources = new ResponseResources<>();
     private final CacheStatusInfoAggregator<T> statuses = new CacheStatusInfoAggregator<>();
+    // groups with statuses, kept apart from statuses to tell in O(1) whether a watch added a group
+    private final Set<T> knownGroups = ConcurrentHashMap.newKeySet();
+    private volatile NewGroupListener<T> newGroupListener = (group, watchRequestNanos) -> {
+    };
 
     private AtomicLong watchCount = new AtomicLong();
 
@@ -84,6 +91,7 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
     @Override
     public boolean clearSnapshot(T group) {
         // we take a writeLock to prevent watches from being created
+        Lock writeLock = locks.get(group).writeLock();
         writeLock.lock();
         try {
 
@@ -95,7 +103,10 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
             }
 
             statuses.remove(group);
+            knownGroups.remove(group);
             snapshots.remove(group);
+            deltas.remove(group);
+            responseResources.remove(group);
 
             return true;
         } finally {
@@ -122,6 +133,7 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
             Consumer<Response> responseConsumer,
             boolean hasClusterChanged,
             boolean allowDefaultEmptyEdsUpdate) {
+        long watchRequestNanos = System.nanoTime();
         Resources.ResourceType requestResourceType = request.getResourceType();
         Preconditions.checkNotNull(requestResourceType, "unsupported type URL %s",
                 request.getTypeUrl());
@@ -130,9 +142,12 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
 
         // even though we're modifying, we take a readLock to allow multiple watches to be created in parallel since it
         // doesn't conflict
+        Lock readLock = locks.get(group).readLock();
+        boolean newGroup = false;
         readLock.lock();
         try {
             CacheStatusInfo<T> status = statuses.getOrAddStatusInfo(group, requestResourceType);
+            newGroup = knownGroups.add(group);
             status.setLastWatchRequestTime(System.currentTimeMillis());
 
             U snapshot = snapshots.get(group);
@@ -181,6 +196,9 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
             return watch;
         } finally {
             readLock.unlock();
+            if (newGroup) {
+                newGroupListener.onNewGroup(group, watchRequestNanos);
+            }
         }
     }
 
@@ -197,6 +215,7 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
             Consumer<DeltaResponse> responseConsumer,
             boolean hasClusterChanged) {
 
+        long watchRequestNanos = System.nanoTime();
         Resources.ResourceType requestResourceType = request.getResourceType();
         Preconditions.checkNotNull(requestResourceType, "unsupported type URL %s",
                 request.getTypeUrl());
@@ -205,9 +224,12 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
 
         // even though we're modifying, we take a readLock to allow multiple watches to be created in parallel since it
         // doesn't conflict
+        Lock readLock = locks.get(group).readLock();
+        boolean newGroup = false;
         readLock.lock();
         try {
             DeltaCacheStatusInfo<T> status = statuses.getOrAddDeltaStatusInfo(group, requestResourceType);
+            newGroup = knownGroups.add(group);
 
             status.setLastWatchRequestTime(System.currentTimeMillis());
 
@@ -260,7 +282,10 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
             }
 
             // Otherwise, version is different, the watch may be responded immediately
-            ResponseState responseState = respondDelta(request, watch, snapshot, version, group);
+            SnapshotDelta delta = deltas.getOrDefault(group, Collections.emptyMap()).get(requestResourceType);
+            ResponseState responseState = delta != null && delta.isNextVersionFor(watch)
+                    ? respondDelta(watch, delta.changedResources(watch), delta.removedResources(watch), version, group)
+                    : respondDelta(request, watch, snapshot, version, group);
 
             if (responseState.isFinished()) {
                 return watch;
@@ -271,6 +296,9 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
             return watch;
         } finally {
             readLock.unlock();
+            if (newGroup) {
+                newGroupListener.onNewGroup(group, watchRequestNanos);
+            }
         }
     }
 
@@ -298,13 +326,7 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
      */
     @Override
     public U getSnapshot(T group) {
-        readLock.lock();
-
-        try {
-            return snapshots.get(group);
-        } finally {
-            readLock.unlock();
-        }
+        return snapshots.get(group);
     }
 
     /**
@@ -315,6 +337,22 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
         return ImmutableSet.copyOf(statuses.groups());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int groupsCount() {
+        return knownGroups.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setNewGroupListener(NewGroupListener<T> listener) {
+        this.newGroupListener = listener;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -327,10 +365,14 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
         Map<Resources.ResourceType, CacheStatusInfo<T>> status;
         Map<Resources.ResourceType, DeltaCacheStatusInfo<T>> deltaStatus;
         U previousSnapshot;
+        Map<Resources.ResourceType, SnapshotDelta> snapshotDeltas = snapshotDeltas(group, snapshot);
+        Lock writeLock = locks.get(group).writeLock();
         writeLock.lock();
         try {
             // Update the existing snapshot entry.
             previousSnapshot = snapshots.put(group, snapshot);
+            deltas.put(group, snapshotDeltas);
+            responseResources.snapshotChanged(group);
             status = statuses.getStatus(group);
             deltaStatus = statuses.getDeltaStatus(group);
         } finally {
@@ -346,11 +388,33 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
         respondWithSpecificOrder(group, previousSnapshot, snapshot, status, deltaStatus);
     }
 
+    private Map<Resources.ResourceType, SnapshotDelta> snapshotDeltas(T group, U snapshot) {
+        // setSnapshot is not called concurrently for the same group, so the current snapshot is the previous one
+        U previousSnapshot = snapshots.get(group);
+        Map<Resources.ResourceType, DeltaCacheStatusInfo<T>> deltaStatus = statuses.getDeltaStatus(group);
+        if (previousSnapshot == null || deltaStatus.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<Resources.ResourceType, SnapshotDelta> snapshotDeltas = new EnumMap<>(Resources.ResourceType.class);
+        for (Resources.ResourceType resourceType : deltaStatus.keySet()) {
+            snapshotDeltas.put(resourceType, SnapshotDelta.between(previousSnapshot, snapshot, resourceType));
+        }
+        return snapshotDeltas;
+    }
+
+    private SnapshotDelta snapshotDelta(T group, U previousSnapshot, U snapshot, Resources.ResourceType resourceType) {
+        SnapshotDelta delta = deltas.getOrDefault(group, Collections.emptyMap()).get(resourceType);
+        // a delta watch of the resource type might have been created after the deltas were computed
+        return delta != null ? delta : SnapshotDelta.between(previousSnapshot, snapshot, resourceType);
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public StatusInfo<T> statusInfo(T group) {
+        Lock readLock = locks.get(group).readLock();
         readLock.lock();
 
         try {
@@ -404,24 +468,7 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
             }
             DeltaCacheStatusInfo<T> deltaStatus = deltaStatusMap.get(resourceType);
             if (deltaStatus != null) {
-                Map<String, VersionedResource<?>> previousResources = previousSnapshot == null
-                        ? Collections.emptyMap()
-                        : previousSnapshot.versionedResources(resourceType);
-                Map<String, VersionedResource<?>> snapshotResources = snapshot.versionedResources(resourceType);
-
-                Map<String, VersionedResource<?>> snapshotChangedResources = snapshotResources.entrySet()
-                        .stream()
-                        .filter(entry -> {
-                            VersionedResource<?> versionedResource = previousResources.get(entry.getKey());
-                            return versionedResource == null || !versionedResource
-                                    .version().equals(entry.getValue().version());
-                        })
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-
-                Set<String> snapshotRemovedResources = previousResources.keySet()
-                        .stream()
-                        .filter(s -> !snapshotResources.containsKey(s))
-                        .collect(Collectors.toSet());
+                SnapshotDelta delta = snapshotDelta(group, previousSnapshot, snapshot, resourceType);
 
                 deltaStatus.watchesRemoveIf((id, watch) -> {
                     String version = snapshot.version(watch.request().getResourceType(), Collections.emptyList());
@@ -434,11 +481,10 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
                                     version);
                         }
 
-                        List<String> removedResources = snapshotRemovedResources.stream()
-                                .filter(s -> watch.trackedResources().get(s) != null)
-                                .collect(Collectors.toList());
-
-                        Map<String, VersionedResource<?>> changedResources = findChangedResources(watch, snapshotChangedResources);
+                        List<String> removedResources = delta.removedResources(watch);
+                        Map<String, VersionedResource<?>> changedResources = delta.isNextVersionFor(watch)
+                                ? delta.changedResources(watch)
+                                : findChangedResources(watch, delta.changedResources());
 
                         ResponseState responseState = respondDelta(watch,
                                 changedResources,
@@ -457,9 +503,20 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
         }
     }
 
-    private Response createResponse(XdsRequest request, Map<String, VersionedResource<?>> resources,
-                                    String version) {
-        Collection<? extends Message> filtered = request.getResourceNamesList().isEmpty()
+    private Response createSharedResponse(T group, XdsRequest request, Map<String, VersionedResource<?>> resources,
+                                          String version) {
+        Collection<? extends Message> shared = responseResources.get(
+                group,
+                request.getResourceType(),
+                version,
+                request.getResourceNamesList(),
+                () -> filterResources(request, resources));
+        return Response.create(request, shared, version);
+    }
+
+    private Collection<? extends Message> filterResources(XdsRequest request,
+                                                          Map<String, VersionedResource<?>> resources) {
+        return request.getResourceNamesList().isEmpty()
                 ? resources.values().stream()
                 .map(VersionedResource::resource)
                 .collect(Collectors.toList())
@@ -468,8 +525,6 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
                 .filter(Objects::nonNull)
                 .map(VersionedResource::resource)
                 .collect(Collectors.toList());
-
-        return Response.create(request, filtered, version);
     }
 
     private boolean respond(Watch watch, U snapshot, T group) {
@@ -528,19 +583,15 @@ public class SimpleCacheNoInitialResourcesHandling<T, U extends Snapshot> implem
                 group,
                 watch.request().getVersionInfo(),
                 version);
-        Response response;
+        Map<String, VersionedResource<?>> resources;
         if (!snapshotForMissingResources.isEmpty()) {
+            // placeholders of missing resources depend only on requested names, so the response can be shared too
             snapshotForMissingResources.putAll(snapshotResources);
-            response = createResponse(
-                    watch.request(),
-                    snapshotForMissingResources,
-                    version);
+            resources = snapshotForMissingResources;
         } else {
-            response = createResponse(
-                    watch.request(),
-                    snapshotResources,
-                    version);
+            resources = snapshotResources;
         }
+        Response response = createSharedResponse(group, watch.request(), resources, version);
 
         try {
             watch.respond(response);
@@ -0,0 +1,147 @@
+package pl.allegro.tech.servicemesh.envoycontrol;
+
+import io.envoyproxy.controlplane.cache.DeltaWatch;
+import io.envoyproxy.controlplane.cache.Resources;
+import io.envoyproxy.controlplane.cache.Snapshot;
+import io.envoyproxy.controlplane.cache.VersionedResource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Resources of one type changed and removed between two consecutive snapshots of a group.
+ *
+ * <p>It's computed once per snapshot and shared by all delta watches of the group. Watches which are at the version
+ * of the previous snapshot are responded straight from it, instead of comparing their tracked resources with the
+ * whole snapshot.
+ */
+final class SnapshotDelta {
+
+    private final String previousVersion;
+    private final Map<String, VersionedResource<?>> resources;
+    private final Map<String, VersionedResource<?>> changedResources;
+    private final Set<String> removedResources;
+
+    private SnapshotDelta(String previousVersion,
+                          Map<String, VersionedResource<?>> resources,
+                          Map<String, VersionedResource<?>> changedResources,
+                          Set<String> removedResources) {
+        this.previousVersion = previousVersion;
+        this.resources = resources;
+        this.changedResources = changedResources;
+        this.removedResources = removedResources;
+    }
+
+    /**
+     * Compares resources by versions of {@link VersionedResource}, which are already computed by the snapshots.
+     *
+     * @param previousSnapshot snapshot replaced by the given one, null if there was no snapshot of the group
+     */
+    static SnapshotDelta between(Snapshot previousSnapshot, Snapshot snapshot, Resources.ResourceType resourceType) {
+        Map<String, VersionedResource<?>> previousResources = previousSnapshot == null
+            ? Collections.emptyMap()
+            : previousSnapshot.versionedResources(resourceType);
+        Map<String, VersionedResource<?>> resources = snapshot.versionedResources(resourceType);
+
+        Map<String, VersionedResource<?>> changedResources = new HashMap<>();
+        resources.forEach((name, resource) -> {
+            VersionedResource<?> previousResource = previousResources.get(name);
+            if (previousResource == null || !previousResource.version().equals(resource.version())) {
+                changedResources.put(name, resource);
+            }
+        });
+
+        Set<String> removedResources = new HashSet<>();
+        previousResources.keySet().forEach(name -> {
+            if (!resources.containsKey(name)) {
+                removedResources.add(name);
+            }
+        });
+
+        String previousVersion = previousSnapshot == null
+            ? null
+            : previousSnapshot.version(resourceType, Collections.emptyList());
+        return new SnapshotDelta(
+            previousVersion,
+            resources,
+            Collections.unmodifiableMap(changedResources),
+            Collections.unmodifiableSet(removedResources)
+        );
+    }
+
+    /**
+     * Returns true if the watch is at the version of the previous snapshot, so its tracked resources are the resources
+     * of the previous snapshot.
+     *
+     * <p>Initial resource versions are sent only at the beginning of a stream and are not related to the previous
+     * snapshot, so such watches have to be compared with the whole snapshot.
+     */
+    boolean isNextVersionFor(DeltaWatch watch) {
+        return previousVersion != null
+            && !previousVersion.isEmpty()
+            && previousVersion.equals(watch.version())
+            && watch.request().getInitialResourceVersionsMap().isEmpty();
+    }
+
+    Map<String, VersionedResource<?>> changedResources() {
+        return changedResources;
+    }
+
+    /**
+     * Returns changed resources which should be sent to the watch, it should be used only if
+     * {@link #isNextVersionFor(DeltaWatch)} is true.
+     */
+    Map<String, VersionedResource<?>> changedResources(DeltaWatch watch) {
+        if (watch.isWildcard() && watch.pendingResources().isEmpty()) {
+            // the watch has all resources of the previous snapshot, so it needs exactly the changed ones
+            return changedResources;
+        }
+
+        Map<String, VersionedResource<?>> watchChangedResources = new HashMap<>();
+        if (watch.isWildcard()) {
+            watchChangedResources.putAll(changedResources);
+        } else {
+            Map<String, String> trackedResources = watch.trackedResources();
+            // iterate over the smaller collection, there are often only a few changed resources
+            if (trackedResources.size() < changedResources.size()) {
+                trackedResources.forEach((name, version) -> putIfChanged(watchChangedResources, name, version));
+            } else {
+                changedResources.keySet()
+                    .forEach(name -> putIfChanged(watchChangedResources, name, trackedResources.get(name)));
+            }
+        }
+        watch.pendingResources().forEach(name -> {
+            VersionedResource<?> resource = resources.get(name);
+            if (resource != null) {
+                watchChangedResources.put(name, resource);
+            }
+        });
+        return watchChangedResources;
+    }
+
+    /**
+     * Returns removed resources which are tracked by the watch.
+     */
+    List<String> removedResources(DeltaWatch watch) {
+        if (removedResources.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return removedResources.stream()
+            .filter(watch.trackedResources()::containsKey)
+            .collect(Collectors.toList());
+    }
+
+    private void putIfChanged(Map<String, VersionedResource<?>> watchChangedResources,
+                              String name,
+                              String trackedVersion) {
+        VersionedResource<?> resource = changedResources.get(name);
+        if (resource != null && trackedVersion != null && !resource.version().equals(trackedVersion)) {
+            watchChangedResources.put(name, resource);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package pl.allegro.tech.servicemesh.envoycontrol
 
+import io.envoyproxy.controlplane.cache.ConfigWatcher
 import io.envoyproxy.controlplane.cache.NodeGroup
 import io.envoyproxy.controlplane.cache.SnapshotCache
 import io.envoyproxy.controlplane.cache.v3.Snapshot
@@ -17,13 +18,18 @@ import io.netty.channel.socket.nio.NioServerSocketChannel
 import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
 import pl.allegro.tech.servicemesh.envoycontrol.groups.GroupChangeWatcher
 import pl.allegro.tech.servicemesh.envoycontrol.groups.MetadataNodeGroup
+import pl.allegro.tech.servicemesh.envoycontrol.groups.NodeMetadataCache
 import pl.allegro.tech.servicemesh.envoycontrol.groups.NodeMetadataValidator
 import pl.allegro.tech.servicemesh.envoycontrol.server.CachedProtoResourcesSerializer
 import pl.allegro.tech.servicemesh.envoycontrol.server.ExecutorProperties
 import pl.allegro.tech.servicemesh.envoycontrol.server.ExecutorType
+import pl.allegro.tech.servicemesh.envoycontrol.server.PushAdmission
+import pl.allegro.tech.servicemesh.envoycontrol.server.PushAdmissionConfigWatcher
+import pl.allegro.tech.servicemesh.envoycontrol.server.ShardedExecutorGroup
 import pl.allegro.tech.servicemesh.envoycontrol.server.callbacks.CompositeDiscoveryServerCallbacks
 import pl.allegro.tech.servicemesh.envoycontrol.server.callbacks.LoggingDiscoveryServerCallbacks
 import pl.allegro.tech.servicemesh.envoycontrol.server.callbacks.MetricsDiscoveryServerCallbacks
+import pl.allegro.tech.servicemesh.envoycontrol.server.callbacks.PushAdmissionDiscoveryServerCallbacks
 import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.EnvoySnapshotFactory
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.NoopSnapshotChangeAuditor
@@ -101,8 +107,11 @@ class ControlPlane private constructor(
         var envoyHttpFilters: EnvoyHttpFilters = EnvoyHttpFilters.emptyFilters
         var snapshotChangeAuditor: SnapshotChangeAuditor = NoopSnapshotChangeAuditor
 
+        var nodeMetadataCache: NodeMetadataCache = NodeMetadataCache(properties.envoy.snapshot)
         var nodeGroup: NodeGroup<Group> = MetadataNodeGroup(
-            properties = properties.envoy.snapshot
+            properties = properties.envoy.snapshot,
+            meterRegistry = meterRegistry,
+            nodeMetadataCache = nodeMetadataCache
         )
         var currentZone: String = "local"
 
@@ -144,14 +153,15 @@ class ControlPlane private constructor(
             val groupSnapshotProperties = properties.server.groupSnapshotUpdateScheduler
 
             val groupSnapshotScheduler = buildGroupSnapshotScheduler(groupSnapshotProperties)
-            val cache: SnapshotCache<Group, Snapshot> = if (properties.server.enableInitialResourcesHandling) {
-                SimpleCache(nodeGroup, properties.envoy.snapshot.shouldSendMissingEndpoints)
-            } else {
-                SimpleCacheNoInitialResourcesHandling(
-                    nodeGroup,
-                    properties.envoy.snapshot.shouldSendMissingEndpoints
-                )
-            }
+            val cache: GroupsAwareSnapshotCache<Group, Snapshot> =
+                if (properties.server.enableInitialResourcesHandling) {
+                    SimpleCache(nodeGroup, properties.envoy.snapshot.shouldSendMissingEndpoints)
+                } else {
+                    SimpleCacheNoInitialResourcesHandling(
+                        nodeGroup,
+                        properties.envoy.snapshot.shouldSendMissingEndpoints
+                    )
+                }
             val groupChangeWatcher = GroupChangeWatcher(cache, metrics, meterRegistry)
             val meteredConnectionsCallbacks = MetricsDiscoveryServerCallbacks(meterRegistry)
             val loggingDiscoveryServerCallbacks = LoggingDiscoveryServerCallbacks(
@@ -159,13 +169,22 @@ class ControlPlane private constructor(
                 properties.server.logFullResponse
             )
 
+            val pushAdmission = if (properties.server.pushAdmission.enabled) {
+                PushAdmission(properties.server.pushAdmission, meterRegistry)
+            } else {
+                null
+            }
+
             val compositeDiscoveryServerCallbacksV3 = listOf(
                 CompositeDiscoveryServerCallbacks(
                     meterRegistry,
-                    buildSnapshotCollectingCallback(cache),
-                    loggingDiscoveryServerCallbacks,
-                    meteredConnectionsCallbacks,
-                    NodeMetadataValidator(properties.envoy.snapshot)
+                    *listOfNotNull(
+                        buildSnapshotCollectingCallback(cache),
+                        loggingDiscoveryServerCallbacks,
+                        meteredConnectionsCallbacks,
+                        NodeMetadataValidator(properties.envoy.snapshot, nodeMetadataCache),
+                        pushAdmission?.let { PushAdmissionDiscoveryServerCallbacks(it) }
+                    ).toTypedArray()
                 )
             )
             val cachedProtoResourcesSerializer = CachedProtoResourcesSerializer(
@@ -173,8 +192,8 @@ class ControlPlane private constructor(
                 properties.server.reportProtobufCacheMetrics
             )
 
-            val snapshotsVersions = SnapshotsVersions()
             val snapshotProperties = properties.envoy.snapshot
+            val snapshotsVersions = SnapshotsVersions(snapshotProperties.versionsDigest.enabled)
             val envoySnapshotFactory = EnvoySnapshotFactory(
                 ingressRoutesFactory = EnvoyIngressRoutesFactory(snapshotProperties, envoyHttpFilters, currentZone),
                 egressRoutesFactory = EnvoyEgressRoutesFactory(snapshotProperties),
@@ -186,7 +205,8 @@ class ControlPlane private constructor(
                 ),
                 listenersFactory = EnvoyListenersFactory(
                     snapshotProperties,
-                    envoyHttpFilters
+                    envoyHttpFilters,
+                    meterRegistry
                 ),
                 // Remember when LDS change we have to send RDS again
                 snapshotsVersions = snapshotsVersions,
@@ -198,7 +218,7 @@ class ControlPlane private constructor(
             grpcServerBuilder.withEnvoyServices(
                 createV3Server(
                     compositeDiscoveryServerCallbacksV3,
-                    groupChangeWatcher,
+                    pushAdmission?.let { PushAdmissionConfigWatcher(groupChangeWatcher, it) } ?: groupChangeWatcher,
                     cachedProtoResourcesSerializer
                 )
             )
@@ -244,12 +264,12 @@ class ControlPlane private constructor(
 
         private fun createV3Server(
             compositeDiscoveryServerCallbacks: List<CompositeDiscoveryServerCallbacks>,
-            groupChangeWatcher: GroupChangeWatcher,
+            configWatcher: ConfigWatcher,
             cachedProtoResourcesSerializer: CachedProtoResourcesSerializer
         ): V3DiscoveryServer {
             return V3DiscoveryServer(
                 compositeDiscoveryServerCallbacks,
-                groupChangeWatcher,
+                configWatcher,
                 executorGroup,
                 cachedProtoResourcesSerializer
             )
@@ -288,17 +308,11 @@ class ControlPlane private constructor(
         private fun buildExecutorGroup(): ExecutorGroup {
             return when (properties.server.executorGroup.type) {
                 ExecutorType.DIRECT -> DefaultExecutorGroup()
-                ExecutorType.PARALLEL -> {
-                    // TODO(https://github.com/allegro/envoy-control/issues/103) this implementation of parallel
-                    //   executor group is invalid, because it may lead to sending XDS responses out of order for
-                    //   given DiscoveryRequestStreamObserver. We should switch to multiple, single-threaded
-                    //   ThreadPoolExecutors. More info in linked task.
-                    val executor = newMeteredFixedThreadPool(
-                        "discovery-responses-executor",
-                        properties.server.executorGroup.parallelPoolSize
-                    )
-                    ExecutorGroup { executor }
-                }
+                ExecutorType.PARALLEL -> ShardedExecutorGroup(
+                    (0 until properties.server.executorGroup.parallelPoolSize).map { shard ->
+                        newMeteredFixedThreadPool("discovery-responses-executor-$shard", 1)
+                    }
+                )
             }
         }
 
@@ -5,15 +5,17 @@ import io.envoyproxy.controlplane.cache.DeltaResponse
 import io.envoyproxy.controlplane.cache.DeltaWatch
 import io.envoyproxy.controlplane.cache.DeltaXdsRequest
 import io.envoyproxy.controlplane.cache.Response
-import io.envoyproxy.controlplane.cache.SnapshotCache
 import io.envoyproxy.controlplane.cache.Watch
 import io.envoyproxy.controlplane.cache.XdsRequest
 import io.envoyproxy.controlplane.cache.v3.Snapshot
 import io.micrometer.core.instrument.MeterRegistry
+import java.util.concurrent.TimeUnit
 import java.util.function.Consumer
 import pl.allegro.tech.servicemesh.envoycontrol.EnvoyControlMetrics
+import pl.allegro.tech.servicemesh.envoycontrol.GroupsAwareSnapshotCache
 import pl.allegro.tech.servicemesh.envoycontrol.logger
 import pl.allegro.tech.servicemesh.envoycontrol.utils.CHANGE_WATCHER_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.GROUP_CHANGE_DETECTION_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.WATCH_TYPE_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.measureBuffer
 import reactor.core.publisher.Flux
@@ -24,17 +26,24 @@ import reactor.core.publisher.FluxSink
  * Otherwise when Envoy with new group is connected it won't receive the snapshot immediately.
  * In this situation, when there are no changes from ClusterStateChanges we won't send anything to Envoy.
  * When Envoy doesn't receive any snapshot from Envoy Control, it is stuck in PRE_INITIALIZING state.
+ *
+ * New groups are reported by the cache when a watch adds them, so the groups of the cache aren't copied on every watch.
  */
 internal class GroupChangeWatcher(
-    private val cache: SnapshotCache<Group, Snapshot>,
+    private val cache: GroupsAwareSnapshotCache<Group, Snapshot>,
     private val metrics: EnvoyControlMetrics,
     private val meterRegistry: MeterRegistry
 ) : ConfigWatcher {
     private val groupsChanged: Flux<List<Group>> = Flux.create { groupChangeEmitter = it }
     private var groupChangeEmitter: FluxSink<List<Group>>? = null
+    private val detectionTimer = meterRegistry.timer(GROUP_CHANGE_DETECTION_METRIC)
 
     private val logger by logger()
 
+    init {
+        cache.setNewGroupListener { group, watchRequestNanos -> emitNewGroupEvent(group, watchRequestNanos) }
+    }
+
     fun onGroupAdded(): Flux<List<Group>> {
         return groupsChanged
             .measureBuffer("group-change-watcher", meterRegistry)
@@ -58,8 +67,6 @@ internal class GroupChangeWatcher(
         hasClusterChanged: Boolean,
         allowDefaultEmptyEdsUpdate: Boolean
     ): Watch {
-        val oldGroups = cache.groups()
-
         val watch = cache.createWatch(
             ads,
             request,
@@ -68,11 +75,7 @@ internal class GroupChangeWatcher(
             hasClusterChanged,
             allowDefaultEmptyEdsUpdate
         )
-        val groups = cache.groups()
-        metrics.setCacheGroupsCount(groups.size)
-        if (oldGroups != groups) {
-            emitNewGroupsEvent(groups - oldGroups)
-        }
+        metrics.setCacheGroupsCount(cache.groupsCount())
         return watch
     }
 
@@ -85,8 +88,6 @@ internal class GroupChangeWatcher(
         responseConsumer: Consumer<DeltaResponse>?,
         hasClusterChanged: Boolean
     ): DeltaWatch {
-        val oldGroups = cache.groups()
-
         val watch = cache.createDeltaWatch(
             request,
             requesterVersion,
@@ -96,15 +97,12 @@ internal class GroupChangeWatcher(
             responseConsumer,
             hasClusterChanged
         )
-        val groups = cache.groups()
-        metrics.setCacheGroupsCount(groups.size)
-        if (oldGroups != groups) {
-            emitNewGroupsEvent(groups - oldGroups)
-        }
+        metrics.setCacheGroupsCount(cache.groupsCount())
         return watch
     }
 
-    private fun emitNewGroupsEvent(difference: List<Group>) {
-        groupChangeEmitter?.next(difference)
+    private fun emitNewGroupEvent(group: Group, watchRequestNanos: Long) {
+        groupChangeEmitter?.next(listOf(group))
+        detectionTimer.record(System.nanoTime() - watchRequestNanos, TimeUnit.NANOSECONDS)
     }
 }
@@ -1,7 +1,15 @@
 package pl.allegro.tech.servicemesh.envoycontrol.groups
 
+import com.google.common.collect.Interner
+import com.google.common.collect.Interners
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.AccessLogFiltersProperties
+import java.util.Objects
 
+/**
+ * Groups are keys of maps in the snapshot cache, snapshot versions and group change watcher, while their settings
+ * may hold hundreds of dependencies. Groups are immutable, so the hash is computed only once, and equals of the same
+ * instances (see [GroupInterner]) doesn't compare settings.
+ */
 sealed class Group {
     abstract val communicationMode: CommunicationMode
     abstract val serviceName: String
@@ -11,6 +19,50 @@ sealed class Group {
     abstract val pathNormalizationPolicy: PathNormalizationPolicy
     abstract val listenersConfig: ListenersConfig?
     abstract val compressionConfig: CompressionConfig
+
+    // racy single-check, as in String.hashCode - the hash is always the same, so it may be computed more than once
+    private var hash = 0
+
+    final override fun hashCode(): Int {
+        var hash = this.hash
+        if (hash == 0) {
+            hash = Objects.hash(
+                javaClass,
+                communicationMode,
+                serviceName,
+                serviceId,
+                discoveryServiceName,
+                proxySettings,
+                pathNormalizationPolicy,
+                listenersConfig,
+                compressionConfig
+            )
+            this.hash = hash
+        }
+        return hash
+    }
+
+    final override fun equals(other: Any?): Boolean = this === other ||
+        other is Group && other.javaClass == javaClass && other.hashCode() == hashCode() && hasSameSettings(other)
+
+    private fun hasSameSettings(other: Group): Boolean = communicationMode == other.communicationMode &&
+        serviceName == other.serviceName &&
+        serviceId == other.serviceId &&
+        discoveryServiceName == other.discoveryServiceName &&
+        proxySettings == other.proxySettings &&
+        pathNormalizationPolicy == other.pathNormalizationPolicy &&
+        listenersConfig == other.listenersConfig &&
+        compressionConfig == other.compressionConfig
+}
+
+/**
+ * Hands out canonical instances of equal groups, which are compared by identity. Canonical instances not referenced
+ * anymore are garbage collected.
+ */
+class GroupInterner {
+    private val interner: Interner<Group> = Interners.newWeakInterner()
+
+    fun intern(group: Group): Group = interner.intern(group)
 }
 
 data class ServicesGroup(
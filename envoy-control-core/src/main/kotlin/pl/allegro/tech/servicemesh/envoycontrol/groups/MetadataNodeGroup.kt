@@ -1,12 +1,18 @@
 package pl.allegro.tech.servicemesh.envoycontrol.groups
 
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
 import com.google.protobuf.Struct
 import com.google.protobuf.Value
 import io.envoyproxy.controlplane.cache.NodeGroup
 import io.envoyproxy.envoy.config.core.v3.BuildVersion
 import io.envoyproxy.envoy.type.v3.SemanticVersion
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import pl.allegro.tech.servicemesh.envoycontrol.logger
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
+import pl.allegro.tech.servicemesh.envoycontrol.utils.NODE_GROUP_CACHE_METRIC
 import io.envoyproxy.envoy.config.core.v3.Node as NodeV3
 
 @Suppress("MagicNumber")
@@ -15,14 +21,43 @@ val MIN_ENVOY_VERSION_SUPPORTING_JWT_FAILURE_STATUS = envoyVersion(1, 26)
 val MIN_ENVOY_VERSION_SUPPORTING_IGNORE_HTTP_11_UPGRADES = envoyVersion(1, 34)
 
 class MetadataNodeGroup(
-    val properties: SnapshotProperties
+    val properties: SnapshotProperties,
+    meterRegistry: MeterRegistry = SimpleMeterRegistry(),
+    private val nodeMetadataCache: NodeMetadataCache = NodeMetadataCache(properties)
 ) : NodeGroup<Group> {
     private val logger by logger()
 
+    // hash is called on every discovery request, groups of nodes with the same metadata are parsed only once
+    private val groups: Cache<NodeGroupKey, Group>? = createGroupsCache(meterRegistry)
+    private val interner = GroupInterner()
+
     override fun hash(node: NodeV3): Group {
-        return createV3Group(node)
+        val groups = groups ?: return interner.intern(createV3Group(node))
+        return groups.get(NodeGroupKey(node.metadata, node.userAgentBuildVersion)) {
+            interner.intern(createV3Group(node))
+        }
     }
 
+    private fun createGroupsCache(meterRegistry: MeterRegistry): Cache<NodeGroupKey, Group>? {
+        val cacheProperties = properties.nodeGroupCache
+        if (!cacheProperties.enabled) {
+            return null
+        }
+        val cache = Caffeine.newBuilder()
+            .maximumSize(cacheProperties.maxSize)
+            .recordStats()
+            .build<NodeGroupKey, Group>()
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, NODE_GROUP_CACHE_METRIC)
+    }
+
+    /**
+     * Everything a group depends on, the node id is used only in logs.
+     */
+    private data class NodeGroupKey(
+        val metadata: Struct,
+        val envoyVersion: BuildVersion
+    )
+
     @SuppressWarnings("ReturnCount")
     private fun metadataToListenersHostPort(
         id: String,
@@ -153,7 +188,7 @@ class MetadataNodeGroup(
     }
 
     private fun createV3Group(node: NodeV3): Group {
-        val nodeMetadata = NodeMetadata(node.metadata, properties)
+        val nodeMetadata = nodeMetadataCache.get(node.metadata)
         val serviceName = serviceName(nodeMetadata)
         val serviceId = nodeMetadata.serviceId
         val discoveryServiceName = nodeMetadata.discoveryServiceName
@@ -0,0 +1,50 @@
+package pl.allegro.tech.servicemesh.envoycontrol.groups
+
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.google.protobuf.Struct
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Parsed metadata of nodes shared by [NodeMetadataValidator] and [MetadataNodeGroup], so metadata of a discovery
+ * request is parsed once.
+ *
+ * Metadata is remembered by identity of the [Struct] of the request and, once validated, for the stream, so a node
+ * re-sent with every request of a stream isn't parsed and validated again as long as its metadata doesn't change.
+ */
+class NodeMetadataCache(private val properties: SnapshotProperties) {
+    // weak keys are compared by identity, entries are dropped together with requests
+    private val parsed = Caffeine.newBuilder().weakKeys().build<Struct, NodeMetadata>()
+    private val validatedByStream = ConcurrentHashMap<Long, ValidatedMetadata>()
+
+    /**
+     * Returns parsed [metadata].
+     *
+     * @throws NodeMetadataValidationException if metadata is invalid
+     */
+    fun get(metadata: Struct): NodeMetadata = parsed.get(metadata) { NodeMetadata(it, properties) }
+
+    /**
+     * Returns parsed [metadata] of a request of the stream, validated with [validate] unless the same metadata has
+     * already been validated for the stream.
+     *
+     * @throws NodeMetadataValidationException if metadata is invalid
+     */
+    fun validated(streamId: Long, metadata: Struct, validate: (NodeMetadata) -> Unit): NodeMetadata {
+        val previous = validatedByStream[streamId]
+        if (previous != null && (previous.metadata === metadata || previous.metadata == metadata)) {
+            parsed.put(metadata, previous.nodeMetadata)
+            return previous.nodeMetadata
+        }
+        val nodeMetadata = get(metadata)
+        validate(nodeMetadata)
+        validatedByStream[streamId] = ValidatedMetadata(metadata, nodeMetadata)
+        return nodeMetadata
+    }
+
+    fun streamClosed(streamId: Long) {
+        validatedByStream.remove(streamId)
+    }
+
+    private class ValidatedMetadata(val metadata: Struct, val nodeMetadata: NodeMetadata)
+}
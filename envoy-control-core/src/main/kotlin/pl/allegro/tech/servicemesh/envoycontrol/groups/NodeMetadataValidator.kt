@@ -49,7 +49,8 @@ class RateLimitIncorrectValidationException(rateLimit: String?) : NodeMetadataVa
 )
 
 class NodeMetadataValidator(
-    val properties: SnapshotProperties
+    val properties: SnapshotProperties,
+    private val nodeMetadataCache: NodeMetadataCache = NodeMetadataCache(properties)
 ) : DiscoveryServerCallbacks {
     companion object {
         private val RATE_LIMIT_PATTERN = Regex("^(?:0|[1-9][0-9]*)/[smh]$")
@@ -58,29 +59,31 @@ class NodeMetadataValidator(
 
     private val tlsProperties = properties.incomingPermissions.tlsAuthentication
 
-    override fun onStreamClose(streamId: Long, typeUrl: String?) {}
+    override fun onStreamClose(streamId: Long, typeUrl: String?) {
+        nodeMetadataCache.streamClosed(streamId)
+    }
 
-    override fun onStreamCloseWithError(streamId: Long, typeUrl: String?, error: Throwable?) {}
+    override fun onStreamCloseWithError(streamId: Long, typeUrl: String?, error: Throwable?) {
+        nodeMetadataCache.streamClosed(streamId)
+    }
 
     override fun onStreamOpen(streamId: Long, typeUrl: String?) {}
 
     override fun onV3StreamRequest(streamId: Long, request: DiscoveryRequestV3?) {
-        request?.node?.let { validateV3Metadata(it) }
+        request?.node?.let { validateV3Metadata(streamId, it) }
     }
 
     override fun onV3StreamDeltaRequest(
         streamId: Long,
         request: DeltaDiscoveryRequestV3?
     ) {
-        request?.node?.let { validateV3Metadata(it) }
+        request?.node?.let { validateV3Metadata(streamId, it) }
     }
 
-    private fun validateV3Metadata(node: NodeV3) {
+    private fun validateV3Metadata(streamId: Long, node: NodeV3) {
         // Some validation logic is executed when NodeMetadata is created.
         // This may throw NodeMetadataValidationException
-        val metadata = NodeMetadata(node.metadata, properties)
-
-        validateMetadata(metadata)
+        nodeMetadataCache.validated(streamId, node.metadata, ::validateMetadata)
     }
 
     private fun validateMetadata(metadata: NodeMetadata) {
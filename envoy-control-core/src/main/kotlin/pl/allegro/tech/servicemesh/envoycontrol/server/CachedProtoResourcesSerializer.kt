@@ -13,7 +13,14 @@ import java.util.function.Supplier
 import io.envoyproxy.controlplane.server.serializer.DefaultProtoResourcesSerializer
 import io.micrometer.core.instrument.Timer
 import pl.allegro.tech.servicemesh.envoycontrol.utils.PROTOBUF_CACHE_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PROTOBUF_CACHE_SAVED_BYTES_METRIC
 
+/**
+ * Packs resources once per resource instance. Resources of a response shared by watches of a group (see
+ * ResponseResources) are packed once for all of them, and the packed resources are reused by every watch.
+ *
+ * Both caches are keyed by identity, so a hit doesn't compare resources deeply.
+ */
 internal class CachedProtoResourcesSerializer(
     private val meterRegistry: MeterRegistry,
     private val reportMetrics: Boolean
@@ -28,7 +35,9 @@ internal class CachedProtoResourcesSerializer(
     }
 
     private val cache: Cache<Message, Any> = createCache("protobuf-cache")
+    private val responsesCache: Cache<Collection<Message>, Collection<Any>> = createCache("protobuf-responses-cache")
     private val timer = createTimer(reportMetrics, meterRegistry, PROTOBUF_CACHE_METRIC)
+    private val savedBytes = if (reportMetrics) meterRegistry.counter(PROTOBUF_CACHE_SAVED_BYTES_METRIC) else null
 
     private fun <K, V> createCache(cacheName: String): Cache<K, V> {
         return if (reportMetrics) {
@@ -37,17 +46,29 @@ internal class CachedProtoResourcesSerializer(
                             meterRegistry,
                             CacheBuilder.newBuilder()
                                     .recordStats()
-                                    .weakValues()
+                                    .weakKeys()
                                     .build<K, V>(),
                             cacheName
                     )
         } else {
             CacheBuilder.newBuilder()
-                    .weakValues()
+                    .weakKeys()
                     .build<K, V>()
         }
     }
 
+    override fun serialize(resources: Collection<Message>, apiVersion: Resources.ApiVersion): Collection<Any> {
+        var packed = false
+        val serialized = responsesCache.get(resources) {
+            packed = true
+            resources.map { serialize(it, apiVersion) }
+        }
+        if (!packed && savedBytes != null) {
+            savedBytes.increment(serialized.sumOf { it.serializedSize }.toDouble())
+        }
+        return serialized
+    }
+
     override fun serialize(resource: Message, apiVersion: Resources.ApiVersion): Any {
         return timer.record(Supplier {
             cache.get(resource) {
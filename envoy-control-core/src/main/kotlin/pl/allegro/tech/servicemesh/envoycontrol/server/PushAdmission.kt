@@ -0,0 +1,323 @@
+package pl.allegro.tech.servicemesh.envoycontrol.server
+
+import io.envoyproxy.controlplane.cache.Response
+import io.envoyproxy.envoy.service.discovery.v3.DiscoveryRequest
+import io.envoyproxy.envoy.service.discovery.v3.DiscoveryResponse
+import io.micrometer.core.instrument.MeterRegistry
+import pl.allegro.tech.servicemesh.envoycontrol.logger
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PUSH_ADMISSION_ACK_TIMEOUTS_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PUSH_ADMISSION_OUTSTANDING_BYTES_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PUSH_ADMISSION_PUSHES_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PUSH_ADMISSION_QUEUE_SIZE_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PUSH_ADMISSION_QUEUE_WAIT_METRIC
+import reactor.core.Disposable
+import reactor.core.scheduler.Scheduler
+import reactor.core.scheduler.Schedulers
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.Consumer
+
+/**
+ * Admission control of initial pushes, i.e. responses to the first request of a resource type on a stream, which
+ * carry all resources of the type. When many Envoys connect at once, e.g. after a restart of the control plane,
+ * at most [PushAdmissionProperties.maxConcurrentPushes] pushes are outstanding at a time, as long as their resources
+ * don't exceed [PushAdmissionProperties.maxOutstandingBytes]. Other pushes wait in a queue served round-robin across
+ * streams, one push of a stream at a time, so a reconnect storm ends with slightly delayed config instead of a heap
+ * full of responses.
+ *
+ * A push is outstanding from its admission until Envoy acknowledges or rejects it, i.e. sends the next request of the
+ * type with the nonce of the push, or until [PushAdmissionProperties.ackTimeout] passes or the stream is closed.
+ * A request which comes before the push is sent supersedes it: a queued response to the previous request is dropped
+ * and the response to the new request waits for admission instead. Other responses aren't paced, requests of streams
+ * without pending pushes don't take the lock.
+ */
+class PushAdmission(
+    private val properties: PushAdmissionProperties,
+    meterRegistry: MeterRegistry,
+    private val timeoutScheduler: Scheduler = Schedulers.parallel()
+) {
+    private val logger by logger()
+
+    private val streams = ConcurrentHashMap<Long, Stream>()
+    // initial requests of open streams which weren't responded yet
+    private val initialRequests = ConcurrentHashMap<RequestKey, Push>()
+
+    // guarded by this
+    private val readyStreams = ArrayDeque<Stream>()
+    private var queued = 0
+    private var outstanding = 0
+    private var outstandingBytes = 0L
+
+    private val draining = AtomicBoolean()
+
+    private val queueWait = meterRegistry.timer(PUSH_ADMISSION_QUEUE_WAIT_METRIC)
+    private val pushes = meterRegistry.counter(PUSH_ADMISSION_PUSHES_METRIC)
+    private val ackTimeouts = meterRegistry.counter(PUSH_ADMISSION_ACK_TIMEOUTS_METRIC)
+
+    init {
+        meterRegistry.gauge(PUSH_ADMISSION_QUEUE_SIZE_METRIC, this) { synchronized(it) { it.queued.toDouble() } }
+        meterRegistry.gauge(PUSH_ADMISSION_OUTSTANDING_BYTES_METRIC, this) {
+            synchronized(it) { it.outstandingBytes.toDouble() }
+        }
+    }
+
+    /**
+     * Has to be called for every request of a stream before a watch is created for it.
+     */
+    fun requested(streamId: Long, request: DiscoveryRequest) {
+        val stream = streams.computeIfAbsent(streamId) { Stream() }
+        if (stream.pendingPushes == 0 && request.typeUrl in stream.typeUrls) {
+            return
+        }
+        val released = synchronized(this) {
+            when {
+                stream.closed -> false
+                stream.typeUrls.add(request.typeUrl) -> {
+                    val push = Push(stream, request)
+                    stream.pushes[request.typeUrl] = push
+                    stream.pendingPushes = stream.pushes.size
+                    initialRequests[RequestKey(request)] = push
+                    false
+                }
+                else -> stream.pushes[request.typeUrl]?.let { nextRequest(it, request) } ?: false
+            }
+        }
+        if (released) {
+            drain()
+        }
+    }
+
+    /**
+     * Returns the consumer of the response to a watch created for the request, which waits for admission of the
+     * response if it's an initial push.
+     */
+    fun admitted(request: DiscoveryRequest, responseConsumer: Consumer<Response>): Consumer<Response> {
+        val push = initialRequests[RequestKey(request)] ?: return responseConsumer
+        return Consumer { response ->
+            val bytes = response.resources().sumOf { it.serializedSize.toLong() }
+            submit(push, Pending(request, bytes, System.nanoTime()) { responseConsumer.accept(response) })
+        }
+    }
+
+    /**
+     * Records the nonce of a response sent on the stream, which Envoy sends back in its next request of the type.
+     */
+    fun sent(streamId: Long, response: DiscoveryResponse) {
+        val stream = streams[streamId]?.takeIf { it.pendingPushes > 0 } ?: return
+        synchronized(this) {
+            stream.pushes[response.typeUrl]?.takeIf { it.state == PushState.ADMITTED }?.nonce = response.nonce
+        }
+    }
+
+    fun streamClosed(streamId: Long) {
+        val stream = streams.remove(streamId) ?: return
+        synchronized(this) {
+            stream.closed = true
+            stream.pushes.values.toList().forEach { release(it) }
+        }
+        drain()
+    }
+
+    /**
+     * A request of a type with a pending push either supersedes the push, when Envoy didn't receive any response of
+     * the type yet, or acknowledges or rejects the push. Returns whether an admitted push was released.
+     */
+    private fun nextRequest(push: Push, request: DiscoveryRequest): Boolean = when {
+        request.responseNonce.isNotEmpty() -> {
+            // the nonce may be recorded after Envoy already answered the push
+            val answered = push.state == PushState.ADMITTED &&
+                (push.nonce == null || push.nonce == request.responseNonce)
+            if (answered) {
+                release(push)
+            }
+            answered
+        }
+        // the response to the previous request is already on its way, the new one isn't paced
+        push.handedOff -> false
+        else -> supersede(push, request)
+    }
+
+    private fun supersede(push: Push, request: DiscoveryRequest): Boolean {
+        val admitted = push.state == PushState.ADMITTED
+        when (push.state) {
+            PushState.QUEUED -> dequeue(push)
+            PushState.ADMITTED -> unadmit(push)
+            PushState.WAITING -> Unit
+        }
+        push.state = PushState.WAITING
+        initialRequests.remove(RequestKey(push.request))
+        push.request = request
+        initialRequests[RequestKey(request)] = push
+        return admitted
+    }
+
+    private fun submit(push: Push, pending: Pending) {
+        val admitted = synchronized(this) {
+            // a response to a superseded request is dropped, the response to the latest one is submitted instead
+            if (push.released || push.request !== pending.request || push.state != PushState.WAITING) {
+                return
+            }
+            push.pending = pending
+            if (readyStreams.isEmpty() && canAdmit(pending)) {
+                admit(push)
+                true
+            } else {
+                enqueue(push)
+                false
+            }
+        }
+        if (admitted) {
+            send(push)
+        }
+    }
+
+    /**
+     * Sends queued pushes which can be admitted. Sending a push may release another one on the same thread, which
+     * then only marks the queue to be drained again, so the queue is drained in a loop instead of recursively.
+     */
+    private fun drain() {
+        while (draining.compareAndSet(false, true)) {
+            try {
+                while (true) {
+                    val push = synchronized(this) { nextAdmitted() } ?: break
+                    send(push)
+                }
+            } finally {
+                draining.set(false)
+            }
+            if (!synchronized(this) { canAdmitNext() }) {
+                return
+            }
+        }
+    }
+
+    private fun send(push: Push) {
+        // a push superseded after its admission isn't sent
+        val pending = synchronized(this) {
+            push.pending.takeIf { !push.released && !push.handedOff && push.request === it.request }
+                ?.also { push.handedOff = true }
+        } ?: return
+        try {
+            pending.send.run()
+        } catch (e: Exception) {
+            logger.warn("Failed to send admitted push of ${push.request.typeUrl}", e)
+            synchronized(this) { release(push) }
+        }
+    }
+
+    private fun nextAdmitted(): Push? {
+        if (!canAdmitNext()) {
+            return null
+        }
+        val stream = readyStreams.removeFirst()
+        val push = stream.queue.first()
+        stream.queue.removeFirst()
+        queued--
+        if (stream.queue.isNotEmpty()) {
+            readyStreams.addLast(stream)
+        }
+        admit(push)
+        return push
+    }
+
+    private fun canAdmitNext(): Boolean = readyStreams.firstOrNull()?.let { canAdmit(it.queue.first().pending) } == true
+
+    private fun canAdmit(pending: Pending): Boolean = outstanding < properties.maxConcurrentPushes &&
+        (outstanding == 0 || outstandingBytes + pending.bytes <= properties.maxOutstandingBytes)
+
+    private fun enqueue(push: Push) {
+        push.state = PushState.QUEUED
+        if (push.stream.queue.isEmpty()) {
+            readyStreams.addLast(push.stream)
+        }
+        push.stream.queue.addLast(push)
+        queued++
+    }
+
+    private fun dequeue(push: Push) {
+        push.stream.queue.remove(push)
+        if (push.stream.queue.isEmpty()) {
+            readyStreams.remove(push.stream)
+        }
+        queued--
+    }
+
+    private fun admit(push: Push) {
+        val pending = push.pending
+        push.state = PushState.ADMITTED
+        outstanding++
+        outstandingBytes += pending.bytes
+        push.timeout = timeoutScheduler.schedule(
+            { timedOut(push) },
+            properties.ackTimeout.toMillis(),
+            TimeUnit.MILLISECONDS
+        )
+        queueWait.record(System.nanoTime() - pending.submittedNanos, TimeUnit.NANOSECONDS)
+        pushes.increment()
+    }
+
+    private fun timedOut(push: Push) {
+        val released = synchronized(this) {
+            if (!push.released) {
+                release(push)
+                true
+            } else false
+        }
+        if (released) {
+            ackTimeouts.increment()
+            drain()
+        }
+    }
+
+    private fun unadmit(push: Push) {
+        outstanding--
+        outstandingBytes -= push.pending.bytes
+        push.timeout?.dispose()
+    }
+
+    private fun release(push: Push) {
+        when (push.state) {
+            PushState.QUEUED -> dequeue(push)
+            PushState.ADMITTED -> unadmit(push)
+            PushState.WAITING -> Unit
+        }
+        initialRequests.remove(RequestKey(push.request))
+        push.released = true
+        push.stream.pushes.remove(push.request.typeUrl)
+        push.stream.pendingPushes = push.stream.pushes.size
+    }
+
+    private class Stream {
+        // resource types requested on the stream, read without the lock
+        val typeUrls: MutableSet<String> = ConcurrentHashMap.newKeySet()
+
+        @Volatile
+        var pendingPushes = 0
+
+        // guarded by PushAdmission
+        val pushes = HashMap<String, Push>()
+        val queue = ArrayDeque<Push>()
+        var closed = false
+    }
+
+    private enum class PushState { WAITING, QUEUED, ADMITTED }
+
+    // guarded by PushAdmission
+    private class Push(val stream: Stream, var request: DiscoveryRequest) {
+        var state = PushState.WAITING
+        lateinit var pending: Pending
+        var handedOff = false
+        var nonce: String? = null
+        var timeout: Disposable? = null
+        var released = false
+    }
+
+    private class Pending(val request: DiscoveryRequest, val bytes: Long, val submittedNanos: Long, val send: Runnable)
+
+    // requests are compared by identity, equal requests of different streams are different pushes
+    private class RequestKey(private val request: DiscoveryRequest) {
+        override fun equals(other: Any?): Boolean = other is RequestKey && other.request === request
+        override fun hashCode(): Int = System.identityHashCode(request)
+    }
+}
@@ -0,0 +1,53 @@
+package pl.allegro.tech.servicemesh.envoycontrol.server
+
+import io.envoyproxy.controlplane.cache.ConfigWatcher
+import io.envoyproxy.controlplane.cache.DeltaResponse
+import io.envoyproxy.controlplane.cache.DeltaWatch
+import io.envoyproxy.controlplane.cache.DeltaXdsRequest
+import io.envoyproxy.controlplane.cache.Response
+import io.envoyproxy.controlplane.cache.Watch
+import io.envoyproxy.controlplane.cache.XdsRequest
+import java.util.function.Consumer
+
+/**
+ * Creates watches whose initial pushes wait for admission by [PushAdmission]. Delta watches aren't paced.
+ */
+class PushAdmissionConfigWatcher(
+    private val delegate: ConfigWatcher,
+    private val pushAdmission: PushAdmission
+) : ConfigWatcher {
+
+    override fun createWatch(
+        ads: Boolean,
+        request: XdsRequest,
+        knownResourceNames: MutableSet<String>?,
+        responseConsumer: Consumer<Response>,
+        hasClusterChanged: Boolean,
+        allowDefaultEmptyEdsUpdate: Boolean
+    ): Watch = delegate.createWatch(
+        ads,
+        request,
+        knownResourceNames,
+        pushAdmission.admitted(request.v3Request(), responseConsumer),
+        hasClusterChanged,
+        allowDefaultEmptyEdsUpdate
+    )
+
+    override fun createDeltaWatch(
+        request: DeltaXdsRequest?,
+        requesterVersion: String?,
+        resourceVersions: MutableMap<String, String>?,
+        pendingResources: MutableSet<String>?,
+        isWildcard: Boolean,
+        responseConsumer: Consumer<DeltaResponse>?,
+        hasClusterChanged: Boolean
+    ): DeltaWatch = delegate.createDeltaWatch(
+        request,
+        requesterVersion,
+        resourceVersions,
+        pendingResources,
+        isWildcard,
+        responseConsumer,
+        hasClusterChanged
+    )
+}
@@ -11,6 +11,7 @@ class ServerProperties {
     var serverPoolSize = 16
     var serverPoolKeepAlive: Duration = Duration.ofMinutes(10)
     var executorGroup = ExecutorProperties()
+    var pushAdmission = PushAdmissionProperties()
     var netty = NettyProperties()
     /**
      * Minimum size = 2, to work correctly with reactor operators merge and combineLatest
@@ -38,6 +39,13 @@ class ExecutorProperties {
     var parallelPoolSize = 4
 }
 
+class PushAdmissionProperties {
+    var enabled = false
+    var maxConcurrentPushes = 100
+    var maxOutstandingBytes = 256L * 1024 * 1024
+    var ackTimeout: Duration = Duration.ofSeconds(30)
+}
+
 class NettyProperties {
     /**
      * @see io.grpc.netty.NettyServerBuilder.keepAliveTime
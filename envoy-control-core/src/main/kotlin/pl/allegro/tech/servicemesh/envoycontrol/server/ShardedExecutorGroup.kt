@@ -0,0 +1,20 @@
+package pl.allegro.tech.servicemesh.envoycontrol.server
+
+import io.envoyproxy.controlplane.server.ExecutorGroup
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Executor group of single-threaded shards. The discovery server takes an executor once per stream, so streams are
+ * pinned to shards in the order they are opened. Responses of a stream are sent in order by its shard, while
+ * responses of streams pinned to different shards are sent in parallel.
+ */
+class ShardedExecutorGroup(private val shards: List<Executor>) : ExecutorGroup {
+    private val streams = AtomicLong()
+
+    init {
+        require(shards.isNotEmpty()) { "Executor group needs at least one shard" }
+    }
+
+    override fun next(): Executor = shards[Math.floorMod(streams.getAndIncrement(), shards.size)]
+}
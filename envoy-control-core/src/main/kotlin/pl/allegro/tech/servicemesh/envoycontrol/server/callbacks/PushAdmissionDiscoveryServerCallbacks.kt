@@ -0,0 +1,25 @@
+package pl.allegro.tech.servicemesh.envoycontrol.server.callbacks
+
+import io.envoyproxy.controlplane.server.DiscoveryServerCallbacks
+import pl.allegro.tech.servicemesh.envoycontrol.server.PushAdmission
+import io.envoyproxy.envoy.service.discovery.v3.DiscoveryRequest as v3DiscoveryRequest
+import io.envoyproxy.envoy.service.discovery.v3.DiscoveryResponse as v3DiscoveryResponse
+
+class PushAdmissionDiscoveryServerCallbacks(private val pushAdmission: PushAdmission) : DiscoveryServerCallbacks {
+
+    override fun onV3StreamRequest(streamId: Long, request: v3DiscoveryRequest) {
+        pushAdmission.requested(streamId, request)
+    }
+
+    override fun onV3StreamResponse(streamId: Long, request: v3DiscoveryRequest, response: v3DiscoveryResponse?) {
+        response?.let { pushAdmission.sent(streamId, it) }
+    }
+
+    override fun onStreamClose(streamId: Long, typeUrl: String?) {
+        pushAdmission.streamClosed(streamId)
+    }
+
+    override fun onStreamCloseWithError(streamId: Long, typeUrl: String?, error: Throwable?) {
+        pushAdmission.streamClosed(streamId)
+    }
+}
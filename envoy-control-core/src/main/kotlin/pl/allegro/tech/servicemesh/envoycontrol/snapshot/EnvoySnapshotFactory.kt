@@ -25,7 +25,9 @@ import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.endpoints.Envo
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners.EnvoyListenersFactory
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.routes.EnvoyEgressRoutesFactory
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.routes.EnvoyIngressRoutesFactory
+import pl.allegro.tech.servicemesh.envoycontrol.utils.LOAD_ASSIGNMENT_CACHE_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SNAPSHOT_FACTORY_SECONDS_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.STATUS_TAG
 import java.util.SortedMap
 
 class EnvoySnapshotFactory(
@@ -44,6 +46,17 @@ class EnvoySnapshotFactory(
         private val logger by logger()
     }
 
+    private val loadAssignmentCacheHits = meterRegistry.counter(LOAD_ASSIGNMENT_CACHE_METRIC, STATUS_TAG, "hit")
+    private val loadAssignmentCacheMisses = meterRegistry.counter(LOAD_ASSIGNMENT_CACHE_METRIC, STATUS_TAG, "miss")
+
+    private val globalSnapshotBuilders = CommunicationMode.values().associateWith {
+        GlobalSnapshotBuilder(clustersFactory, endpointsFactory, properties, it)
+    }
+
+    /**
+     * Resources of services which didn't change since the previous snapshot of the [communicationMode]
+     * are reused, see [GlobalSnapshotBuilder].
+     */
     fun newSnapshot(
         servicesStates: MultiClusterState,
         clusterConfigurations: Map<String, ClusterConfiguration>,
@@ -51,24 +64,7 @@ class EnvoySnapshotFactory(
     ): GlobalSnapshot {
         val sample = Timer.start(meterRegistry)
 
-        val clusters = clustersFactory.getClustersForServices(
-            clusterConfigurations.values,
-            communicationMode
-        )
-        val securedClusters = clustersFactory.getSecuredClusters(clusters)
-
-        val endpoints: List<ClusterLoadAssignment> = endpointsFactory.createLoadAssignment(
-            clusters = clusterConfigurations.keys,
-            multiClusterState = servicesStates
-        )
-
-        val snapshot = globalSnapshot(
-            clusterConfigurations = clusterConfigurations,
-            clusters = clusters,
-            securedClusters = securedClusters,
-            endpoints = endpoints,
-            properties = properties.outgoingPermissions
-        )
+        val snapshot = globalSnapshotBuilders.getValue(communicationMode).build(servicesStates, clusterConfigurations)
         sample.stop(
             meterRegistry.timer(
                 SNAPSHOT_FACTORY_SECONDS_METRIC,
@@ -79,11 +75,17 @@ class EnvoySnapshotFactory(
         return snapshot
     }
 
+    /**
+     * When [changedServices] are known, only configurations of those services are recomputed.
+     */
     fun clusterConfigurations(
         servicesStates: MultiClusterState,
-        previousClusters: Map<String, ClusterConfiguration>
+        previousClusters: Map<String, ClusterConfiguration>,
+        changedServices: Set<String>? = null
     ): SortedMap<String, ClusterConfiguration> {
-        val currentClusters = if (properties.egress.http2.enabled) {
+        val currentClusters = if (changedServices != null) {
+            changedClusterConfigurations(servicesStates, previousClusters, changedServices)
+        } else if (properties.egress.http2.enabled) {
             servicesStates.flatMap {
                 it.servicesState.allInstances()
             }.groupBy {
@@ -104,6 +106,27 @@ class EnvoySnapshotFactory(
             .toSortedMap()
     }
 
+    private fun changedClusterConfigurations(
+        servicesStates: MultiClusterState,
+        previousClusters: Map<String, ClusterConfiguration>,
+        changedServices: Set<String>
+    ): Map<String, ClusterConfiguration> {
+        val currentClusters = HashMap(previousClusters)
+        changedServices.forEach { serviceName ->
+            val instances = servicesStates.mapNotNull { it.servicesState[serviceName] }
+            if (instances.isEmpty()) {
+                currentClusters.remove(serviceName)
+            } else if (properties.egress.http2.enabled) {
+                currentClusters[serviceName] = toClusterConfiguration(
+                    instances, serviceName, previousClusters[serviceName]
+                )
+            } else {
+                currentClusters[serviceName] = ClusterConfiguration(serviceName = serviceName, http2Enabled = false)
+            }
+        }
+        return currentClusters
+    }
+
     private fun addRemovedClusters(
         previous: Map<String, ClusterConfiguration>,
         current: Map<String, ClusterConfiguration>
@@ -275,14 +298,7 @@ class EnvoySnapshotFactory(
     ): List<ClusterLoadAssignment> {
         val egressLoadAssignments = egressRouteSpecifications.mapNotNull { routeSpec ->
             globalSnapshot.endpoints[routeSpec.clusterName]?.let { endpoints ->
-                // TODO: create a cache in GlobalSnapshot where a key is a pair (serviceName, serviceTag) and a value
-                //    is ClusterLoadAssignment (simple mutable map should be enough).
-                //    endpointsFactory.filterEndpoints() can use this cache to prevent computing the same
-                //    ClusterLoadAssignments many times - it may reduce MEM, CPU and latency if some serviceTags are
-                //    commonly used
-                endpointsFactory.filterEndpoints(endpoints, routeSpec.settings.routingPolicy).let {
-                    endpointsFactory.assignLocalityWeights(routeSpec, it)
-                }
+                loadAssignmentForRoute(globalSnapshot, routeSpec, endpoints)
             }
         }
         val rateLimitClusters =
@@ -291,6 +307,34 @@ class EnvoySnapshotFactory(
         return egressLoadAssignments + rateLimitLoadAssignments
     }
 
+    /**
+     * Load assignments filtered by service tags or weighted are computed once per global snapshot and shared by all
+     * groups with the same routing policy.
+     */
+    private fun loadAssignmentForRoute(
+        globalSnapshot: GlobalSnapshot,
+        routeSpec: RouteSpecification,
+        endpoints: ClusterLoadAssignment
+    ): ClusterLoadAssignment {
+        val routingPolicy = routeSpec.settings.routingPolicy
+        val weights = (routeSpec as? WeightRouteSpecification)?.clusterWeights
+        if (weights == null && !endpointsFactory.filtersEndpoints(routingPolicy)) {
+            return endpoints
+        }
+        var computed = false
+        val key = LoadAssignmentKey(routeSpec.clusterName, routingPolicy, weights?.weightByZone)
+        val loadAssignment = globalSnapshot.loadAssignments.computeIfAbsent(key) {
+            computed = true
+            endpointsFactory.filterEndpoints(
+                endpoints, routingPolicy, globalSnapshot.serviceTagIndexes[endpoints.clusterName]
+            ).let {
+                endpointsFactory.assignLocalityWeights(routeSpec, it)
+            }
+        }
+        (if (computed) loadAssignmentCacheMisses else loadAssignmentCacheHits).increment()
+        return loadAssignment
+    }
+
     private fun newSnapshotForGroup(
         group: Group,
         globalSnapshot: GlobalSnapshot
@@ -3,13 +3,50 @@ package pl.allegro.tech.servicemesh.envoycontrol.snapshot
 import io.envoyproxy.controlplane.cache.SnapshotResources
 import io.envoyproxy.envoy.config.cluster.v3.Cluster
 import io.envoyproxy.envoy.config.endpoint.v3.ClusterLoadAssignment
+import pl.allegro.tech.servicemesh.envoycontrol.groups.RoutingPolicy
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.endpoints.ServiceTagIndex
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
 
 data class GlobalSnapshot(
     val clusters: Map<String, Cluster>,
     val allServicesNames: Set<String>,
     val endpoints: Map<String, ClusterLoadAssignment>,
     val clusterConfigurations: Map<String, ClusterConfiguration>,
-    val securedClusters: Map<String, Cluster>
+    val securedClusters: Map<String, Cluster>,
+    val serviceTagIndexes: Map<String, ServiceTagIndex> = emptyMap()
+) {
+    // filtered and weighted load assignments shared by groups, see EnvoySnapshotFactory
+    internal val loadAssignments: ConcurrentMap<LoadAssignmentKey, ClusterLoadAssignment> = ConcurrentHashMap()
+
+    /**
+     * Names of services whose clusters or endpoints differ from the ones in the [previous] snapshot.
+     */
+    fun changedServices(previous: GlobalSnapshot): Set<String> {
+        val changed = HashSet<String>()
+        changed.addChangedKeys(previous.clusters, clusters)
+        changed.addChangedKeys(previous.securedClusters, securedClusters)
+        changed.addChangedKeys(previous.endpoints, endpoints)
+        allServicesNames.filterTo(changed) { it !in previous.allServicesNames }
+        previous.allServicesNames.filterTo(changed) { it !in allServicesNames }
+        return changed
+    }
+
+    private fun <T> MutableSet<String>.addChangedKeys(previous: Map<String, T>, current: Map<String, T>) {
+        current.forEach { (name, resource) ->
+            if (previous[name] != resource) {
+                add(name)
+            }
+        }
+        previous.keys.filterTo(this) { it !in current }
+    }
+}
+
+internal data class LoadAssignmentKey(
+    val clusterName: String,
+    val routingPolicy: RoutingPolicy,
+    // weights by zone, because ZoneWeights is compared by identity
+    val weightByZone: Map<String, Int>?
 )
 
 @Suppress("LongParameterList")
@@ -33,7 +70,7 @@ fun globalSnapshot(
     )
 }
 
-private fun getClustersForAllServicesGroups(
+internal fun getClustersForAllServicesGroups(
     clusters: Map<String, Cluster>,
     properties: OutgoingPermissionsProperties
 ): Set<String> {
@@ -0,0 +1,108 @@
+package pl.allegro.tech.servicemesh.envoycontrol.snapshot
+
+import io.envoyproxy.envoy.config.cluster.v3.Cluster
+import pl.allegro.tech.servicemesh.envoycontrol.groups.CommunicationMode
+import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.clusters.EnvoyClustersFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.endpoints.EnvoyEndpointsFactory
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.endpoints.ServiceTagIndex
+
+/**
+ * Builds global snapshots for one communication mode, reusing resources of the previously built snapshot.
+ *
+ * A cluster (and its secured variant) is reused when [ClusterConfiguration] of the service didn't change.
+ * A load assignment is reused when instances of the service didn't change in any cluster state - either according to
+ * changes tracked by the states or to a structural diff of their services states.
+ * Reused resources are the same instances, which makes comparing them and caching their serialized form cheap.
+ * Service tag indexes of reused load assignments are reused as well.
+ */
+internal class GlobalSnapshotBuilder(
+    private val clustersFactory: EnvoyClustersFactory,
+    private val endpointsFactory: EnvoyEndpointsFactory,
+    private val properties: SnapshotProperties,
+    private val communicationMode: CommunicationMode
+) {
+    private var previousStates = MultiClusterState.empty()
+    private var previousSnapshot: GlobalSnapshot? = null
+
+    @Synchronized
+    fun build(
+        servicesStates: MultiClusterState,
+        clusterConfigurations: Map<String, ClusterConfiguration>
+    ): GlobalSnapshot {
+        val previous = previousSnapshot
+        val (clusters, securedClusters) = clusters(clusterConfigurations, previous)
+        val serviceTagIndexes = HashMap<String, ServiceTagIndex>()
+        val endpoints = endpointsFactory.createLoadAssignment(
+            clusters = clusterConfigurations.keys,
+            multiClusterState = servicesStates,
+            previousLoadAssignments = previous?.endpoints.orEmpty(),
+            changedServices = previous?.let { servicesWithChangedInstances(servicesStates) },
+            serviceTagIndexes = serviceTagIndexes
+        )
+        endpoints.forEach { loadAssignment ->
+            previous?.serviceTagIndexes?.get(loadAssignment.clusterName)
+                ?.takeIf { it.indexes(loadAssignment) }
+                ?.let { serviceTagIndexes.putIfAbsent(loadAssignment.clusterName, it) }
+        }
+
+        val snapshot = GlobalSnapshot(
+            clusters = clusters,
+            securedClusters = securedClusters,
+            endpoints = endpoints.associateByTo(LinkedHashMap()) { it.clusterName },
+            allServicesNames = getClustersForAllServicesGroups(clusters, properties.outgoingPermissions),
+            clusterConfigurations = clusterConfigurations,
+            serviceTagIndexes = serviceTagIndexes
+        )
+        previousStates = servicesStates
+        previousSnapshot = snapshot
+        return snapshot
+    }
+
+    private fun clusters(
+        clusterConfigurations: Map<String, ClusterConfiguration>,
+        previous: GlobalSnapshot?
+    ): Pair<Map<String, Cluster>, Map<String, Cluster>> {
+        val changedConfigurations = clusterConfigurations.values.filter {
+            previous == null ||
+                previous.clusterConfigurations[it.serviceName] != it ||
+                it.serviceName !in previous.clusters
+        }
+        val builtClusters = clustersFactory.getClustersForServices(changedConfigurations, communicationMode)
+        val builtSecuredClusters = clustersFactory.getSecuredClusters(builtClusters).associateBy { it.name }
+        val builtClustersByName = builtClusters.associateBy { it.name }
+
+        // clusters are kept in the order of configurations, because the order affects CDS version
+        val clusters = LinkedHashMap<String, Cluster>()
+        val securedClusters = LinkedHashMap<String, Cluster>()
+        clusterConfigurations.keys.forEach { serviceName ->
+            val builtCluster = builtClustersByName[serviceName]
+            if (builtCluster != null) {
+                clusters[serviceName] = builtCluster
+                builtSecuredClusters[serviceName]?.let { securedClusters[serviceName] = it }
+            } else {
+                previous!!.clusters[serviceName]?.let { clusters[serviceName] = it }
+                previous.securedClusters[serviceName]?.let { securedClusters[serviceName] = it }
+            }
+        }
+        return clusters to securedClusters
+    }
+
+    /**
+     * Returns services whose instances changed since the previous states, or null if the states can't be compared.
+     */
+    private fun servicesWithChangedInstances(servicesStates: MultiClusterState): Set<String>? {
+        servicesStates.changedServicesSince(previousStates)?.let { return it }
+        val statesPairs = servicesStates.zip(previousStates)
+        val comparable = servicesStates.size == previousStates.size && statesPairs.all { (current, previous) ->
+            current.cluster == previous.cluster && current.locality == previous.locality
+        }
+        return if (comparable) {
+            statesPairs.flatMapTo(HashSet()) { (current, previous) ->
+                current.servicesState.changedServicesSince(previous.servicesState)
+            }
+        } else {
+            null
+        }
+    }
+}
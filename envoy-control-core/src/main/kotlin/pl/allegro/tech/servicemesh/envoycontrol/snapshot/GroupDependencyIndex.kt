@@ -0,0 +1,77 @@
+package pl.allegro.tech.servicemesh.envoycontrol.snapshot
+
+import pl.allegro.tech.servicemesh.envoycontrol.groups.AllServicesGroup
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ServicesGroup
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * Reverse index from a service name to the groups whose snapshot is built from clusters or endpoints of that service.
+ *
+ * A group depends on:
+ * - services declared in its outgoing dependencies,
+ * - the rate limit service, if it has rate limited incoming endpoints,
+ * - every service, if it is an [AllServicesGroup].
+ *
+ * Services with source ip authentication from service discovery are used in RBAC filters of any group that lists
+ * them as clients (also indirectly, through roles or clients lists), so a change of such service affects all groups.
+ */
+internal class GroupDependencyIndex(
+    properties: SnapshotProperties
+) {
+    private val groups: MutableSet<Group> = Collections.newSetFromMap(IdentityHashMap())
+    private val allServicesGroups = mutableListOf<Group>()
+    private val groupsByService = HashMap<String, MutableList<Group>>()
+    private val rateLimitServiceName = properties.rateLimit.serviceName
+    private val globalDependencies: Set<String> = if (properties.incomingPermissions.enabled) {
+        properties.incomingPermissions.sourceIpAuthentication.ipFromServiceDiscovery.enabledForIncomingServices.toSet()
+    } else {
+        emptySet()
+    }
+
+    /**
+     * Returns whether the index has exactly the [groups], compared by identity.
+     */
+    fun indexes(groups: Collection<Group>): Boolean =
+        this.groups.size == groups.size && groups.all { it in this.groups }
+
+    /**
+     * Adds dependencies of the [group], unless it's already indexed.
+     */
+    fun add(group: Group) {
+        if (!groups.add(group)) {
+            return
+        }
+        when (group) {
+            is AllServicesGroup -> allServicesGroups.add(group)
+            is ServicesGroup -> {
+                group.proxySettings.outgoing.getServiceDependencies().forEach {
+                    groupsByService.getOrPut(it.service) { mutableListOf() }.add(group)
+                }
+                if (group.proxySettings.incoming.rateLimitEndpoints.isNotEmpty()) {
+                    groupsByService.getOrPut(rateLimitServiceName) { mutableListOf() }.add(group)
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns groups, compared by identity, whose snapshot may differ after [changedServices] have changed.
+     */
+    fun groupsAffectedBy(changedServices: Set<String>): Set<Group> {
+        val affected: MutableSet<Group> = Collections.newSetFromMap(IdentityHashMap())
+        if (changedServices.isEmpty()) {
+            return affected
+        }
+        if (changedServices.any { it in globalDependencies }) {
+            affected.addAll(groups)
+            return affected
+        }
+        affected.addAll(allServicesGroups)
+        changedServices.forEach { service ->
+            groupsByService[service]?.let { affected.addAll(it) }
+        }
+        return affected
+    }
+}
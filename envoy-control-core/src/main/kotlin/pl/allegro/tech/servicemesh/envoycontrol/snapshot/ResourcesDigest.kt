@@ -0,0 +1,63 @@
+package pl.allegro.tech.servicemesh.envoycontrol.snapshot
+
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.google.protobuf.CodedOutputStream
+import com.google.protobuf.Message
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+
+/**
+ * 128-bit digest of a list of resources together with the number and the total serialized size of the resources.
+ *
+ * Digests of single resources are cached per proto instance (by identity), so a resource reused between snapshots
+ * is serialized only once.
+ */
+internal data class ResourcesDigest(
+    val count: Int,
+    val size: Long,
+    val high: Long,
+    val low: Long
+) {
+    fun hasSameHash(other: ResourcesDigest): Boolean = high == other.high && low == other.low
+
+    fun hex(): String = "%016x%016x".format(high, low)
+
+    fun combine(other: ResourcesDigest): ResourcesDigest {
+        val digest = md5.get()
+        digest.update(toBytes())
+        digest.update(other.toBytes())
+        return of(count + other.count, size + other.size, digest.digest())
+    }
+
+    private fun toBytes(): ByteArray = ByteBuffer.allocate(DIGEST_BYTES).putLong(high).putLong(low).array()
+
+    private class ResourceDigest(val size: Int, val digest: ByteArray)
+
+    companion object {
+        private const val DIGEST_BYTES = 16
+        private val md5: ThreadLocal<MessageDigest> = ThreadLocal.withInitial { MessageDigest.getInstance("MD5") }
+        private val resourceDigests = Caffeine.newBuilder().weakKeys().build<Message, ResourceDigest>()
+
+        fun of(resources: List<Message>): ResourcesDigest {
+            val digests = resources.map { resourceDigests.get(it, ::resourceDigest) }
+            val digest = md5.get()
+            digests.forEach { digest.update(it.digest) }
+            return of(resources.size, digests.sumOf { it.size.toLong() }, digest.digest())
+        }
+
+        private fun of(count: Int, size: Long, digest: ByteArray): ResourcesDigest {
+            val buffer = ByteBuffer.wrap(digest)
+            return ResourcesDigest(count, size, buffer.getLong(0), buffer.getLong(Long.SIZE_BYTES))
+        }
+
+        private fun resourceDigest(resource: Message): ResourceDigest {
+            // deterministic serialization, so that equal maps (e.g. in metadata) always give the same digest
+            val bytes = ByteArray(resource.serializedSize)
+            val output = CodedOutputStream.newInstance(bytes)
+            output.useDeterministicSerialization()
+            resource.writeTo(output)
+            output.checkNoSpaceLeft()
+            return ResourceDigest(bytes.size, md5.get().digest(bytes))
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package pl.allegro.tech.servicemesh.envoycontrol.snapshot
+
+import io.micrometer.core.instrument.MeterRegistry
+import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICES_STATE_COALESCED_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICES_STATE_COALESCING_INTERVAL_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICES_STATE_COALESCING_LATENCY_METRIC
+import reactor.core.publisher.Flux
+import reactor.core.publisher.FluxSink
+import reactor.core.scheduler.Scheduler
+import reactor.core.scheduler.Schedulers
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Coalesces bursts of services states, so snapshots are rebuilt at most once per interval from the latest state.
+ *
+ * The interval is [minInterval] and it's widened up to [maxLatency] when rebuilds take longer than it. A state is never
+ * delayed more than [maxLatency], regardless of the interval.
+ */
+class ServicesStateCoalescer(
+    private val minInterval: Duration,
+    private val maxLatency: Duration,
+    meterRegistry: MeterRegistry,
+    private val scheduler: Scheduler = Schedulers.parallel()
+) {
+    private val intervalNanos = AtomicLong(minInterval.toNanos())
+    private val coalescedCounter = meterRegistry.counter(SERVICES_STATE_COALESCED_METRIC)
+    private val latencyTimer = meterRegistry.timer(SERVICES_STATE_COALESCING_LATENCY_METRIC)
+
+    // guarded by this
+    private var pending: MultiClusterState? = null
+    private var pendingSince = 0L
+    private var lastEmittedAt: Long? = null
+    private var lastEmitted: MultiClusterState? = null
+    private var lastEmittedReceivedAt = 0L
+
+    init {
+        meterRegistry.gauge(SERVICES_STATE_COALESCING_INTERVAL_METRIC, intervalNanos) {
+            it.get().toDouble() / TimeUnit.SECONDS.toNanos(1)
+        }
+    }
+
+    fun coalesce(states: Flux<MultiClusterState>): Flux<MultiClusterState> = Flux.create({ sink ->
+        val subscription = states.subscribe(
+            { state -> onState(state, sink) },
+            { sink.error(it) },
+            {
+                emit(sink)
+                sink.complete()
+            }
+        )
+        sink.onDispose(subscription)
+    }, FluxSink.OverflowStrategy.LATEST)
+
+    /**
+     * Adjusts the interval to the duration of the last snapshot rebuild.
+     */
+    fun rebuildFinished(duration: Duration) {
+        intervalNanos.set(duration.toNanos().coerceIn(minInterval.toNanos(), maxLatency.toNanos()))
+    }
+
+    /**
+     * Returns the time, in nanoseconds of the scheduler clock, when the first of states coalesced into the given one
+     * was received. Returns null if a newer state has been emitted since then.
+     */
+    @Synchronized
+    fun receivedAt(state: MultiClusterState): Long? = lastEmittedReceivedAt.takeIf { state === lastEmitted }
+
+    fun now(): Long = scheduler.now(TimeUnit.NANOSECONDS)
+
+    private fun onState(state: MultiClusterState, sink: FluxSink<MultiClusterState>) {
+        val delay = synchronized(this) {
+            val previous = pending
+            pending = state
+            if (previous != null) {
+                coalescedCounter.increment()
+                return
+            }
+            val now = now()
+            pendingSince = now
+            val nextEmission = lastEmittedAt?.let { it + intervalNanos.get() } ?: now
+            (nextEmission - now).coerceIn(0, maxLatency.toNanos())
+        }
+        scheduler.schedule({ emit(sink) }, delay, TimeUnit.NANOSECONDS)
+    }
+
+    private fun emit(sink: FluxSink<MultiClusterState>) {
+        val state = synchronized(this) {
+            val state = pending ?: return
+            val now = now()
+            pending = null
+            lastEmittedAt = now
+            lastEmitted = state
+            lastEmittedReceivedAt = pendingSince
+            latencyTimer.record(now - pendingSince, TimeUnit.NANOSECONDS)
+            state
+        }
+        sink.next(state)
+    }
+}
@@ -41,6 +41,28 @@ class SnapshotProperties {
     var shouldAuditGlobalSnapshot: Boolean = true
     var compression: CompressionProperties = CompressionProperties()
     var ignoreTLSUpgradeEnabled: Boolean = false
+    var incrementalGroupUpdates = IncrementalGroupUpdatesProperties()
+    var versionsDigest = VersionsDigestProperties()
+    var nodeGroupCache = NodeGroupCacheProperties()
+    var stateCoalescing = StateCoalescingProperties()
+}
+
+class IncrementalGroupUpdatesProperties {
+    var enabled = false
+}
+
+class VersionsDigestProperties {
+    var enabled = false
+}
+
+class NodeGroupCacheProperties {
+    var enabled = true
+    var maxSize = 10_000L
+}
+
+class StateCoalescingProperties {
+    var enabled = false
+    var maxLatency: Duration = Duration.ofSeconds(5)
 }
 
 class DefaultDependenciesProperties {
@@ -60,10 +82,16 @@ class MetricsProperties {
 
 class ListenersFactoryProperties {
     var enabled = true
+    var cache = ListenersCacheProperties()
     var httpFilters = HttpFiltersProperties()
     var localReplyMapper = LocalReplyMapperProperties()
 }
 
+class ListenersCacheProperties {
+    var enabled = false
+    var maxSize = 10_000L
+}
+
 class HttpFiltersProperties {
     var accessLog = AccessLogProperties()
     var ingressXffNumTrustedHops = 1
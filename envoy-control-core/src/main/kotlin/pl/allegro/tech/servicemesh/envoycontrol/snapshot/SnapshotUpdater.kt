@@ -15,12 +15,15 @@ import pl.allegro.tech.servicemesh.envoycontrol.utils.COMMUNICATION_MODE_ERROR_M
 import pl.allegro.tech.servicemesh.envoycontrol.utils.OPERATION_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.ParallelizableScheduler
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICES_STATE_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICES_STATE_PROPAGATION_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICE_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SIMPLE_CACHE_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SNAPSHOT_ERROR_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SNAPSHOT_GROUP_ERROR_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.SNAPSHOT_GROUP_UPDATES_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SNAPSHOT_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SNAPSHOT_UPDATE_DURATION_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.STATUS_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.UPDATE_TRIGGER_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.doOnNextScheduledOn
 import pl.allegro.tech.servicemesh.envoycontrol.utils.measureBuffer
@@ -29,6 +32,9 @@ import pl.allegro.tech.servicemesh.envoycontrol.utils.onBackpressureLatestMeasur
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
 import reactor.core.scheduler.Scheduler
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
 
 @Suppress("LongParameterList")
 class SnapshotUpdater(
@@ -50,6 +56,19 @@ class SnapshotUpdater(
 
     private var globalSnapshot: UpdateResult? = null
 
+    // accessed only from the sequential concatMap stage
+    private var lastServicesUpdate: UpdateResult? = null
+    private var groupDependencyIndex: GroupDependencyIndex? = null
+    private val groupsWithFailedUpdate: MutableSet<Group> = ConcurrentHashMap.newKeySet()
+    private val rebuiltGroupsCounter = meterRegistry.counter(SNAPSHOT_GROUP_UPDATES_METRIC, STATUS_TAG, "rebuilt")
+    private val skippedGroupsCounter = meterRegistry.counter(SNAPSHOT_GROUP_UPDATES_METRIC, STATUS_TAG, "skipped")
+    private val statesCoalescer = if (properties.stateCoalescing.enabled) {
+        ServicesStateCoalescer(properties.stateSampleDuration, properties.stateCoalescing.maxLatency, meterRegistry)
+    } else {
+        null
+    }
+    private val propagationTimer = meterRegistry.timer(SERVICES_STATE_PROPAGATION_METRIC)
+
     fun getGlobalSnapshot(): UpdateResult? {
         return globalSnapshot
     }
@@ -74,14 +93,16 @@ class SnapshotUpdater(
                     action = newUpdate.action,
                     groups = newUpdate.groups,
                     adsSnapshot = newUpdate.adsSnapshot ?: previous.adsSnapshot,
-                    xdsSnapshot = newUpdate.xdsSnapshot ?: previous.xdsSnapshot
+                    xdsSnapshot = newUpdate.xdsSnapshot ?: previous.xdsSnapshot,
+                    statesReceivedAt = newUpdate.statesReceivedAt
                 )
             }
             // concat map guarantees sequential processing (unlike flatMap)
             .concatMap { result ->
                 val groups = if (result.action == Action.ALL_SERVICES_GROUP_ADDED) {
-                    cache.groups()
+                    groupsAffectedByServicesUpdate(result)
                 } else {
+                    groupDependencyIndex?.let { index -> result.groups.forEach { index.add(it) } }
                     result.groups
                 }
 
@@ -97,6 +118,48 @@ class SnapshotUpdater(
             }
     }
 
+    /**
+     * Returns all groups, or - when incremental group updates are enabled - only those groups whose snapshot
+     * depends on services that changed since the last services update. Groups without a snapshot yet and groups
+     * whose last update failed are always returned.
+     */
+    private fun groupsAffectedByServicesUpdate(result: UpdateResult): Collection<Group> {
+        val previous = lastServicesUpdate
+        lastServicesUpdate = result
+        val groups = cache.groups()
+        if (!properties.incrementalGroupUpdates.enabled || previous == null) {
+            rebuiltGroupsCounter.increment(groups.size.toDouble())
+            return groups
+        }
+        groupsWithFailedUpdate.retainAll(groups)
+
+        val changedServices = changedServices(previous.adsSnapshot, result.adsSnapshot) +
+            changedServices(previous.xdsSnapshot, result.xdsSnapshot)
+        val affectedGroups = groupDependencyIndex(groups).groupsAffectedBy(changedServices)
+        val groupsToUpdate = groups.filter {
+            it in affectedGroups || it in groupsWithFailedUpdate || cache.getSnapshot(it) == null
+        }
+        rebuiltGroupsCounter.increment(groupsToUpdate.size.toDouble())
+        skippedGroupsCounter.increment((groups.size - groupsToUpdate.size).toDouble())
+        return groupsToUpdate
+    }
+
+    /**
+     * Returns the index of dependencies of the [groups]. The index is kept across updates and new groups are added to
+     * it when they are reported, so it's rebuilt only when groups of the cache changed otherwise, e.g. were removed.
+     */
+    private fun groupDependencyIndex(groups: Collection<Group>): GroupDependencyIndex {
+        groupDependencyIndex?.takeIf { it.indexes(groups) }?.let { return it }
+        return GroupDependencyIndex(properties)
+            .also { index -> groups.forEach { index.add(it) } }
+            .also { groupDependencyIndex = it }
+    }
+
+    private fun changedServices(previous: GlobalSnapshot?, current: GlobalSnapshot?): Set<String> = when {
+        previous != null && current != null -> current.changedServices(previous)
+        else -> (previous?.clusters?.keys ?: emptySet()) + (current?.clusters?.keys ?: emptySet())
+    }
+
     internal fun groups(): Flux<UpdateResult> {
         // see GroupChangeWatcher
         return onGroupAdded
@@ -120,7 +183,7 @@ class SnapshotUpdater(
     }
 
     internal fun services(states: Flux<MultiClusterState>): Flux<UpdateResult> {
-        return states
+        return (statesCoalescer?.coalesce(states) ?: states)
             .name(SERVICES_STATE_METRIC)
             .tag(CHECKPOINT_TAG, "sampled")
             .metrics()
@@ -146,7 +209,8 @@ class SnapshotUpdater(
                 val updateResult = UpdateResult(
                     action = Action.ALL_SERVICES_GROUP_ADDED,
                     adsSnapshot = lastAdsSnapshot,
-                    xdsSnapshot = lastXdsSnapshot
+                    xdsSnapshot = lastXdsSnapshot,
+                    statesReceivedAt = statesCoalescer?.receivedAt(states)
                 )
                 globalSnapshot = updateResult
                 updateResult
@@ -180,7 +244,13 @@ class SnapshotUpdater(
             snapshotTimer(group.serviceName).recordCallable {
                 cache.setSnapshot(group, groupSnapshot)
             }
+            if (properties.incrementalGroupUpdates.enabled) {
+                groupsWithFailedUpdate.remove(group)
+            }
         } catch (e: Throwable) {
+            if (properties.incrementalGroupUpdates.enabled) {
+                groupsWithFailedUpdate.add(group)
+            }
             meterRegistry.counter(
                 SNAPSHOT_GROUP_ERROR_METRIC,
                 Tags.of(
@@ -216,16 +286,30 @@ class SnapshotUpdater(
                 }
             }
         return results.then(Mono.fromCallable {
-            sample.stop(updateSnapshotForGroupsTimer)
+            val duration = sample.stop(updateSnapshotForGroupsTimer)
+            if (result.action == Action.ALL_SERVICES_GROUP_ADDED) {
+                servicesUpdated(result, duration)
+            }
             result
         })
     }
 
+    private fun servicesUpdated(result: UpdateResult, durationNanos: Long) {
+        val coalescer = statesCoalescer ?: return
+        coalescer.rebuildFinished(Duration.ofNanos(durationNanos))
+        result.statesReceivedAt?.let { propagationTimer.record(coalescer.now() - it, TimeUnit.NANOSECONDS) }
+    }
+
     private fun Flux<MultiClusterState>.createClusterConfigurations(): Flux<StatesAndClusters> = this
         .scan(StatesAndClusters.initial) { previous, currentStates ->
+            val changedServices = if (previous === StatesAndClusters.initial) {
+                null
+            } else {
+                currentStates.changedServicesSince(previous.states)
+            }
             StatesAndClusters(
                 states = currentStates,
-                clusters = snapshotFactory.clusterConfigurations(currentStates, previous.clusters)
+                clusters = snapshotFactory.clusterConfigurations(currentStates, previous.clusters, changedServices)
             )
         }
         .filter { it !== StatesAndClusters.initial }
@@ -248,5 +332,7 @@ data class UpdateResult(
     val action: Action,
     val groups: List<Group> = listOf(),
     val adsSnapshot: GlobalSnapshot? = null,
-    val xdsSnapshot: GlobalSnapshot? = null
+    val xdsSnapshot: GlobalSnapshot? = null,
+    // time when the services state was received by the coalescing stage, if it's enabled
+    val statesReceivedAt: Long? = null
 )
@@ -16,17 +16,24 @@ import java.util.concurrent.ConcurrentHashMap
  * We have to generate new version by comparing it to the previously sent data. We cannot use hashes of data because
  * we would end up in hash collisions which would result in change in discovery that is not sent to Envoys.
  *
+ * Unless [digestEnabled] - then instead of the previously sent data only a [ResourcesDigest] of each resource type
+ * is kept and versions are derived from the digests. If a digest has the same 128-bit hash as the previous one,
+ * but a different number or size of resources, a collision happened and a random version is generated instead.
+ * Only a collision of resources with the same number and size would be missed, which is unlikely enough to trade it
+ * for not keeping a copy of every group's resources.
+ *
  * Calls for the version methods are thread safe.
  * The concurrent execution of version and retainGroups methods can lead to a situation where after retainGroups
  * invocation the group is still there. This is fine, it will be removed on the next retainGroups invocation.
  * We don't need strong consistency there.
  */
-class SnapshotsVersions {
+class SnapshotsVersions(private val digestEnabled: Boolean = false) {
     companion object {
         fun newVersion(): String = UUID.randomUUID().toString().replace("-", "")
     }
 
     private val versions = ConcurrentHashMap<Group, VersionsWithData>()
+    private val digestVersions = ConcurrentHashMap<Group, VersionsWithDigests>()
 
     fun version(
         group: Group,
@@ -35,6 +42,9 @@ class SnapshotsVersions {
         listeners: List<Listener> = listOf(),
         routes: List<RouteConfiguration> = listOf()
     ): Version {
+        if (digestEnabled) {
+            return digestVersion(group, clusters, endpoints, listeners, routes)
+        }
         val versionsWithData = versions.compute(group) { _, previous ->
             val version = when (previous) {
                 null -> Version(
@@ -96,8 +106,60 @@ class SnapshotsVersions {
      * SnapshotCollectingCallback. This should be executed so we won't store versions for stale groups.
      */
     fun retainGroups(groups: Iterable<Group>) {
-        val toRemove = versions.keys - groups
-        toRemove.forEach { group -> versions.remove(group) }
+        val groupsToRetain = groups.toSet()
+        versions.keys.retainAll(groupsToRetain)
+        digestVersions.keys.retainAll(groupsToRetain)
+    }
+
+    private fun digestVersion(
+        group: Group,
+        clusters: List<Cluster>,
+        endpoints: List<ClusterLoadAssignment>,
+        listeners: List<Listener>,
+        routes: List<RouteConfiguration>
+    ): Version {
+        val clustersDigest = ResourcesDigest.of(clusters)
+        val listenersDigest = ResourcesDigest.of(listeners)
+        // when clusters change we should also send EDS and when listeners change we should also send RDS
+        val endpointsDigest = clustersDigest.combine(ResourcesDigest.of(endpoints))
+        val routesDigest = listenersDigest.combine(ResourcesDigest.of(routes))
+
+        val versionsWithDigests = digestVersions.compute(group) { _, previous ->
+            val version = Version(
+                clusters = if (clusters.isEmpty()) {
+                    ClustersVersion.EMPTY_VERSION
+                } else {
+                    selectVersion(previous?.clusters, previous?.version?.clusters, clustersDigest) {
+                        ClustersVersion(it)
+                    }
+                },
+                endpoints = if (clusters.isEmpty()) {
+                    EndpointsVersion.EMPTY_VERSION
+                } else {
+                    selectVersion(previous?.endpoints, previous?.version?.endpoints, endpointsDigest) {
+                        EndpointsVersion(it)
+                    }
+                },
+                listeners = selectVersion(previous?.listeners, previous?.version?.listeners, listenersDigest) {
+                    ListenersVersion(it)
+                },
+                routes = selectVersion(previous?.routes, previous?.version?.routes, routesDigest) { RoutesVersion(it) }
+            )
+            VersionsWithDigests(version, clustersDigest, endpointsDigest, listenersDigest, routesDigest)
+        }
+        return versionsWithDigests!!.version
+    }
+
+    private fun <V> selectVersion(
+        previousDigest: ResourcesDigest?,
+        previousVersion: V?,
+        digest: ResourcesDigest,
+        version: (String) -> V
+    ): V = when {
+        previousDigest == null || previousVersion == null -> version(digest.hex())
+        previousDigest == digest -> previousVersion
+        previousDigest.hasSameHash(digest) -> version(newVersion())
+        else -> version(digest.hex())
     }
 
     private data class VersionsWithData(
@@ -108,6 +170,14 @@ class SnapshotsVersions {
         val routes: List<RouteConfiguration>
     )
 
+    private class VersionsWithDigests(
+        val version: Version,
+        val clusters: ResourcesDigest,
+        val endpoints: ResourcesDigest,
+        val listeners: ResourcesDigest,
+        val routes: ResourcesDigest
+    )
+
     data class Version(
         val clusters: ClustersVersion,
         val endpoints: EndpointsVersion,
@@ -38,38 +38,70 @@ class EnvoyEndpointsFactory(
         private const val DEFAULT_WEIGHT = 1
     }
 
+    /**
+     * When [changedServices] are known, load assignments of other services are taken from [previousLoadAssignments].
+     *
+     * When [serviceTagIndexes] are given and endpoints are filtered by service tags, indexes of created load
+     * assignments are put there.
+     */
     fun createLoadAssignment(
         clusters: Set<String>,
-        multiClusterState: MultiClusterState
+        multiClusterState: MultiClusterState,
+        previousLoadAssignments: Map<String, ClusterLoadAssignment> = emptyMap(),
+        changedServices: Set<String>? = null,
+        serviceTagIndexes: MutableMap<String, ServiceTagIndex>? = null
     ): List<ClusterLoadAssignment> {
 
         return clusters
             .map { serviceName ->
+                if (changedServices != null && serviceName !in changedServices) {
+                    previousLoadAssignments[serviceName]?.let { return@map it }
+                }
+                val serviceTagIndex = ServiceTagIndex.Builder().takeIf {
+                    serviceTagIndexes != null && properties.routing.serviceTags.isAutoServiceTagEffectivelyEnabled()
+                }
                 val localityLbEndpoints = multiClusterState
                     .map {
                         val locality = it.locality
                         val cluster = it.cluster
 
-                        createEndpointsGroup(it.servicesState[serviceName], cluster, locality)
+                        createEndpointsGroup(
+                            serviceName, it.servicesState[serviceName], cluster, locality, serviceTagIndex
+                        )
                     }
 
                 ClusterLoadAssignment.newBuilder()
                     .setClusterName(serviceName)
                     .addAllEndpoints(localityLbEndpoints)
                     .build()
+                    .also { loadAssignment ->
+                        serviceTagIndex?.let { serviceTagIndexes?.put(serviceName, it.build(loadAssignment)) }
+                    }
             }
     }
 
+    fun filtersEndpoints(routingPolicy: RoutingPolicy): Boolean =
+        routingPolicy.autoServiceTag && properties.routing.serviceTags.isAutoServiceTagEffectivelyEnabled()
+
+    /**
+     * The [serviceTagIndex] is used instead of reading tags from endpoints metadata, when it indexes the given
+     * [clusterLoadAssignment].
+     */
     fun filterEndpoints(
         clusterLoadAssignment: ClusterLoadAssignment,
-        routingPolicy: RoutingPolicy
+        routingPolicy: RoutingPolicy,
+        serviceTagIndex: ServiceTagIndex? = null
     ): ClusterLoadAssignment {
-        if (!routingPolicy.autoServiceTag || !properties.routing.serviceTags.isAutoServiceTagEffectivelyEnabled()) {
+        if (!filtersEndpoints(routingPolicy)) {
             return clusterLoadAssignment
         }
 
+        val index = serviceTagIndex?.takeIf { it.indexes(clusterLoadAssignment) }
         val filteredLoadAssignment = routingPolicy.serviceTagPreference.firstNotNullOfOrNull { serviceTag ->
-            filterEndpoints(clusterLoadAssignment, serviceTag)
+            when (index) {
+                null -> filterEndpoints(clusterLoadAssignment, serviceTag)
+                else -> index.filter(serviceTag)
+            }
         }
 
         return when {
@@ -131,41 +163,10 @@ class EnvoyEndpointsFactory(
             }
     }
 
-    private fun filterEndpoints(loadAssignment: ClusterLoadAssignment, tag: String): ClusterLoadAssignment? {
-        var allEndpointMatched = true
-        val filteredEndpoints = loadAssignment.endpointsList.mapNotNull { localityLbEndpoint ->
-            val (matchedEndpoints, unmatchedEndpoints) = localityLbEndpoint.lbEndpointsList.partition {
-                metadataContainsServiceTag(it.metadata, tag)
-            }
-            when {
-                matchedEndpoints.isNotEmpty() && unmatchedEndpoints.isNotEmpty() -> { // SOME
-                    allEndpointMatched = false
-                    localityLbEndpoint.toBuilder()
-                        .clearLbEndpoints()
-                        .addAllLbEndpoints(matchedEndpoints)
-                        .build()
-                }
-
-                matchedEndpoints.isNotEmpty() -> { // ALL
-                    localityLbEndpoint
-                }
-
-                else -> { // NONE
-                    allEndpointMatched = false
-                    null
-                }
-            }
-        }
-        return when {
-            allEndpointMatched -> loadAssignment // ALL
-            filteredEndpoints.isNotEmpty() -> loadAssignment.toBuilder() // SOME
-                .clearEndpoints()
-                .addAllEndpoints(filteredEndpoints)
-                .build()
-
-            else -> null // NONE
+    private fun filterEndpoints(loadAssignment: ClusterLoadAssignment, tag: String): ClusterLoadAssignment? =
+        filterLbEndpoints(loadAssignment) { _, localityLbEndpoints ->
+            localityLbEndpoints.lbEndpointsList.filter { metadataContainsServiceTag(it.metadata, tag) }
         }
-    }
 
     private fun createEmptyLoadAssignment(loadAssignment: ClusterLoadAssignment): ClusterLoadAssignment {
         return loadAssignment.toBuilder().clearEndpoints().build()
@@ -178,30 +179,39 @@ class EnvoyEndpointsFactory(
         .any { it.stringValue == serviceTag }
 
     private fun createEndpointsGroup(
+        serviceName: String,
         serviceInstances: ServiceInstances?,
         zone: String,
-        locality: Locality
+        locality: Locality,
+        serviceTagIndex: ServiceTagIndex.Builder?
     ): LocalityLbEndpoints {
+        val instances = serviceInstances?.instances.orEmpty()
+        val serviceTags = instances.map { serviceTagsForRouting(it, serviceName) }
+        val lbEndpoints = instances.zip(serviceTags) { instance, tags -> createLbEndpoint(instance, locality, tags) }
+        serviceTagIndex?.addLocality(lbEndpoints, serviceTags)
         return LocalityLbEndpoints.newBuilder()
             .setLocality(EnvoyProxyLocality.newBuilder().setZone(zone).build())
-            .addAllLbEndpoints(serviceInstances?.instances
-                ?.map {
-                    createLbEndpoint(it, serviceInstances.serviceName, locality)
-                } ?: emptyList())
+            .addAllLbEndpoints(lbEndpoints)
             .setPriority(toEnvoyPriority(zone, locality, serviceInstances))
             .build()
     }
 
+    private fun serviceTagsForRouting(instance: ServiceInstance, serviceName: String): List<String>? =
+        when (properties.routing.serviceTags.enabled) {
+            true -> serviceTagFilter.getAllTagsForRouting(serviceName, instance.tags)?.toList()
+            false -> null
+        }
+
     private fun createLbEndpoint(
         serviceInstance: ServiceInstance,
-        serviceName: String,
-        locality: Locality
+        locality: Locality,
+        serviceTags: List<String>?
     ): LbEndpoint {
         return LbEndpoint.newBuilder()
             .setEndpoint(
                 buildEndpoint(serviceInstance)
             )
-            .setMetadata(serviceInstance, serviceName, locality)
+            .setMetadata(serviceInstance, locality, serviceTags)
             .setLoadBalancingWeightFromInstance(serviceInstance)
             .build()
     }
@@ -229,8 +239,8 @@ class EnvoyEndpointsFactory(
 
     private fun LbEndpoint.Builder.setMetadata(
         instance: ServiceInstance,
-        serviceName: String,
-        locality: Locality
+        locality: Locality,
+        serviceTags: List<String>?
     ): LbEndpoint.Builder {
         val lbMetadataKeys = Struct.newBuilder()
         val socketMatchMetadataKeys = Struct.newBuilder()
@@ -247,8 +257,8 @@ class EnvoyEndpointsFactory(
                 Value.newBuilder().setBoolValue(true).build()
             )
         }
-        if (properties.routing.serviceTags.enabled) {
-            addServiceTagsToMetadata(lbMetadataKeys, instance, serviceName)
+        if (serviceTags != null) {
+            addServiceTagsToMetadata(lbMetadataKeys, serviceTags)
         }
         if (instance.tags.contains(properties.incomingPermissions.tlsAuthentication.mtlsEnabledTag)) {
             socketMatchMetadataKeys.putFields(
@@ -267,17 +277,15 @@ class EnvoyEndpointsFactory(
         )
     }
 
-    private fun addServiceTagsToMetadata(metadata: Struct.Builder, instance: ServiceInstance, serviceName: String) {
-        serviceTagFilter.getAllTagsForRouting(serviceName, instance.tags)?.let { tags ->
-            metadata.putFields(
-                properties.routing.serviceTags.metadataKey,
-                Value.newBuilder()
-                    .setListValue(
-                        ListValue.newBuilder()
-                            .addAllValues(tags.map { Value.newBuilder().setStringValue(it).build() }.asIterable())
-                    ).build()
-            )
-        }
+    private fun addServiceTagsToMetadata(metadata: Struct.Builder, tags: List<String>) {
+        metadata.putFields(
+            properties.routing.serviceTags.metadataKey,
+            Value.newBuilder()
+                .setListValue(
+                    ListValue.newBuilder()
+                        .addAllValues(tags.map { Value.newBuilder().setStringValue(it).build() })
+                ).build()
+        )
     }
 
     private fun LbEndpoint.Builder.setLoadBalancingWeightFromInstance(instance: ServiceInstance): LbEndpoint.Builder =
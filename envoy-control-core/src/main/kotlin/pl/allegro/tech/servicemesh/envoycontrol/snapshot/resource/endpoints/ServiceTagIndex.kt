@@ -0,0 +1,83 @@
+package pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.endpoints
+
+import io.envoyproxy.envoy.config.endpoint.v3.ClusterLoadAssignment
+import io.envoyproxy.envoy.config.endpoint.v3.LbEndpoint
+import io.envoyproxy.envoy.config.endpoint.v3.LocalityLbEndpoints
+
+/**
+ * Endpoints of [loadAssignment] by service tags, built together with the load assignment from tags of instances, so
+ * filtering by a service tag doesn't have to read tags from metadata of every endpoint.
+ *
+ * The index is derived from the load assignment, so indexes of equal load assignments are equal.
+ */
+class ServiceTagIndex(
+    val loadAssignment: ClusterLoadAssignment,
+    // per locality, in the order of load assignment endpoints
+    private val endpointsByTag: List<Map<String, List<LbEndpoint>>>
+) {
+    fun indexes(loadAssignment: ClusterLoadAssignment): Boolean = loadAssignment === this.loadAssignment
+
+    /**
+     * Returns the load assignment with only endpoints tagged with [tag], or null if there are no such endpoints.
+     */
+    fun filter(tag: String): ClusterLoadAssignment? = filterLbEndpoints(loadAssignment) { locality, _ ->
+        endpointsByTag[locality][tag].orEmpty()
+    }
+
+    override fun equals(other: Any?): Boolean = other is ServiceTagIndex && other.loadAssignment == loadAssignment
+
+    override fun hashCode(): Int = loadAssignment.hashCode()
+
+    internal class Builder {
+        private val endpointsByTag = mutableListOf<Map<String, List<LbEndpoint>>>()
+
+        fun addLocality(endpoints: List<LbEndpoint>, tags: List<Collection<String>?>) {
+            val locality = HashMap<String, MutableList<LbEndpoint>>()
+            endpoints.zip(tags).forEach { (endpoint, endpointTags) ->
+                endpointTags.orEmpty().toSet().forEach { locality.getOrPut(it) { mutableListOf() }.add(endpoint) }
+            }
+            endpointsByTag.add(locality)
+        }
+
+        fun build(loadAssignment: ClusterLoadAssignment) = ServiceTagIndex(loadAssignment, endpointsByTag)
+    }
+}
+
+/**
+ * Returns the [loadAssignment] with only [matchedEndpoints] of each locality, given its index in the load assignment,
+ * or null if no endpoint matched. Localities and load assignments in which all endpoints matched are reused.
+ */
+internal fun filterLbEndpoints(
+    loadAssignment: ClusterLoadAssignment,
+    matchedEndpoints: (Int, LocalityLbEndpoints) -> List<LbEndpoint>
+): ClusterLoadAssignment? {
+    var allEndpointsMatched = true
+    val filteredEndpoints = loadAssignment.endpointsList.mapIndexedNotNull { locality, localityLbEndpoints ->
+        val matched = matchedEndpoints(locality, localityLbEndpoints)
+        when {
+            matched.isEmpty() -> { // NONE
+                allEndpointsMatched = false
+                null
+            }
+
+            matched.size < localityLbEndpoints.lbEndpointsCount -> { // SOME
+                allEndpointsMatched = false
+                localityLbEndpoints.toBuilder()
+                    .clearLbEndpoints()
+                    .addAllLbEndpoints(matched)
+                    .build()
+            }
+
+            else -> localityLbEndpoints // ALL
+        }
+    }
+    return when {
+        allEndpointsMatched -> loadAssignment // ALL
+        filteredEndpoints.isNotEmpty() -> loadAssignment.toBuilder() // SOME
+            .clearEndpoints()
+            .addAllEndpoints(filteredEndpoints)
+            .build()
+
+        else -> null // NONE
+    }
+}
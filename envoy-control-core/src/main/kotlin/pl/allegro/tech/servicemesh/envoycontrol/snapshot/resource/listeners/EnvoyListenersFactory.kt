@@ -1,5 +1,7 @@
 package pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners
 
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
 import com.google.protobuf.BoolValue
 import com.google.protobuf.Duration
 import com.google.protobuf.UInt32Value
@@ -7,6 +9,7 @@ import io.envoyproxy.envoy.config.core.v3.Address
 import io.envoyproxy.envoy.config.core.v3.SocketAddress
 import io.envoyproxy.envoy.config.core.v3.TrafficDirection
 import io.envoyproxy.envoy.config.core.v3.TransportSocket
+import io.envoyproxy.envoy.config.endpoint.v3.ClusterLoadAssignment
 import io.envoyproxy.envoy.config.listener.v3.Filter
 import io.envoyproxy.envoy.config.listener.v3.FilterChain
 import io.envoyproxy.envoy.config.listener.v3.FilterChainMatch
@@ -22,16 +25,21 @@ import io.envoyproxy.envoy.extensions.transport_sockets.tls.v3.CommonTlsContext
 import io.envoyproxy.envoy.extensions.transport_sockets.tls.v3.DownstreamTlsContext
 import io.envoyproxy.envoy.extensions.transport_sockets.tls.v3.SdsSecretConfig
 import io.envoyproxy.envoy.extensions.transport_sockets.tls.v3.TlsParameters
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import pl.allegro.tech.servicemesh.envoycontrol.groups.Dependency
 import pl.allegro.tech.servicemesh.envoycontrol.groups.DomainDependency
 import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
 import pl.allegro.tech.servicemesh.envoycontrol.groups.ListenersConfig
+import pl.allegro.tech.servicemesh.envoycontrol.logger
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.EnvoySnapshotFactory.Companion.DEFAULT_HTTP_PORT
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.GlobalSnapshot
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners.filters.EnvoyHttpFilters
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners.filters.HttpConnectionManagerFactory
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners.filters.TcpProxyFilterFactory
+import pl.allegro.tech.servicemesh.envoycontrol.utils.LISTENERS_CACHE_METRIC
 import com.google.protobuf.Any as ProtobufAny
 
 typealias HttpFilterFactory = (node: Group, snapshot: GlobalSnapshot) -> HttpFilter?
@@ -39,11 +47,13 @@ typealias HttpFilterFactory = (node: Group, snapshot: GlobalSnapshot) -> HttpFil
 @Suppress("MagicNumber")
 class EnvoyListenersFactory(
     private val snapshotProperties: SnapshotProperties,
-    envoyHttpFilters: EnvoyHttpFilters
+    envoyHttpFilters: EnvoyHttpFilters,
+    meterRegistry: MeterRegistry = SimpleMeterRegistry()
 ) {
 
     companion object {
         const val DOMAIN_PROXY_LISTENER_ADDRESS = "0.0.0.0"
+        private val logger by logger()
     }
 
     private val ingressFilters: List<HttpFilterFactory> = envoyHttpFilters.ingressFilters
@@ -54,6 +64,10 @@ class EnvoyListenersFactory(
     private val httpConnectionManagerFactory = HttpConnectionManagerFactory(snapshotProperties)
     private val tlsProperties = snapshotProperties.incomingPermissions.tlsAuthentication
     private val requireClientCertificate = BoolValue.of(tlsProperties.requireClientCertificate)
+    private val sourceIpClients: ((Group) -> Set<String>)? = envoyHttpFilters.sourceIpClients
+
+    // listeners depend on the global snapshot only through endpoints of clients authenticated by source IP
+    private val listenersCache: Cache<Group, CachedListeners>? = createListenersCache(meterRegistry)
 
     private val downstreamTlsContext = DownstreamTlsContext.newBuilder()
         .setRequireClientCertificate(requireClientCertificate)
@@ -121,6 +135,53 @@ class EnvoyListenersFactory(
     }
 
     fun createListeners(group: Group, globalSnapshot: GlobalSnapshot): List<Listener> {
+        val cache = listenersCache
+        val sourceIpClients = sourceIpClients
+        return if (cache != null && sourceIpClients != null) {
+            cachedListeners(cache, sourceIpClients(group), group, globalSnapshot)
+        } else {
+            buildListeners(group, globalSnapshot)
+        }
+    }
+
+    private fun cachedListeners(
+        cache: Cache<Group, CachedListeners>,
+        sourceIpClients: Set<String>,
+        group: Group,
+        globalSnapshot: GlobalSnapshot
+    ): List<Listener> {
+        val sourceIpEndpoints = sourceIpClients
+            .associateWith { globalSnapshot.endpoints[it] }
+        val cached = cache.getIfPresent(group)?.takeIf { it.sourceIpEndpoints == sourceIpEndpoints }
+        return cached?.listeners ?: buildListeners(group, globalSnapshot).also {
+            cache.put(group, CachedListeners(sourceIpEndpoints, it))
+        }
+    }
+
+    private fun createListenersCache(meterRegistry: MeterRegistry): Cache<Group, CachedListeners>? {
+        val cacheProperties = snapshotProperties.dynamicListeners.cache
+        if (!cacheProperties.enabled) {
+            return null
+        }
+        if (sourceIpClients == null) {
+            logger.warn(
+                "Listeners cache is disabled, because HTTP filters don't tell clients whose endpoints they depend on"
+            )
+            return null
+        }
+        val cache = Caffeine.newBuilder()
+            .maximumSize(cacheProperties.maxSize)
+            .recordStats()
+            .build<Group, CachedListeners>()
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, LISTENERS_CACHE_METRIC)
+    }
+
+    private class CachedListeners(
+        val sourceIpEndpoints: Map<String, ClusterLoadAssignment?>,
+        val listeners: List<Listener>
+    )
+
+    private fun buildListeners(group: Group, globalSnapshot: GlobalSnapshot): List<Listener> {
         if (group.listenersConfig == null) {
             return listOf()
         }
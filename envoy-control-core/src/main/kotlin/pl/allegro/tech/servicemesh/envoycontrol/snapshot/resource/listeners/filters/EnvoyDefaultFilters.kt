@@ -51,6 +51,7 @@ class EnvoyDefaultFilters(
     val defaultRbacFilter = { group: Group, snapshot: GlobalSnapshot ->
         rbacFilterFactory.createHttpFilter(group, snapshot)
     }
+    val defaultSourceIpClients = { group: Group -> rbacFilterFactory.sourceIpClients(group) }
     val defaultRbacLoggingFilter = { group: Group, _: GlobalSnapshot ->
         luaFilterFactory.ingressRbacLoggingFilter(group)
     }
@@ -9,10 +9,13 @@ import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.routes.Ingress
 class EnvoyHttpFilters(
     val ingressFilters: List<HttpFilterFactory>,
     val egressFilters: List<HttpFilterFactory>,
-    val ingressMetadata: IngressMetadataFactory = { _: Group, _: String -> Metadata.getDefaultInstance() }
+    val ingressMetadata: IngressMetadataFactory = { _: Group, _: String -> Metadata.getDefaultInstance() },
+    // clients of a group whose endpoints from the global snapshot the ingress filters depend on, listeners aren't
+    // cached when it's unknown
+    val sourceIpClients: ((Group) -> Set<String>)? = null
 ) {
     companion object {
-        val emptyFilters = EnvoyHttpFilters(listOf(), listOf()) { _, _ -> Metadata.getDefaultInstance() }
+        val emptyFilters = EnvoyHttpFilters(listOf(), listOf(), { _, _ -> Metadata.getDefaultInstance() })
 
         fun defaultFilters(
             snapshotProperties: SnapshotProperties,
@@ -22,7 +25,8 @@ class EnvoyHttpFilters(
             return EnvoyHttpFilters(
                 defaultFilters.ingressFilters(),
                 defaultFilters.defaultEgressFilters,
-                defaultFilters.defaultIngressMetadata
+                defaultFilters.defaultIngressMetadata,
+                defaultFilters.defaultSourceIpClients
             )
         }
     }
@@ -604,6 +604,22 @@ class RBACFilterFactory(
         }
     }
 
+    /**
+     * Returns names of clients of the group authenticated by IP addresses from service discovery. The filter depends
+     * on the global snapshot only through endpoints of these services.
+     */
+    fun sourceIpClients(group: Group): Set<String> =
+        if (incomingPermissionsProperties.enabled && group.proxySettings.incoming.permissionsEnabled) {
+            val incoming = group.proxySettings.incoming
+            incoming.endpoints.asSequence()
+                .flatMap { resolveClientsWithSelectors(it, incoming.roles) }
+                .map { it.name }
+                .filter { it in incomingServicesSourceAuthentication }
+                .toSet()
+        } else {
+            emptySet()
+        }
+
     fun createHttpFilter(group: Group, snapshot: GlobalSnapshot): HttpFilter? {
         return if (incomingPermissionsProperties.enabled && group.proxySettings.incoming.permissionsEnabled) {
             val rules = getRules(
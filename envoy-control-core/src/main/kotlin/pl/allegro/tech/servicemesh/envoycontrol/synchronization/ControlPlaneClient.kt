@@ -6,4 +6,12 @@ import java.util.concurrent.CompletableFuture
 
 interface ControlPlaneClient {
     fun getState(uri: URI): CompletableFuture<ServicesState>
+
+    /**
+     * Returns changes of the state since the [since] version, or null if the state didn't change.
+     */
+    fun getStateChanges(uri: URI, since: StateVersion?): CompletableFuture<ServicesStateDelta?> =
+        getState(uri).thenApply { state ->
+            ServicesStateDelta(stateId = "", version = 0, full = true, changed = state.allInstances().toList())
+        }
 }
@@ -8,12 +8,16 @@ import pl.allegro.tech.servicemesh.envoycontrol.services.ClusterState
 import pl.allegro.tech.servicemesh.envoycontrol.services.Locality
 import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState
 import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState.Companion.toMultiClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceName
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesChanges
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
 import pl.allegro.tech.servicemesh.envoycontrol.utils.CLUSTER_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.CROSS_DC_SYNC_CANCELLED_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.CROSS_DC_SYNC_CHANGES_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.CROSS_DC_SYNC_SECONDS_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.CROSS_DC_SYNC_TOTAL_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.OPERATION_TAG
+import pl.allegro.tech.servicemesh.envoycontrol.utils.RESPONSE_TYPE_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICES_STATE_ERRORS_METRIC
 import reactor.core.publisher.Flux
 import reactor.core.publisher.FluxSink
@@ -21,19 +25,25 @@ import java.lang.Integer.max
 import java.net.URI
 import java.time.Duration
 import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 
 class RemoteServices(
     private val controlPlaneClient: ControlPlaneClient,
     private val meterRegistry: MeterRegistry,
     private val controlPlaneInstanceFetcher: ControlPlaneInstanceFetcher,
     private val remoteClusters: List<String>,
-    cacheDuration: Duration
+    cacheDuration: Duration,
+    private val deltaEnabled: Boolean = false
 ) {
     private val logger by logger()
     private val clusterStateCache = Caffeine.newBuilder().expireAfterWrite(cacheDuration).build<String, ClusterState>()
     private val scheduler = Executors.newScheduledThreadPool(max(remoteClusters.size, 1))
+    private val stateVersion = AtomicLong()
+    // versions are valid only for the instance which served them, so the same instance is asked while it's available
+    private val syncedStates = ConcurrentHashMap<String, SyncedState>()
 
     fun getChanges(interval: Long): Flux<MultiClusterState> {
         val aclFlux: Flux<MultiClusterState> = Flux.create({ sink ->
@@ -68,10 +78,16 @@ class RemoteServices(
         cluster: String,
         interval: Long
     ): CompletableFuture<ClusterState?> {
-        return controlPlaneClient.getState(chooseInstance(instances))
-            .thenApply { servicesStateFromCluster(cluster, it) }
+        val state = if (deltaEnabled) {
+            getClusterStateChanges(instances, cluster)
+        } else {
+            controlPlaneClient.getState(chooseInstance(instances))
+                .thenApply { servicesStateFromCluster(cluster, it) }
+        }
+        return state
             .orTimeout(interval, TimeUnit.SECONDS)
             .exceptionally {
+                syncedStates.remove(cluster)
                 meterRegistry.counter(
                     SERVICES_STATE_ERRORS_METRIC,
                     Tags.of(
@@ -94,6 +110,14 @@ class RemoteServices(
             }
     }
 
+    private fun getClusterStateChanges(instances: List<URI>, cluster: String): CompletableFuture<ClusterState> {
+        val syncedState = syncedStates[cluster]
+            ?.takeIf { it.instance in instances && clusterStateCache.getIfPresent(cluster) != null }
+        val instance = syncedState?.instance ?: chooseInstance(instances)
+        return controlPlaneClient.getStateChanges(instance, syncedState?.version)
+            .thenApply { servicesStateFromClusterChanges(cluster, instance, it) }
+    }
+
     private fun clusterWithControlPlaneInstances(cluster: String): Pair<String, List<URI>> {
         return try {
             val instances = controlPlaneInstanceFetcher.instances(cluster)
@@ -119,14 +143,76 @@ class RemoteServices(
             CROSS_DC_SYNC_TOTAL_METRIC, Tags.of(CLUSTER_TAG, cluster)
         )
             .increment()
-        val clusterState = ClusterState(
-            state.removeServicesWithoutInstances(),
-            Locality.REMOTE,
-            cluster
+        return clusterState(cluster, state.removeServicesWithoutInstances())
+    }
+
+    private fun servicesStateFromClusterChanges(
+        cluster: String,
+        instance: URI,
+        delta: ServicesStateDelta?
+    ): ClusterState {
+        meterRegistry.counter(
+            CROSS_DC_SYNC_TOTAL_METRIC, Tags.of(CLUSTER_TAG, cluster)
+        )
+            .increment()
+        val previous = clusterStateCache.getIfPresent(cluster)
+        val responseType = when {
+            delta == null -> "not-modified"
+            delta.full -> "full"
+            else -> "changes"
+        }
+        meterRegistry.counter(
+            CROSS_DC_SYNC_CHANGES_METRIC, Tags.of(CLUSTER_TAG, cluster, RESPONSE_TYPE_TAG, responseType)
         )
+            .increment()
+        // changes are requested only for a cached state, but it might have expired in the meantime
+        val previousServicesState = if (delta?.full == true) {
+            ServicesState()
+        } else {
+            checkNotNull(previous) { "Received changes of $cluster state, but the previous state has expired" }
+                .servicesState
+        }
+        if (delta == null) {
+            return clusterState(cluster, previousServicesState, touched = emptyList())
+        }
+
+        val withoutRemoved = delta.removed.fold(previousServicesState) { state, service -> state.remove(service) }
+        val servicesState = delta.changed.fold(withoutRemoved) { state, instances ->
+            if (instances.instances.isEmpty()) state.remove(instances.serviceName) else state.change(instances)
+        }
+        syncedStates[cluster] = SyncedState(instance, delta.stateVersion())
+        val touched = if (delta.full) null else delta.removed + delta.changed.map { it.serviceName }
+        return clusterState(cluster, servicesState, touched)
+    }
+
+    private fun clusterState(
+        cluster: String,
+        servicesState: ServicesState,
+        touched: Collection<ServiceName>? = null
+    ): ClusterState {
+        val previous = clusterStateCache.getIfPresent(cluster)
+        val previousServicesState = previous?.servicesState ?: ServicesState()
+        val changes = ServicesChanges.between(
+            previous = previousServicesState,
+            current = servicesState,
+            previousVersion = previous?.changes?.version ?: -1,
+            version = stateVersion.incrementAndGet(),
+            candidates = touched ?: servicesState.changedServicesSince(previousServicesState)
+        )
+        // the same instance is returned when nothing changed, so consumers can skip the cluster cheaply
+        val clusterState = if (previous != null && changes.isEmpty()) {
+            previous
+        } else {
+            ClusterState(servicesState, Locality.REMOTE, cluster, changes)
+        }
         clusterStateCache.put(cluster, clusterState)
         return clusterState
     }
 
     private fun chooseInstance(serviceInstances: List<URI>): URI = serviceInstances.random()
+
+    private class SyncedState(
+        val instance: URI,
+        val version: StateVersion
+    )
 }
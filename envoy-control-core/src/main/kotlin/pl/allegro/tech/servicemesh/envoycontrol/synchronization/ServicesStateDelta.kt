@@ -0,0 +1,27 @@
+package pl.allegro.tech.servicemesh.envoycontrol.synchronization
+
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceName
+
+/**
+ * Version of a services state served by a control plane instance. Versions are comparable only within the same
+ * [stateId].
+ */
+data class StateVersion(
+    val stateId: String,
+    val version: Long
+)
+
+/**
+ * Services state of a remote control plane at [version]. It's either the [full] state or only services [changed] and
+ * [removed] since the version known by the client.
+ */
+data class ServicesStateDelta(
+    val stateId: String,
+    val version: Long,
+    val full: Boolean,
+    val changed: List<ServiceInstances> = emptyList(),
+    val removed: List<ServiceName> = emptyList()
+) {
+    fun stateVersion(): StateVersion = StateVersion(stateId, version)
+}
@@ -0,0 +1,95 @@
+package pl.allegro.tech.servicemesh.envoycontrol.synchronization
+
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceName
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesChanges
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import java.util.UUID
+
+/**
+ * Versions of the local services state served to other control planes.
+ *
+ * Every change of the state gets a new version and every service remembers the version it last changed in, so changes
+ * since a version known by a client are found without keeping previous states. Only the last [maxRemovedServices]
+ * removals are remembered, older clients get the full state.
+ *
+ * Versions are valid only within [stateId], which is different for every control plane instance and restart.
+ */
+class ServicesStateHistory(
+    private val maxRemovedServices: Int = DEFAULT_MAX_REMOVED_SERVICES,
+    val stateId: String = UUID.randomUUID().toString()
+) {
+    private var state = ServicesState()
+    private var version = 0L
+    private var oldestVersion = 0L
+    private val serviceVersions = HashMap<ServiceName, Long>()
+    private val removedServices = LinkedHashMap<ServiceName, Long>()
+
+    /**
+     * Returns changes of the [current] state since the [since] version, or null if the state didn't change.
+     */
+    @Synchronized
+    fun changesSince(current: ServicesState, since: StateVersion?): ServicesStateDelta? {
+        update(current)
+        return when {
+            since == null || since.stateId != stateId -> fullState()
+            since.version < oldestVersion || since.version > version -> fullState()
+            since.version == version -> null
+            else -> changesSince(since.version)
+        }
+    }
+
+    private fun update(current: ServicesState) {
+        if (current === state) {
+            return
+        }
+        val changes = ServicesChanges.between(
+            previous = state,
+            current = current,
+            previousVersion = version,
+            version = version + 1
+        )
+        state = current
+        if (changes.isEmpty()) {
+            return
+        }
+
+        version = changes.version
+        (changes.added + changes.changed).forEach {
+            serviceVersions[it] = version
+            removedServices.remove(it)
+        }
+        changes.removed.forEach {
+            serviceVersions.remove(it)
+            removedServices[it] = version
+        }
+        val removals = removedServices.entries.iterator()
+        while (removedServices.size > maxRemovedServices) {
+            // clients which haven't seen this removal can't get changes anymore
+            oldestVersion = removals.next().value
+            removals.remove()
+        }
+    }
+
+    private fun fullState() = ServicesStateDelta(
+        stateId = stateId,
+        version = version,
+        full = true,
+        changed = state.allInstances().toList()
+    )
+
+    private fun changesSince(since: Long) = ServicesStateDelta(
+        stateId = stateId,
+        version = version,
+        full = false,
+        changed = serviceVersions.mapNotNull { (serviceName, changeVersion) ->
+            state[serviceName].takeIf { changeVersion > since }
+        },
+        removed = removedServices.mapNotNull { (serviceName, removalVersion) ->
+            serviceName.takeIf { removalVersion > since }
+        }
+    )
+
+    companion object {
+        const val DEFAULT_MAX_REMOVED_SERVICES = 10_000
+    }
+}
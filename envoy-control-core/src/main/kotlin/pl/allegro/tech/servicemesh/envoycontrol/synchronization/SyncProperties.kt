@@ -13,4 +13,5 @@ class SyncProperties {
     var envoyControlAppName = "envoy-control"
     var combineServiceChangesExperimentalFlow = false
     var blackListedRemoteClusters: Set<String> = setOf()
+    var deltaEnabled = false
 }
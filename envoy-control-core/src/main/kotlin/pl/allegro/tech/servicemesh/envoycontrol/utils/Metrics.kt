@@ -9,10 +9,15 @@ const val REACTOR_METRIC = "reactor.stream.stats"
 const val REACTOR_DISCARDED_METRIC = "reactor.stream.discarded"
 const val SERVICES_STATE_METRIC = "services.state"
 const val SERVICES_STATE_ERRORS_METRIC = "services.state.errors.total"
+const val SERVICES_STATE_COALESCED_METRIC = "services.state.coalesced.total"
+const val SERVICES_STATE_COALESCING_LATENCY_METRIC = "services.state.coalescing.latency.seconds"
+const val SERVICES_STATE_COALESCING_INTERVAL_METRIC = "services.state.coalescing.interval.seconds"
+const val SERVICES_STATE_PROPAGATION_METRIC = "services.state.propagation.seconds"
 const val SNAPSHOT_METRIC = "snapshot"
 const val SNAPSHOT_UPDATE_DURATION_METRIC = "snapshot.update.duration.seconds"
 const val SNAPSHOT_ERROR_METRIC = "snapshot.errors"
 const val SNAPSHOT_GROUP_ERROR_METRIC = "snapshot.group.errors.total"
+const val SNAPSHOT_GROUP_UPDATES_METRIC = "snapshot.group.updates.total"
 const val COMMUNICATION_MODE_ERROR_METRIC = "communication.errors.total"
 const val CONNECTIONS_METRIC = "connection.stats"
 const val REQUESTS_METRIC = "request.stats"
@@ -20,15 +25,28 @@ const val RECONNECTION_REQUESTS_METRIC = "request.reconnection.stats"
 const val WATCH_ERRORS_METRIC = "services.watch.errors.total"
 const val WATCH_METRIC = "services.watch"
 const val ENVOY_CONTROL_WARM_UP_METRIC = "envoy.control.warmup.seconds"
+const val ENVOY_CONTROL_WARM_UP_PHASE_METRIC = "envoy.control.warmup.phase.seconds"
 const val CROSS_DC_SYNC_METRIC = "cross.dc.synchronization"
 const val CROSS_DC_SYNC_CANCELLED_METRIC = "$CROSS_DC_SYNC_METRIC.cancelled.total"
 const val CROSS_DC_SYNC_SECONDS_METRIC = "$CROSS_DC_SYNC_METRIC.seconds"
 const val CROSS_DC_SYNC_TOTAL_METRIC = "$CROSS_DC_SYNC_METRIC.total"
+const val CROSS_DC_SYNC_CHANGES_METRIC = "$CROSS_DC_SYNC_METRIC.changes.total"
 const val SIMPLE_CACHE_METRIC = "simple.cache.duration.seconds"
 const val PROTOBUF_CACHE_METRIC = "protobuf.cache.serialize.time"
+const val PROTOBUF_CACHE_SAVED_BYTES_METRIC = "protobuf.cache.serialize.saved.bytes.total"
 const val CACHE_GROUP_COUNT_METRIC = "cache.groups.count"
 const val SNAPSHOT_FACTORY_SECONDS_METRIC = "snapshot.factory.seconds"
 const val CHANGE_WATCHER_METRIC = "group.change.watcher"
+const val GROUP_CHANGE_DETECTION_METRIC = "$CHANGE_WATCHER_METRIC.detection.seconds"
+const val NODE_GROUP_CACHE_METRIC = "node-group-cache"
+const val LISTENERS_CACHE_METRIC = "listeners-cache"
+const val PUSH_ADMISSION_METRIC = "push.admission"
+const val PUSH_ADMISSION_QUEUE_WAIT_METRIC = "$PUSH_ADMISSION_METRIC.queue.wait.seconds"
+const val PUSH_ADMISSION_QUEUE_SIZE_METRIC = "$PUSH_ADMISSION_METRIC.queue.size"
+const val PUSH_ADMISSION_OUTSTANDING_BYTES_METRIC = "$PUSH_ADMISSION_METRIC.outstanding.bytes"
+const val PUSH_ADMISSION_PUSHES_METRIC = "$PUSH_ADMISSION_METRIC.pushes.total"
+const val PUSH_ADMISSION_ACK_TIMEOUTS_METRIC = "$PUSH_ADMISSION_METRIC.ack.timeouts.total"
+const val LOAD_ASSIGNMENT_CACHE_METRIC = "snapshot.load.assignment.cache.gets.total"
 
 const val CONNECTION_TYPE_TAG = "connection-type"
 const val STREAM_TYPE_TAG = "stream-type"
@@ -42,3 +60,5 @@ const val SERVICE_TAG = "service"
 const val OPERATION_TAG = "operation"
 const val CLUSTER_TAG = "cluster"
 const val STATUS_TAG = "status"
+const val RESPONSE_TYPE_TAG = "response-type"
+const val PHASE_TAG = "phase"
@@ -27,20 +27,30 @@ import io.envoyproxy.controlplane.cache.v3.Snapshot;
 import io.envoyproxy.envoy.config.cluster.v3.Cluster;
 import io.envoyproxy.envoy.config.core.v3.Node;
 import io.envoyproxy.envoy.config.endpoint.v3.ClusterLoadAssignment;
+import io.envoyproxy.envoy.config.endpoint.v3.LocalityLbEndpoints;
 import io.envoyproxy.envoy.config.listener.v3.Listener;
 import io.envoyproxy.envoy.config.route.v3.RouteConfiguration;
 import io.envoyproxy.envoy.extensions.transport_sockets.tls.v3.Secret;
 import io.envoyproxy.envoy.service.discovery.v3.DeltaDiscoveryRequest;
 import io.envoyproxy.envoy.service.discovery.v3.DiscoveryRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import static org.assertj.core.api.Assertions.assertThat;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
@@ -620,6 +630,50 @@ public class SimpleCacheTest {
         assertThat(responseTracker.responses.getFirst().response.removedResources()).contains(removedClusterName);
     }
 
+    @Test
+    public void deltaWatchAtPreviousVersionShouldReceiveOnlyChangedAndRemovedResources() {
+        SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup(), shouldSendMissingEndpoints());
+        Snapshot snapshot1 = clustersSnapshot(VERSION1, cluster("cluster0", "a"), cluster("cluster1", "a"),
+                cluster("cluster2", "a"));
+        Snapshot snapshot2 = clustersSnapshot(VERSION2, cluster("cluster0", "a"), cluster("cluster1", "b"),
+                cluster("cluster3", "a"));
+        cache.setSnapshot(SingleNodeGroup.GROUP, snapshot1);
+        DeltaWatchAndTracker watchAndTracker = createDeltaWatch(cache, CLUSTER, VERSION1,
+                resourceVersions(snapshot1, CLUSTER, "cluster0", "cluster1", "cluster2"), true);
+
+        cache.setSnapshot(SingleNodeGroup.GROUP, snapshot2);
+
+        assertThat(watchAndTracker.tracker.responses).hasSize(1);
+        ResponseResources response = watchAndTracker.tracker.responses.getFirst();
+        assertThat(response.response.version()).isEqualTo(VERSION2);
+        assertThat(response.resourceVersions).containsOnlyKeys("cluster1", "cluster3");
+        assertThat(response.response.removedResources()).containsExactly("cluster2");
+    }
+
+    @Test
+    public void deltaWatchAtPreviousVersionShouldReceiveOnlyChangedTrackedResourcesForNonWildcardRequest() {
+        SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup(), shouldSendMissingEndpoints());
+        Snapshot snapshot1 = endpointsSnapshot(VERSION1, endpoints("cluster0", 1), endpoints("cluster1", 1),
+                endpoints("cluster2", 1));
+        Snapshot snapshot2 = endpointsSnapshot(VERSION2, endpoints("cluster0", 1), endpoints("cluster1", 2),
+                endpoints("cluster2", 2));
+        Map<String, String> trackedResources = resourceVersions(snapshot1, ENDPOINT, "cluster0", "cluster1");
+        cache.setSnapshot(SingleNodeGroup.GROUP, snapshot1);
+        DeltaWatchAndTracker watchAndTracker = createDeltaWatch(cache, ENDPOINT, VERSION1, trackedResources, false);
+
+        cache.setSnapshot(SingleNodeGroup.GROUP, snapshot2);
+        // a watch created after the update is responded the same way as a watch opened before it
+        DeltaWatchAndTracker lateWatchAndTracker = createDeltaWatch(cache, ENDPOINT, VERSION1, trackedResources,
+                false);
+
+        for (DeltaWatchAndTracker deltaWatchAndTracker : List.of(watchAndTracker, lateWatchAndTracker)) {
+            assertThat(deltaWatchAndTracker.tracker.responses).hasSize(1);
+            ResponseResources response = deltaWatchAndTracker.tracker.responses.getFirst();
+            assertThat(response.resourceVersions).containsOnlyKeys("cluster1");
+            assertThat(response.response.removedResources()).isEmpty();
+        }
+    }
+
     @Test
     public void groups() {
         SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup(), shouldSendMissingEndpoints());
@@ -640,6 +694,140 @@ public class SimpleCacheTest {
         assertThat(cache.groups()).containsExactly(SingleNodeGroup.GROUP);
     }
 
+    @Test
+    public void newGroupListenerIsCalledOnceWhenWatchAddsGroup() {
+        SimpleCache<String> cache = new SimpleCache<>(Node::getId, shouldSendMissingEndpoints());
+        List<String> newGroups = new ArrayList<>();
+        cache.setNewGroupListener((group, watchRequestNanos) -> newGroups.add(group));
+
+        createClusterWatch(cache, "group-1");
+        createClusterWatch(cache, "group-1");
+        createClusterWatch(cache, "group-2");
+
+        assertThat(newGroups).containsExactly("group-1", "group-2");
+        assertThat(cache.groupsCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void newGroupListenerIsCalledAgainForClearedGroup() {
+        SimpleCache<String> cache = new SimpleCache<>(Node::getId, shouldSendMissingEndpoints());
+        List<String> newGroups = new ArrayList<>();
+        cache.setNewGroupListener((group, watchRequestNanos) -> newGroups.add(group));
+
+        createClusterWatch(cache, "group-1").cancel();
+        cache.clearSnapshot("group-1");
+
+        assertThat(cache.groupsCount()).isZero();
+
+        createClusterWatch(cache, "group-1");
+
+        assertThat(newGroups).containsExactly("group-1", "group-1");
+        assertThat(cache.groupsCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void watchesOfGroupAtTheSameVersionAreRespondedWithTheSameResources() {
+        SimpleCache<String> cache = new SimpleCache<>(new SingleNodeGroup(), shouldSendMissingEndpoints());
+        cache.setSnapshot(SingleNodeGroup.GROUP, SNAPSHOT1);
+
+        // watches without version are responded on creation, the other ones wait for the next snapshot
+        List<WatchAndTracker> respondedOnCreation = IntStream.range(0, 2)
+                .mapToObj(i -> createClusterWatchAtVersion(cache, ""))
+                .collect(Collectors.toList());
+        List<WatchAndTracker> waiting = IntStream.range(0, 3)
+                .mapToObj(i -> createClusterWatchAtVersion(cache, SNAPSHOT1.version(CLUSTER_TYPE_URL)))
+                .collect(Collectors.toList());
+
+        cache.setSnapshot(SingleNodeGroup.GROUP, SNAPSHOT2);
+
+        Collection<? extends Message> snapshot1Resources = firstResponseResources(respondedOnCreation.get(0));
+        Collection<? extends Message> snapshot2Resources = firstResponseResources(waiting.get(0));
+        for (WatchAndTracker watchAndTracker : respondedOnCreation) {
+            assertThatWatchReceivesSnapshot(watchAndTracker, SNAPSHOT1);
+            assertThat(firstResponseResources(watchAndTracker)).isSameAs(snapshot1Resources);
+        }
+        for (WatchAndTracker watchAndTracker : waiting) {
+            assertThatWatchReceivesSnapshot(watchAndTracker, SNAPSHOT2);
+            assertThat(firstResponseResources(watchAndTracker)).isSameAs(snapshot2Resources);
+        }
+        assertThat(snapshot2Resources).isNotSameAs(snapshot1Resources);
+    }
+
+    private WatchAndTracker createClusterWatchAtVersion(SimpleCache<String> cache, String version) {
+        ResponseTracker responseTracker = new ResponseTracker();
+        Watch watch = cache.createWatch(ADS, XdsRequest.create(DiscoveryRequest.newBuilder()
+                        .setNode(Node.getDefaultInstance())
+                        .setTypeUrl(CLUSTER_TYPE_URL)
+                        .setVersionInfo(version)
+                        .addResourceNames(CLUSTER_NAME)
+                        .build()),
+                Set.of(CLUSTER_NAME),
+                responseTracker,
+                false,
+                false
+        );
+        return new WatchAndTracker(watch, responseTracker);
+    }
+
+    protected static Collection<? extends Message> firstResponseResources(WatchAndTracker watchAndTracker) {
+        return watchAndTracker.tracker.getResponses().getFirst().resources();
+    }
+
+    private Watch createClusterWatch(SimpleCache<String> cache, String group) {
+        return cache.createWatch(ADS, XdsRequest.create(DiscoveryRequest.newBuilder()
+                        .setNode(Node.newBuilder().setId(group))
+                        .setTypeUrl(CLUSTER_TYPE_URL)
+                        .build()),
+                Collections.emptySet(),
+                r -> {
+                },
+                false,
+                false
+        );
+    }
+
+    @Test
+    public void watchesCreatedConcurrentlyWithSnapshotUpdatesShouldReceiveLatestSnapshot() throws Exception {
+        SimpleCache<String> cache = new SimpleCache<>(Node::getId, shouldSendMissingEndpoints());
+        List<String> groups = IntStream.range(0, 200).mapToObj(i -> "group-" + i).collect(Collectors.toList());
+        groups.forEach(group -> cache.setSnapshot(group, SNAPSHOT1));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<WatchAndTracker>> watches = new ArrayList<>();
+        List<Future<?>> updates = new ArrayList<>();
+
+        try {
+            for (String group : groups) {
+                watches.add(executor.submit(() -> {
+                    ResponseTracker responseTracker = new ResponseTracker();
+                    Watch watch = cache.createWatch(
+                            ADS,
+                            XdsRequest.create(DiscoveryRequest.newBuilder()
+                                    .setNode(Node.newBuilder().setId(group))
+                                    .setTypeUrl(CLUSTER_TYPE_URL)
+                                    .setVersionInfo(VERSION1)
+                                    .build()),
+                            Collections.emptySet(),
+                            responseTracker,
+                            false,
+                            false
+                    );
+                    return new WatchAndTracker(watch, responseTracker);
+                }));
+                updates.add(executor.submit(() -> cache.setSnapshot(group, SNAPSHOT2)));
+            }
+            for (Future<?> update : updates) {
+                update.get(10, TimeUnit.SECONDS);
+            }
+
+            // a watch is either opened before the update and responded by it or sees the updated snapshot
+            for (Future<WatchAndTracker> watch : watches) {
+                assertThatWatchReceivesSnapshot(watch.get(10, TimeUnit.SECONDS), SNAPSHOT2);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     private DeltaWatchAndTracker createDeltaWatch(SimpleCache<String> cache, Resources.ResourceType resourceType, Set<String> pendingResources) {
         return createDeltaWatch(
                 cache,
@@ -673,6 +861,55 @@ public class SimpleCacheTest {
         return new DeltaWatchAndTracker(watch, responseTracker);
     }
 
+    private DeltaWatchAndTracker createDeltaWatch(SimpleCache<String> cache,
+                                                  Resources.ResourceType resourceType,
+                                                  String requesterVersion,
+                                                  Map<String, String> trackedResources,
+                                                  boolean isWildcard) {
+        DeltaResponseTracker responseTracker = new DeltaResponseTracker();
+        DeltaWatch watch = cache.createDeltaWatch(
+                DeltaXdsRequest.create(DeltaDiscoveryRequest.newBuilder()
+                        .setNode(Node.getDefaultInstance())
+                        .setTypeUrl(resourceNamesMap.get(resourceType).resourceTypeUrl)
+                        .build()),
+                requesterVersion,
+                trackedResources,
+                Collections.emptySet(),
+                isWildcard,
+                responseTracker,
+                false
+        );
+        return new DeltaWatchAndTracker(watch, responseTracker);
+    }
+
+    private static Map<String, String> resourceVersions(Snapshot snapshot,
+                                                        Resources.ResourceType resourceType,
+                                                        String... names) {
+        Map<String, VersionedResource<?>> resources = snapshot.versionedResources(resourceType);
+        return Arrays.stream(names).collect(Collectors.toMap(name -> name, name -> resources.get(name).version()));
+    }
+
+    private static Snapshot clustersSnapshot(String version, Cluster... clusters) {
+        return Snapshot.create(ImmutableList.copyOf(clusters), ImmutableList.of(), ImmutableList.of(),
+                ImmutableList.of(), ImmutableList.of(), version);
+    }
+
+    private static Snapshot endpointsSnapshot(String version, ClusterLoadAssignment... endpoints) {
+        return Snapshot.create(ImmutableList.of(), ImmutableList.copyOf(endpoints), ImmutableList.of(),
+                ImmutableList.of(), ImmutableList.of(), version);
+    }
+
+    private static Cluster cluster(String name, String altStatName) {
+        return Cluster.newBuilder().setName(name).setAltStatName(altStatName).build();
+    }
+
+    private static ClusterLoadAssignment endpoints(String clusterName, int endpoints) {
+        return ClusterLoadAssignment.newBuilder()
+                .setClusterName(clusterName)
+                .addAllEndpoints(Collections.nCopies(endpoints, LocalityLbEndpoints.getDefaultInstance()))
+                .build();
+    }
+
     private static void assertThatWatchIsOpenWithNoResponses(WatchAndTracker watchAndTracker) {
         assertThat(watchAndTracker.watch.isCancelled()).isFalse();
         assertThat(watchAndTracker.tracker.responses).isEmpty();
@@ -15,6 +15,9 @@ import org.junit.Ignore;
 import org.junit.jupiter.api.Test;
 
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -68,6 +71,41 @@ public class SimpleCacheWithMissingEndpointsTest extends SimpleCacheTest {
         assertThatWatchReceivesSnapshotWithMissingResources(new WatchAndTracker(watch, responseTracker), SNAPSHOT_WITH_MISSING_RESOURCES);
     }
 
+    @Test
+    public void watchesWithMissingNamesAreRespondedWithTheSameResources() {
+        pl.allegro.tech.servicemesh.envoycontrol.v3.SimpleCache<String> cache = new pl.allegro.tech.servicemesh.envoycontrol.v3.SimpleCache<>(new SingleNodeGroup(), shouldSendMissingEndpoints());
+
+        cache.setSnapshot(SingleNodeGroup.GROUP, MULTIPLE_RESOURCES_SNAPSHOT2);
+
+        List<WatchAndTracker> watches = IntStream.range(0, 2)
+                .mapToObj(i -> createEndpointsWatchWithMissingName(cache))
+                .collect(Collectors.toList());
+
+        for (WatchAndTracker watchAndTracker : watches) {
+            assertThatWatchReceivesSnapshotWithMissingResources(watchAndTracker, SNAPSHOT_WITH_MISSING_RESOURCES);
+        }
+        assertThat(firstResponseResources(watches.get(1))).isSameAs(firstResponseResources(watches.get(0)));
+    }
+
+    private static WatchAndTracker createEndpointsWatchWithMissingName(
+            pl.allegro.tech.servicemesh.envoycontrol.v3.SimpleCache<String> cache) {
+        ResponseTracker responseTracker = new ResponseTracker();
+        Watch watch = cache.createWatch(
+                true,
+                XdsRequest.create(DiscoveryRequest.newBuilder()
+                        .setNode(Node.getDefaultInstance())
+                        .setTypeUrl(Resources.V3.ENDPOINT_TYPE_URL)
+                        .addResourceNames("none")
+                        .addResourceNames(CLUSTER_NAME)
+                        .build()),
+                Collections.emptySet(),
+                responseTracker,
+                false,
+                false
+        );
+        return new WatchAndTracker(watch, responseTracker);
+    }
+
     private static void assertThatWatchReceivesSnapshotWithMissingResources(WatchAndTracker watchAndTracker, Snapshot snapshot) {
         assertThat(watchAndTracker.tracker.getResponses()).isNotEmpty();
 
@@ -21,6 +21,13 @@ import pl.allegro.tech.servicemesh.envoycontrol.groups.PathNormalizationPolicy
 import pl.allegro.tech.servicemesh.envoycontrol.groups.ProxySettings
 import pl.allegro.tech.servicemesh.envoycontrol.groups.ServicesGroup
 import pl.allegro.tech.servicemesh.envoycontrol.groups.with
+import pl.allegro.tech.servicemesh.envoycontrol.services.ClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.services.Locality
+import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState.Companion.toMultiClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstance
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.ClusterConfiguration
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.EnvoySnapshotFactory
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.GlobalSnapshot
 import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
@@ -51,6 +58,7 @@ import pl.allegro.tech.servicemesh.envoycontrol.utils.createCluster
 import pl.allegro.tech.servicemesh.envoycontrol.utils.createClusterConfigurations
 import pl.allegro.tech.servicemesh.envoycontrol.utils.createEndpoints
 import pl.allegro.tech.servicemesh.envoycontrol.utils.zoneWeights
+import java.util.concurrent.ConcurrentHashMap
 
 class EnvoySnapshotFactoryTest {
     companion object {
@@ -320,6 +328,33 @@ class EnvoySnapshotFactoryTest {
             }
     }
 
+    @Test
+    fun `should share weighted load assignments between groups`() {
+        // given
+        val envoySnapshotFactory = createSnapshotFactory(SNAPSHOT_PROPERTIES_WITH_WEIGHTS)
+        val cluster1 = createCluster(SNAPSHOT_PROPERTIES_WITH_WEIGHTS, clusterName = DEFAULT_SERVICE_NAME)
+        val cluster2 = createCluster(SNAPSHOT_PROPERTIES_WITH_WEIGHTS, clusterName = SERVICE_NAME_2)
+        val group = createServicesGroup(
+            dependencies = arrayOf(SERVICE_NAME_2 to null),
+            snapshotProperties = SNAPSHOT_PROPERTIES_WITH_WEIGHTS
+        )
+        val otherGroup = createServicesGroup(
+            discoveryServiceName = "other-discovery-service",
+            dependencies = arrayOf(SERVICE_NAME_2 to null),
+            snapshotProperties = SNAPSHOT_PROPERTIES_WITH_WEIGHTS
+        )
+        val globalSnapshot = createGlobalSnapshot(cluster1, cluster2)
+
+        // when
+        val snapshot = envoySnapshotFactory.getSnapshotForGroup(group, globalSnapshot)
+        val otherSnapshot = envoySnapshotFactory.getSnapshotForGroup(otherGroup, globalSnapshot)
+
+        // then
+        assertThat(otherSnapshot.endpoints().resources()[SERVICE_NAME_2])
+            .isNotSameAs(globalSnapshot.endpoints[SERVICE_NAME_2])
+            .isSameAs(snapshot.endpoints().resources()[SERVICE_NAME_2])
+    }
+
     @Test
     fun `should not set weight to locality lb endpoints when there are no matching weight settings`() {
         val defaultProperties = SNAPSHOT_PROPERTIES_WITH_WEIGHTS.also {
@@ -408,6 +443,73 @@ class EnvoySnapshotFactoryTest {
         assertThat(snapshot.endpoints().resources()).doesNotContainKey("rl_service")
     }
 
+    @Test
+    fun `should reuse clusters and load assignments of services which did not change`() {
+        // given
+        val envoySnapshotFactory = createSnapshotFactory(SnapshotProperties())
+        val clusterConfigurations = mapOf(
+            DEFAULT_SERVICE_NAME to ClusterConfiguration(DEFAULT_SERVICE_NAME, http2Enabled = false),
+            SERVICE_NAME_2 to ClusterConfiguration(SERVICE_NAME_2, http2Enabled = false)
+        )
+        val previousState = servicesState(
+            serviceInstances(DEFAULT_SERVICE_NAME, "127.0.0.1"),
+            serviceInstances(SERVICE_NAME_2, "127.0.0.2")
+        )
+        val currentState = previousState.change(serviceInstances(SERVICE_NAME_2, "127.0.0.3"))
+        val previous = envoySnapshotFactory.newSnapshot(
+            ClusterState(previousState, Locality.LOCAL, CURRENT_ZONE).toMultiClusterState(),
+            clusterConfigurations,
+            CommunicationMode.ADS
+        )
+
+        // when
+        val current = envoySnapshotFactory.newSnapshot(
+            ClusterState(currentState, Locality.LOCAL, CURRENT_ZONE).toMultiClusterState(),
+            clusterConfigurations + (SERVICE_NAME_2 to ClusterConfiguration(SERVICE_NAME_2, http2Enabled = true)),
+            CommunicationMode.ADS
+        )
+
+        // then
+        assertThat(current.clusters[DEFAULT_SERVICE_NAME]).isSameAs(previous.clusters[DEFAULT_SERVICE_NAME])
+        assertThat(current.clusters[SERVICE_NAME_2]).isNotSameAs(previous.clusters[SERVICE_NAME_2])
+        assertThat(current.endpoints[DEFAULT_SERVICE_NAME]).isSameAs(previous.endpoints[DEFAULT_SERVICE_NAME])
+        assertThat(current.endpoints[SERVICE_NAME_2]).isNotEqualTo(previous.endpoints[SERVICE_NAME_2])
+        assertThat(current.clusters.keys).containsExactly(DEFAULT_SERVICE_NAME, SERVICE_NAME_2)
+    }
+
+    @Test
+    fun `should reuse load assignments when services state is the same`() {
+        // given
+        val envoySnapshotFactory = createSnapshotFactory(SnapshotProperties())
+        val clusterConfigurations = mapOf(
+            DEFAULT_SERVICE_NAME to ClusterConfiguration(DEFAULT_SERVICE_NAME, http2Enabled = false)
+        )
+        val state = servicesState(serviceInstances(DEFAULT_SERVICE_NAME, "127.0.0.1"))
+        val previous = envoySnapshotFactory.newSnapshot(
+            ClusterState(state, Locality.LOCAL, CURRENT_ZONE).toMultiClusterState(),
+            clusterConfigurations,
+            CommunicationMode.ADS
+        )
+
+        // when
+        val current = envoySnapshotFactory.newSnapshot(
+            ClusterState(state, Locality.LOCAL, CURRENT_ZONE).toMultiClusterState(),
+            clusterConfigurations,
+            CommunicationMode.ADS
+        )
+
+        // then
+        assertThat(current.endpoints[DEFAULT_SERVICE_NAME]).isSameAs(previous.endpoints[DEFAULT_SERVICE_NAME])
+    }
+
+    private fun servicesState(vararg serviceInstances: ServiceInstances) =
+        ServicesState(ConcurrentHashMap(serviceInstances.associateBy { it.serviceName }))
+
+    private fun serviceInstances(serviceName: String, address: String) = ServiceInstances(
+        serviceName,
+        setOf(ServiceInstance(id = "$serviceName-$address", tags = emptySet(), address = address, port = 1234))
+    )
+
     private fun GlobalSnapshot.withEndpoint(clusterName: String): GlobalSnapshot = copy(
         endpoints = SnapshotResources.create<ClusterLoadAssignment>(
             listOf(
@@ -487,8 +589,8 @@ class EnvoySnapshotFactoryTest {
         val ingressRoutesFactory = EnvoyIngressRoutesFactory(
             SnapshotProperties(),
             EnvoyHttpFilters(
-                emptyList(), emptyList()
-            ) { _, _ -> Metadata.getDefaultInstance() },
+                emptyList(), emptyList(), { _, _ -> Metadata.getDefaultInstance() }
+            ),
             CURRENT_ZONE
         )
         val egressRoutesFactory = EnvoyEgressRoutesFactory(properties)
@@ -5,6 +5,7 @@ import com.google.protobuf.Value
 import com.google.protobuf.util.Durations
 import io.envoyproxy.envoy.config.accesslog.v3.ComparisonFilter
 import io.grpc.Status
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.jupiter.api.Assertions.assertFalse
 import org.junit.jupiter.api.Assertions.assertTrue
@@ -364,6 +365,57 @@ class MetadataNodeGroupTest {
         assertThat(group.listenersConfig!!.accessLogFilterSettings.statusCodeFilterSettings).isNull()
     }
 
+    @Test
+    fun `should return the same group for nodes with equal metadata`() {
+        // given
+        val meterRegistry = SimpleMeterRegistry()
+        val nodeGroup = MetadataNodeGroup(createSnapshotProperties(outgoingPermissions = true), meterRegistry)
+        val node = nodeV3(serviceDependencies = setOf("a", "b", "c"), ads = true)
+        val otherNode = nodeV3(serviceDependencies = setOf("a", "b", "c"), ads = true).toBuilder().setId("other").build()
+
+        // when
+        val group = nodeGroup.hash(node)
+        val otherGroup = nodeGroup.hash(otherNode)
+
+        // then
+        assertThat(otherGroup).isSameAs(group)
+        assertThat(meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1.0)
+        assertThat(meterRegistry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1.0)
+    }
+
+    @Test
+    fun `should return the same group for nodes with equal metadata when node group cache is disabled`() {
+        // given
+        val properties = createSnapshotProperties(outgoingPermissions = true)
+        properties.nodeGroupCache.enabled = false
+        val nodeGroup = MetadataNodeGroup(properties)
+        val node = nodeV3(serviceDependencies = setOf("a", "b", "c"), ads = true)
+
+        // when
+        val group = nodeGroup.hash(node)
+        val otherGroup = nodeGroup.hash(node)
+
+        // then
+        assertThat(otherGroup).isSameAs(group)
+    }
+
+    @Test
+    fun `should return the same group for nodes with different metadata of equal groups`() {
+        // given
+        val nodeGroup = MetadataNodeGroup(createSnapshotProperties(outgoingPermissions = true))
+        val node = nodeV3(serviceDependencies = setOf("a", "b"), ads = true)
+        val otherNode = node.toBuilder()
+            .apply { metadataBuilder.putFields("not_used_by_groups", Value.newBuilder().setBoolValue(true).build()) }
+            .build()
+
+        // when
+        val group = nodeGroup.hash(node)
+        val otherGroup = nodeGroup.hash(otherNode)
+
+        // then
+        assertThat(otherGroup).isSameAs(group)
+    }
+
     @Test
     fun `should correctly compare envoy version`() {
         // given
@@ -0,0 +1,73 @@
+package pl.allegro.tech.servicemesh.envoycontrol.groups
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.catchThrowable
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
+
+class NodeMetadataCacheTest {
+
+    private val cache = NodeMetadataCache(SnapshotProperties())
+    private var validations = 0
+
+    @Test
+    fun `should share metadata parsed for validation with node group`() {
+        // given
+        val metadata = nodeV3(serviceName = "service-1").metadata
+
+        // when
+        val validated = cache.validated(streamId = 1, metadata) { validations++ }
+
+        // then
+        assertThat(cache.get(metadata)).isSameAs(validated)
+    }
+
+    @Test
+    fun `should not validate metadata re-sent on the same stream again`() {
+        // given
+        val validated = cache.validated(streamId = 1, nodeV3(serviceName = "service-1").metadata) { validations++ }
+        val resent = nodeV3(serviceName = "service-1").metadata
+
+        // when
+        val revalidated = cache.validated(streamId = 1, resent) { validations++ }
+
+        // then
+        assertThat(revalidated).isSameAs(validated)
+        assertThat(cache.get(resent)).isSameAs(validated)
+        assertThat(validations).isEqualTo(1)
+    }
+
+    @Test
+    fun `should validate changed metadata and metadata of other streams`() {
+        // given
+        cache.validated(streamId = 1, nodeV3(serviceName = "service-1").metadata) { validations++ }
+
+        // when
+        cache.validated(streamId = 1, nodeV3(serviceName = "service-2").metadata) { validations++ }
+        cache.validated(streamId = 2, nodeV3(serviceName = "service-2").metadata) { validations++ }
+        cache.streamClosed(streamId = 2)
+        cache.validated(streamId = 2, nodeV3(serviceName = "service-2").metadata) { validations++ }
+
+        // then
+        assertThat(validations).isEqualTo(4)
+    }
+
+    @Test
+    fun `should reject invalid metadata on every request`() {
+        // given
+        val metadata = nodeV3(serviceName = "service-1").metadata
+        val invalid: (NodeMetadata) -> Unit = {
+            validations++
+            throw ServiceNameNotProvidedException()
+        }
+
+        // when
+        val first = catchThrowable { cache.validated(streamId = 1, metadata, invalid) }
+        val second = catchThrowable { cache.validated(streamId = 1, metadata, invalid) }
+
+        // then
+        assertThat(first).isInstanceOf(ServiceNameNotProvidedException::class.java)
+        assertThat(second).isInstanceOf(ServiceNameNotProvidedException::class.java)
+        assertThat(validations).isEqualTo(2)
+    }
+}
@@ -0,0 +1,260 @@
+package pl.allegro.tech.servicemesh.envoycontrol.server
+
+import io.envoyproxy.controlplane.cache.Resources
+import io.envoyproxy.controlplane.cache.Response
+import io.envoyproxy.controlplane.cache.XdsRequest
+import io.envoyproxy.envoy.config.cluster.v3.Cluster
+import io.envoyproxy.envoy.config.core.v3.Node
+import io.envoyproxy.envoy.service.discovery.v3.DiscoveryRequest
+import io.envoyproxy.envoy.service.discovery.v3.DiscoveryResponse
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PUSH_ADMISSION_ACK_TIMEOUTS_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PUSH_ADMISSION_PUSHES_METRIC
+import reactor.test.scheduler.VirtualTimeScheduler
+import java.time.Duration
+import java.util.function.Consumer
+
+class PushAdmissionTest {
+
+    private val meterRegistry = SimpleMeterRegistry()
+    private val scheduler = VirtualTimeScheduler.create()
+    private val sent = mutableListOf<DiscoveryRequest>()
+
+    @Test
+    fun `should queue initial pushes above concurrency limit until previous ones are acknowledged`() {
+        // given
+        val admission = pushAdmission(maxConcurrentPushes = 2)
+        val requests = (0L until 4L).map { stream -> initialRequest(admission, stream) }
+
+        // when
+        requests.forEachIndexed { stream, request -> respond(admission, stream.toLong(), request) }
+
+        // then
+        assertThat(sent).containsExactly(requests[0], requests[1])
+
+        // when
+        acknowledge(admission, streamId = 1)
+
+        // then
+        assertThat(sent).containsExactly(requests[0], requests[1], requests[2])
+        assertThat(meterRegistry.counter(PUSH_ADMISSION_PUSHES_METRIC).count()).isEqualTo(3.0)
+    }
+
+    @Test
+    fun `should keep sent push outstanding until Envoy answers it`() {
+        // given
+        val admission = pushAdmission(maxConcurrentPushes = 1)
+        val first = initialRequest(admission, streamId = 1)
+        val second = initialRequest(admission, streamId = 2)
+        respond(admission, 1, first)
+
+        // when
+        respond(admission, 2, second)
+
+        // then
+        assertThat(sent).containsExactly(first)
+
+        // when
+        acknowledge(admission, streamId = 1, nonce = "other")
+
+        // then
+        assertThat(sent).containsExactly(first)
+
+        // when
+        acknowledge(admission, streamId = 1)
+
+        // then
+        assertThat(sent).containsExactly(first, second)
+    }
+
+    @Test
+    fun `should release push which isn't answered within ack timeout`() {
+        // given
+        val admission = pushAdmission(maxConcurrentPushes = 1)
+        val first = initialRequest(admission, streamId = 1)
+        val second = initialRequest(admission, streamId = 2)
+        respond(admission, 1, first)
+        respond(admission, 2, second)
+
+        // when
+        scheduler.advanceTimeBy(Duration.ofSeconds(30))
+
+        // then
+        assertThat(sent).containsExactly(first, second)
+        assertThat(meterRegistry.counter(PUSH_ADMISSION_ACK_TIMEOUTS_METRIC).count()).isEqualTo(1.0)
+    }
+
+    @Test
+    fun `should queue initial pushes above outstanding bytes limit but admit at least one`() {
+        // given
+        val admission = pushAdmission(maxOutstandingBytes = 1)
+        val requests = (0L until 2L).map { stream -> initialRequest(admission, stream) }
+
+        // when
+        requests.forEachIndexed { stream, request -> respond(admission, stream.toLong(), request) }
+
+        // then
+        assertThat(sent).containsExactly(requests[0])
+
+        // when
+        acknowledge(admission, streamId = 0)
+
+        // then
+        assertThat(sent).containsExactly(requests[0], requests[1])
+    }
+
+    @Test
+    fun `should not pace responses to subsequent requests of a stream`() {
+        // given
+        val admission = pushAdmission(maxConcurrentPushes = 1)
+        val initial = initialRequest(admission, streamId = 1)
+        respond(admission, 1, initial)
+        val subsequent = acknowledge(admission, streamId = 1)
+
+        // when
+        respond(admission, 1, subsequent)
+
+        // then
+        assertThat(sent).containsExactly(initial, subsequent)
+    }
+
+    @Test
+    fun `should drop queued push superseded by next request of the stream`() {
+        // given
+        val admission = pushAdmission(maxConcurrentPushes = 1)
+        val first = initialRequest(admission, streamId = 1)
+        val superseded = initialRequest(admission, streamId = 2)
+        respond(admission, 1, first)
+        respond(admission, 2, superseded)
+
+        // when
+        val latest = request(streamId = 2, version = "", resourceName = "cluster-2")
+        admission.requested(2, latest)
+        respond(admission, 2, latest)
+
+        // then
+        assertThat(sent).containsExactly(first)
+
+        // when
+        acknowledge(admission, streamId = 1)
+
+        // then
+        assertThat(sent).containsExactly(first, latest)
+    }
+
+    @Test
+    fun `should serve queued pushes round-robin across streams`() {
+        // given
+        val admission = pushAdmission(maxConcurrentPushes = 1)
+        val first = initialRequest(admission, streamId = 0)
+        val clusters = initialRequest(admission, streamId = 1)
+        val listeners = request(streamId = 1, version = "", typeUrl = Resources.V3.LISTENER_TYPE_URL)
+            .also { admission.requested(1, it) }
+        val otherClusters = initialRequest(admission, streamId = 2)
+        respond(admission, 0, first)
+        respond(admission, 1, clusters)
+        respond(admission, 1, listeners)
+        respond(admission, 2, otherClusters)
+
+        // when
+        acknowledge(admission, streamId = 0)
+        acknowledge(admission, streamId = 1)
+        acknowledge(admission, streamId = 2)
+
+        // then
+        assertThat(sent).containsExactly(first, clusters, otherClusters, listeners)
+    }
+
+    @Test
+    fun `should release pushes of closed stream and drop its queued pushes`() {
+        // given
+        val admission = pushAdmission(maxConcurrentPushes = 1)
+        val first = initialRequest(admission, streamId = 1)
+        val closed = initialRequest(admission, streamId = 2)
+        val last = initialRequest(admission, streamId = 3)
+        respond(admission, 1, first)
+        respond(admission, 2, closed)
+        respond(admission, 3, last)
+
+        // when
+        admission.streamClosed(2)
+        admission.streamClosed(1)
+
+        // then
+        assertThat(sent).containsExactly(first, last)
+    }
+
+    @Test
+    fun `should send queued pushes released while sending without recursion`() {
+        // given
+        val admission = pushAdmission(maxConcurrentPushes = 1)
+        val requests = (0L until 1000L).map { stream -> initialRequest(admission, stream) }
+        respond(admission, 0, requests[0])
+        requests.drop(1).forEachIndexed { index, request ->
+            val stream = index + 1L
+            respond(admission, stream, request) { acknowledge(admission, stream) }
+        }
+
+        // when
+        acknowledge(admission, streamId = 0)
+
+        // then
+        assertThat(sent).containsExactlyElementsOf(requests)
+    }
+
+    private fun pushAdmission(maxConcurrentPushes: Int = 100, maxOutstandingBytes: Long = Long.MAX_VALUE) =
+        PushAdmission(
+            PushAdmissionProperties().also {
+                it.enabled = true
+                it.maxConcurrentPushes = maxConcurrentPushes
+                it.maxOutstandingBytes = maxOutstandingBytes
+                it.ackTimeout = Duration.ofSeconds(30)
+            },
+            meterRegistry,
+            scheduler
+        )
+
+    private fun initialRequest(admission: PushAdmission, streamId: Long): DiscoveryRequest =
+        request(streamId, version = "").also { admission.requested(streamId, it) }
+
+    private fun acknowledge(admission: PushAdmission, streamId: Long, nonce: String = "$streamId"): DiscoveryRequest =
+        request(streamId, version = "1", nonce = nonce).also { admission.requested(streamId, it) }
+
+    private fun request(
+        streamId: Long,
+        version: String,
+        nonce: String = "",
+        typeUrl: String = Resources.V3.CLUSTER_TYPE_URL,
+        resourceName: String = "cluster"
+    ): DiscoveryRequest = DiscoveryRequest.newBuilder()
+        .setNode(Node.newBuilder().setId("envoy-$streamId"))
+        .setTypeUrl(typeUrl)
+        .setVersionInfo(version)
+        .setResponseNonce(nonce)
+        .addResourceNames(resourceName)
+        .build()
+
+    /**
+     * Responds to the request like the discovery server, which sends the response with the nonce of the stream id.
+     */
+    private fun respond(
+        admission: PushAdmission,
+        streamId: Long,
+        request: DiscoveryRequest,
+        onSent: () -> Unit = {}
+    ) {
+        val consumer = admission.admitted(request, Consumer {
+            sent.add(request)
+            admission.sent(
+                streamId,
+                DiscoveryResponse.newBuilder().setTypeUrl(request.typeUrl).setNonce("$streamId").build()
+            )
+            onSent()
+        })
+        consumer.accept(
+            Response.create(XdsRequest.create(request), listOf(Cluster.newBuilder().setName("cluster").build()), "1")
+        )
+    }
+}
@@ -0,0 +1,60 @@
+package pl.allegro.tech.servicemesh.envoycontrol.server
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ShardedExecutorGroupTest {
+
+    private val shards: List<ExecutorService> = (0 until 4).map { Executors.newFixedThreadPool(1) }
+
+    @AfterEach
+    fun shutdown() {
+        shards.forEach { it.shutdownNow() }
+    }
+
+    @Test
+    fun `should pin consecutive streams to consecutive shards`() {
+        // given
+        val group = ShardedExecutorGroup(shards)
+
+        // when
+        val executors = (0 until 8).map { group.next() }
+
+        // then
+        assertThat(executors).containsExactlyElementsOf(shards + shards)
+    }
+
+    @Test
+    fun `should run tasks of a stream in order`() {
+        // given
+        val group = ShardedExecutorGroup(shards)
+        val streams = (0 until 8).map { group.next() }
+        val executed = streams.map { Collections.synchronizedList(mutableListOf<Int>()) }
+        val done = CountDownLatch(streams.size * TASKS_PER_STREAM)
+
+        // when
+        (0 until TASKS_PER_STREAM).forEach { task ->
+            streams.forEachIndexed { stream, executor: Executor ->
+                executor.execute {
+                    executed[stream].add(task)
+                    done.countDown()
+                }
+            }
+        }
+
+        // then
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue()
+        executed.forEach { assertThat(it).containsExactlyElementsOf(0 until TASKS_PER_STREAM) }
+    }
+
+    private companion object {
+        const val TASKS_PER_STREAM = 1000
+    }
+}
@@ -0,0 +1,118 @@
+package pl.allegro.tech.servicemesh.envoycontrol.snapshot
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.services.ClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.services.Locality
+import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICES_STATE_COALESCED_METRIC
+import reactor.core.publisher.Sinks
+import reactor.test.scheduler.VirtualTimeScheduler
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+
+class ServicesStateCoalescerTest {
+
+    private val scheduler = VirtualTimeScheduler.create()
+    private val meterRegistry = SimpleMeterRegistry()
+    private val coalescer = ServicesStateCoalescer(
+        minInterval = Duration.ofSeconds(1),
+        maxLatency = Duration.ofSeconds(5),
+        meterRegistry = meterRegistry,
+        scheduler = scheduler
+    )
+    private val states = Sinks.many().unicast().onBackpressureBuffer<MultiClusterState>()
+    private val emitted = CopyOnWriteArrayList<MultiClusterState>()
+    private var clusters = 0
+
+    init {
+        coalescer.coalesce(states.asFlux()).subscribe { emitted.add(it) }
+    }
+
+    @Test
+    fun `should emit only the latest state of a burst once per interval`() {
+        // given
+        val first = state()
+        val second = state()
+        val third = state()
+
+        // when
+        states.tryEmitNext(first)
+        scheduler.advanceTime()
+        states.tryEmitNext(second)
+        states.tryEmitNext(third)
+        scheduler.advanceTimeBy(Duration.ofMillis(999))
+
+        // then
+        assertThat(emitted).containsExactly(first)
+
+        // when
+        scheduler.advanceTimeBy(Duration.ofMillis(1))
+
+        // then
+        assertThat(emitted).containsExactly(first, third)
+        assertThat(meterRegistry.counter(SERVICES_STATE_COALESCED_METRIC).count()).isEqualTo(1.0)
+    }
+
+    @Test
+    fun `should widen interval when rebuild takes longer than the interval`() {
+        // given
+        states.tryEmitNext(state())
+        scheduler.advanceTime()
+        coalescer.rebuildFinished(Duration.ofSeconds(3))
+        val next = state()
+
+        // when
+        states.tryEmitNext(next)
+        scheduler.advanceTimeBy(Duration.ofMillis(2999))
+
+        // then
+        assertThat(emitted).hasSize(1)
+
+        // when
+        scheduler.advanceTimeBy(Duration.ofMillis(1))
+
+        // then
+        assertThat(emitted).hasSize(2).last().isSameAs(next)
+    }
+
+    @Test
+    fun `should not delay states more than max latency`() {
+        // given
+        states.tryEmitNext(state())
+        scheduler.advanceTime()
+        coalescer.rebuildFinished(Duration.ofSeconds(60))
+        val next = state()
+
+        // when
+        states.tryEmitNext(next)
+        scheduler.advanceTimeBy(Duration.ofSeconds(5))
+
+        // then
+        assertThat(emitted).hasSize(2).last().isSameAs(next)
+    }
+
+    @Test
+    fun `should return receive time of the first coalesced state only for the last emitted state`() {
+        // given
+        val first = state()
+        val second = state()
+        states.tryEmitNext(first)
+        scheduler.advanceTime()
+        val firstReceivedAt = coalescer.receivedAt(first)
+
+        // when
+        scheduler.advanceTimeBy(Duration.ofSeconds(2))
+        states.tryEmitNext(second)
+        scheduler.advanceTime()
+
+        // then
+        assertThat(firstReceivedAt).isEqualTo(0L)
+        assertThat(coalescer.receivedAt(first)).isNull()
+        assertThat(coalescer.receivedAt(second)).isEqualTo(Duration.ofSeconds(2).toNanos())
+    }
+
+    private fun state() = MultiClusterState(ClusterState(ServicesState(), Locality.LOCAL, "dc${++clusters}"))
+}
@@ -62,6 +62,8 @@ import pl.allegro.tech.servicemesh.envoycontrol.utils.ParallelScheduler
 import pl.allegro.tech.servicemesh.envoycontrol.utils.ParallelizableScheduler
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICE_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SNAPSHOT_GROUP_ERROR_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.SNAPSHOT_GROUP_UPDATES_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.STATUS_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.any
 import reactor.core.publisher.Flux
 import reactor.core.publisher.Mono
@@ -795,6 +797,43 @@ class SnapshotUpdaterTest {
             .hasOnlyClustersFor("existingService2")
     }
 
+    @Test
+    fun `should rebuild only snapshots of groups depending on changed services`() {
+        // given
+        val cache = SetSnapshotCountingMockCache()
+        val groupOfS1 = groupOf(services = serviceDependencies("s1"))
+        val groupOfS2 = groupOf(services = serviceDependencies("s2"))
+        val allServicesGroup = AllServicesGroup(communicationMode = XDS)
+        listOf(groupOfS1, groupOfS2, allServicesGroup).forEach {
+            cache.groups[it] = uninitializedSnapshot
+        }
+        val updater = snapshotUpdater(
+            cache = cache,
+            properties = SnapshotProperties().apply {
+                incrementalGroupUpdates.enabled = true
+                enabledCommunicationModes.ads = false
+                egress.neverRemoveClusters = false
+            }
+        )
+
+        // when
+        updater.start(
+            fluxOfServices(arrayOf("s1", "s2"), arrayOf("s1", "s2", "s3"), arrayOf("s2", "s3"))
+        ).collectList().block()
+
+        // then
+        assertThat(cache.setSnapshotInvocations[groupOfS1]).isEqualTo(2)
+        assertThat(cache.setSnapshotInvocations[groupOfS2]).isEqualTo(1)
+        assertThat(cache.setSnapshotInvocations[allServicesGroup]).isEqualTo(3)
+        hasSnapshot(cache, groupOfS1).hasOnlyClustersFor()
+        hasSnapshot(cache, groupOfS2).hasOnlyClustersFor("s2")
+        hasSnapshot(cache, allServicesGroup).hasOnlyClustersFor("s2", "s3")
+        assertThat(simpleMeterRegistry.counter(SNAPSHOT_GROUP_UPDATES_METRIC, STATUS_TAG, "rebuilt").count())
+            .isEqualTo(6.0)
+        assertThat(simpleMeterRegistry.counter(SNAPSHOT_GROUP_UPDATES_METRIC, STATUS_TAG, "skipped").count())
+            .isEqualTo(3.0)
+    }
+
     @Test
     fun `should generate group snapshots with tcpProxy`() {
         val cache = MockCache()
@@ -1105,6 +1144,15 @@ class SnapshotUpdaterTest {
 
     class FailingMockCacheException : RuntimeException()
 
+    class SetSnapshotCountingMockCache : MockCache() {
+        val setSnapshotInvocations = ConcurrentHashMap<Group, Int>()
+
+        override fun setSnapshot(group: Group, snapshot: Snapshot?) {
+            setSnapshotInvocations.merge(group, 1) { previous, one -> previous + one }
+            super.setSnapshot(group, snapshot)
+        }
+    }
+
     open class MockCache : SnapshotCache<Group, Snapshot> {
         val groups: MutableMap<Group, Snapshot?> = mutableMapOf()
         private var concurrentSetSnapshotCounter: CountDownLatch? = null
@@ -103,6 +103,53 @@ internal class SnapshotsVersionsTest {
         assertThat(version).isNotEqualTo(newVersion)
     }
 
+    @Test
+    fun `should return same version for equal resources when digest is enabled`() {
+        // given
+        val digestSnapshotsVersions = SnapshotsVersions(digestEnabled = true)
+        val version = digestSnapshotsVersions.version(group, clusters, endpoints)
+
+        // when
+        val newVersion = digestSnapshotsVersions.version(
+            group,
+            listOf(cluster(name = "service1")),
+            listOf(endpoints(clusterName = "service1", instances = 1))
+        )
+
+        // then
+        assertThat(newVersion).isEqualTo(version)
+    }
+
+    @Test
+    fun `should generate new version only for endpoints when they are different and digest is enabled`() {
+        // given
+        val digestSnapshotsVersions = SnapshotsVersions(digestEnabled = true)
+        val versions = digestSnapshotsVersions.version(group, clusters, endpoints)
+
+        // when
+        val newEndpoints = listOf(endpoints(clusterName = "service1", instances = 2))
+        val newVersions = digestSnapshotsVersions.version(group, clusters, newEndpoints)
+
+        // then
+        assertThat(newVersions.clusters).isEqualTo(versions.clusters)
+        assertThat(newVersions.endpoints).isNotEqualTo(versions.endpoints)
+    }
+
+    @Test
+    fun `should generate new version for clusters and endpoints when clusters are different and digest is enabled`() {
+        // given
+        val digestSnapshotsVersions = SnapshotsVersions(digestEnabled = true)
+        val versions = digestSnapshotsVersions.version(group, clusters, endpoints)
+
+        // when
+        val newClusters = listOf(cluster(name = "service1"), cluster(name = "service2"))
+        val newVersions = digestSnapshotsVersions.version(group, newClusters, endpoints)
+
+        // then
+        assertThat(newVersions.endpoints).isNotEqualTo(versions.endpoints)
+        assertThat(newVersions.clusters).isNotEqualTo(versions.clusters)
+    }
+
     private fun cluster(name: String): Cluster {
         return Cluster.newBuilder()
             .setName(name)
@@ -440,6 +440,81 @@ internal class EnvoyEndpointsFactoryTest {
         )
     }
 
+    @Test
+    fun `should reuse load assignments of services which did not change`() {
+        // given
+        val previous = endpointsFactory.createLoadAssignment(setOf(serviceName), multiClusterStateDC1Local)
+            .associateBy { it.clusterName }
+        val otherService = "service-two"
+        val state = MultiClusterState(clusterState(cluster = "DC1", serviceName = otherService))
+
+        // when
+        val loadAssignments = endpointsFactory.createLoadAssignment(
+            clusters = setOf(serviceName, otherService),
+            multiClusterState = state,
+            previousLoadAssignments = previous,
+            changedServices = setOf(otherService)
+        ).associateBy { it.clusterName }
+
+        // then
+        assertThat(loadAssignments[serviceName]).isSameAs(previous[serviceName])
+        assertThat(loadAssignments[otherService]!!.endpointsList.flatMap { it.lbEndpointsList }).hasSize(1)
+    }
+
+    @Test
+    fun `should filter endpoints by service tag index the same way as by endpoints metadata`() {
+        // given
+        val instances = listOf(
+            setOf("lorem", "x64"), setOf("lorem"), setOf("ipsum"), setOf("lorem", "ipsum"), emptySet()
+        ).mapIndexed { i, tags ->
+            ServiceInstance(id = "id-$i", tags = tags, address = "127.0.0.${i + 1}", port = 4444)
+        }
+        val state = MultiClusterState(
+            listOf(
+                clusterState(Locality.LOCAL, "DC1", instances.take(3).toSet()),
+                clusterState(Locality.REMOTE, "DC2", instances.drop(3).toSet()),
+                clusterState(Locality.REMOTE, "DC3", emptySet())
+            )
+        )
+        val serviceTagIndexes = HashMap<String, ServiceTagIndex>()
+        val loadAssignment = endpointsFactory.createLoadAssignment(
+            setOf(serviceName), state, serviceTagIndexes = serviceTagIndexes
+        ).single()
+        val serviceTagIndex = serviceTagIndexes[serviceName]
+
+        listOf(
+            listOf("lorem"), listOf("ipsum"), listOf("x64"), listOf("est", "ipsum"), listOf("est")
+        ).forEach { serviceTagPreference ->
+            val policy = RoutingPolicy(autoServiceTag = true, serviceTagPreference = serviceTagPreference)
+
+            // when
+            val filtered = endpointsFactory.filterEndpoints(loadAssignment, policy, serviceTagIndex)
+
+            // then
+            assertThat(filtered)
+                .describedAs("filtered by $serviceTagPreference")
+                .isEqualTo(endpointsFactory.filterEndpoints(loadAssignment, policy))
+        }
+        assertThat(serviceTagIndex).isNotNull
+        assertThat(serviceTagIndex!!.filter("lorem")).isNotSameAs(loadAssignment)
+    }
+
+    @Test
+    fun `should not use service tag index of a different load assignment`() {
+        // given
+        val serviceTagIndexes = HashMap<String, ServiceTagIndex>()
+        endpointsFactory.createLoadAssignment(
+            setOf(serviceName), multiClusterStateDC1Local, serviceTagIndexes = serviceTagIndexes
+        )
+        val policy = RoutingPolicy(autoServiceTag = true, serviceTagPreference = listOf("lorem"))
+
+        // when
+        val filtered = endpointsFactory.filterEndpoints(globalLoadAssignment, policy, serviceTagIndexes[serviceName])
+
+        // then
+        assertThat(filtered).isEqualTo(endpointsFactory.filterEndpoints(globalLoadAssignment, policy))
+    }
+
     private fun List<ClusterLoadAssignment>.assertHasLoadAssignment(map: Map<String, Int>) {
         assertThat(this)
             .isNotEmpty()
@@ -456,20 +531,27 @@ internal class EnvoyEndpointsFactoryTest {
         locality: Locality = Locality.LOCAL,
         cluster: String,
         serviceName: String = this.serviceName
+    ): ClusterState = clusterState(
+        locality, cluster, setOf(
+            ServiceInstance(
+                id = "id",
+                tags = setOf("envoy"),
+                address = "127.0.0.3",
+                port = 4444
+            )
+        ), serviceName
+    )
+
+    private fun clusterState(
+        locality: Locality,
+        cluster: String,
+        instances: Set<ServiceInstance>,
+        serviceName: String = this.serviceName
     ): ClusterState {
         return ClusterState(
             ServicesState(
                 serviceNameToInstances = concurrentMapOf(
-                    serviceName to ServiceInstances(
-                        serviceName, setOf(
-                            ServiceInstance(
-                                id = "id",
-                                tags = setOf("envoy"),
-                                address = "127.0.0.3",
-                                port = 4444
-                            )
-                        )
-                    )
+                    serviceName to ServiceInstances(serviceName, instances)
                 )
             ),
             locality, cluster
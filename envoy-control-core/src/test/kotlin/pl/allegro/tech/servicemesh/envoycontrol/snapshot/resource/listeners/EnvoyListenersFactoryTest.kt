@@ -0,0 +1,128 @@
+package pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners
+
+import io.envoyproxy.controlplane.cache.SnapshotResources
+import io.envoyproxy.envoy.config.cluster.v3.Cluster
+import io.envoyproxy.envoy.config.core.v3.Address
+import io.envoyproxy.envoy.config.core.v3.SocketAddress
+import io.envoyproxy.envoy.config.endpoint.v3.ClusterLoadAssignment
+import io.envoyproxy.envoy.config.endpoint.v3.Endpoint
+import io.envoyproxy.envoy.config.endpoint.v3.LbEndpoint
+import io.envoyproxy.envoy.config.endpoint.v3.LocalityLbEndpoints
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ClientWithSelector
+import pl.allegro.tech.servicemesh.envoycontrol.groups.CommunicationMode
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Incoming
+import pl.allegro.tech.servicemesh.envoycontrol.groups.IncomingEndpoint
+import pl.allegro.tech.servicemesh.envoycontrol.groups.PathMatchingType
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ProxySettings
+import pl.allegro.tech.servicemesh.envoycontrol.groups.ServicesGroup
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.GlobalSnapshot
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.SnapshotProperties
+import pl.allegro.tech.servicemesh.envoycontrol.snapshot.resource.listeners.filters.EnvoyHttpFilters
+import pl.allegro.tech.servicemesh.envoycontrol.utils.createListenersConfig
+
+class EnvoyListenersFactoryTest {
+
+    private val properties = SnapshotProperties().also {
+        it.dynamicListeners.cache.enabled = true
+        it.incomingPermissions.enabled = true
+        it.incomingPermissions.sourceIpAuthentication.ipFromServiceDiscovery.enabledForIncomingServices =
+            listOf("client1", "client2")
+    }
+    private val listenersFactory = EnvoyListenersFactory(properties, EnvoyHttpFilters.defaultFilters(properties))
+
+    @Test
+    fun `should reuse listeners when endpoints of clients authenticated by source ip did not change`() {
+        // given
+        val group = group(clients = listOf("client1"))
+        val listeners = listenersFactory.createListeners(group, snapshot("client1" to "127.0.0.1"))
+
+        // when
+        val nextListeners = listenersFactory.createListeners(
+            group, snapshot("client1" to "127.0.0.1", "client2" to "127.0.0.2", "other" to "127.0.0.3")
+        )
+
+        // then
+        assertThat(nextListeners).isSameAs(listeners)
+    }
+
+    @Test
+    fun `should rebuild listeners when endpoints of clients authenticated by source ip changed`() {
+        // given
+        val group = group(clients = listOf("client1"))
+        val listeners = listenersFactory.createListeners(group, snapshot("client1" to "127.0.0.1"))
+
+        // when
+        val nextListeners = listenersFactory.createListeners(group, snapshot("client1" to "127.0.0.2"))
+
+        // then
+        assertThat(nextListeners).isNotSameAs(listeners).isNotEqualTo(listeners)
+        assertThat(nextListeners).isEqualTo(
+            EnvoyListenersFactory(properties, EnvoyHttpFilters.defaultFilters(properties))
+                .createListeners(group, snapshot("client1" to "127.0.0.2"))
+        )
+    }
+
+    @Test
+    fun `should not cache listeners when filters do not tell clients authenticated by source ip`() {
+        // given
+        val defaultFilters = EnvoyHttpFilters.defaultFilters(properties)
+        val listenersFactory = EnvoyListenersFactory(
+            properties, EnvoyHttpFilters(defaultFilters.ingressFilters, defaultFilters.egressFilters)
+        )
+        val group = group(clients = listOf("client1"))
+        val listeners = listenersFactory.createListeners(group, snapshot("client1" to "127.0.0.1"))
+
+        // when
+        val nextListeners = listenersFactory.createListeners(group, snapshot("client1" to "127.0.0.2"))
+
+        // then
+        assertThat(nextListeners).isNotEqualTo(listeners)
+    }
+
+    private fun group(clients: List<String>) = ServicesGroup(
+        communicationMode = CommunicationMode.ADS,
+        serviceName = "service",
+        proxySettings = ProxySettings(
+            incoming = Incoming(
+                permissionsEnabled = true,
+                endpoints = listOf(
+                    IncomingEndpoint(
+                        path = "/example",
+                        pathMatchingType = PathMatchingType.PATH,
+                        clients = clients.map { ClientWithSelector.create(it) }.toSet()
+                    )
+                )
+            )
+        ),
+        listenersConfig = createListenersConfig(properties)
+    )
+
+    private fun snapshot(vararg endpoints: Pair<String, String>) = GlobalSnapshot(
+        SnapshotResources.create<Cluster>(listOf<Cluster>(), "").resources(),
+        setOf(),
+        SnapshotResources.create<ClusterLoadAssignment>(
+            endpoints.map { (service, ip) -> loadAssignment(service, ip) }, ""
+        ).resources(),
+        mapOf(),
+        SnapshotResources.create<Cluster>(listOf<Cluster>(), "").resources()
+    )
+
+    private fun loadAssignment(service: String, ip: String) = ClusterLoadAssignment.newBuilder()
+        .setClusterName(service)
+        .addEndpoints(
+            LocalityLbEndpoints.newBuilder()
+                .addLbEndpoints(
+                    LbEndpoint.newBuilder()
+                        .setEndpoint(
+                            Endpoint.newBuilder()
+                                .setAddress(
+                                    Address.newBuilder()
+                                        .setSocketAddress(SocketAddress.newBuilder().setAddress(ip).setPortValue(80))
+                                )
+                        )
+                )
+        )
+        .build()
+}
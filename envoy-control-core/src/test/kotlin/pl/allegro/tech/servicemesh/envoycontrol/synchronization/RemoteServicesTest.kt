@@ -17,6 +17,7 @@ import java.net.URI
 import java.time.Duration
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.TimeUnit
 
 class RemoteServicesTest {
@@ -279,6 +280,38 @@ class RemoteServicesTest {
             .verify()
     }
 
+    @Test
+    fun `should apply changes of remote state since the last synced version`() {
+        // given
+        val controlPlaneClient = VersionedControlPlane(
+            servicesState("service-a"),
+            servicesState("service-a", "service-b"),
+            servicesState("service-b")
+        )
+        val service = RemoteServices(
+            controlPlaneClient,
+            SimpleMeterRegistry(),
+            fetcher(),
+            listOf("dc1"),
+            defaultCacheDuration,
+            deltaEnabled = true
+        )
+
+        // when
+        val states = service.getChanges(1)
+            .take(4)
+            .map { it.single() }
+            .collectList()
+            .block()!!
+
+        // then
+        assertThat(states.map { it.servicesState.serviceNames() }).containsExactly(
+            setOf("service-a"), setOf("service-a", "service-b"), setOf("service-b"), setOf("service-b")
+        )
+        assertThat(states[3]).isSameAs(states[2])
+        assertThat(controlPlaneClient.requestedVersions.take(4).map { it?.version }).containsExactly(null, 1L, 2L, 3L)
+    }
+
     class FakeControlPlaneInstanceFetcher(private val clusterWithNoInstance: List<String>) :
         ControlPlaneInstanceFetcher {
         override fun instances(cluster: String): List<URI> {
@@ -304,6 +337,29 @@ class RemoteServicesTest {
         return this
     }
 
+    private fun servicesState(vararg services: String) = ServicesState(
+        serviceNameToInstances = ConcurrentHashMap(
+            services.associateWith { ServiceInstances(it, setOf(ServiceInstance("1", setOf(), "localhost", 80))) }
+        )
+    )
+
+    class VersionedControlPlane(vararg states: ServicesState) : ControlPlaneClient {
+        private val states = states.toList()
+        private val history = ServicesStateHistory()
+        val requestedVersions: MutableList<StateVersion?> = CopyOnWriteArrayList()
+
+        override fun getState(uri: URI): CompletableFuture<ServicesState> =
+            CompletableFuture.completedFuture(currentState())
+
+        override fun getStateChanges(uri: URI, since: StateVersion?): CompletableFuture<ServicesStateDelta?> {
+            val state = currentState()
+            requestedVersions.add(since)
+            return CompletableFuture.completedFuture(history.changesSince(state, since))
+        }
+
+        private fun currentState() = states[minOf(requestedVersions.size, states.size - 1)]
+    }
+
     data class ServiceState(val service: String, val withoutInstances: Boolean = false)
     class FakeAsyncControlPlane : ControlPlaneClient {
         class ClusterScope(private val clusterName: String) {
@@ -0,0 +1,97 @@
+package pl.allegro.tech.servicemesh.envoycontrol.synchronization
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstance
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import java.util.concurrent.ConcurrentHashMap
+
+class ServicesStateHistoryTest {
+
+    private val history = ServicesStateHistory(maxRemovedServices = 2, stateId = "state")
+
+    @Test
+    fun `should return full state to a client without a version`() {
+        // when
+        val delta = history.changesSince(servicesState("a" to 1, "b" to 1), since = null)
+
+        // then
+        assertThat(delta).isNotNull
+        assertThat(delta!!.full).isTrue()
+        assertThat(delta.stateVersion()).isEqualTo(StateVersion("state", 1))
+        assertThat(delta.changed.map { it.serviceName }).containsExactlyInAnyOrder("a", "b")
+    }
+
+    @Test
+    fun `should return only changes since the client version`() {
+        // given
+        val since = history.changesSince(servicesState("a" to 1, "b" to 1, "c" to 1), since = null)!!.stateVersion()
+
+        // when
+        val delta = history.changesSince(servicesState("a" to 1, "b" to 2, "d" to 1), since)
+
+        // then
+        assertThat(delta!!.full).isFalse()
+        assertThat(delta.version).isEqualTo(2)
+        assertThat(delta.changed.map { it.serviceName }).containsExactlyInAnyOrder("b", "d")
+        assertThat(delta.changed.single { it.serviceName == "b" }.instances).hasSize(2)
+        assertThat(delta.removed).containsExactly("c")
+    }
+
+    @Test
+    fun `should return null when the state didn't change since the client version`() {
+        // given
+        val since = history.changesSince(servicesState("a" to 1), since = null)!!.stateVersion()
+
+        // when
+        val delta = history.changesSince(servicesState("a" to 1), since)
+
+        // then
+        assertThat(delta).isNull()
+    }
+
+    @Test
+    fun `should return full state to a client with a version of another state`() {
+        // given
+        history.changesSince(servicesState("a" to 1), since = null)
+
+        // when
+        val delta = history.changesSince(servicesState("a" to 2), StateVersion("other-state", 1))
+
+        // then
+        assertThat(delta!!.full).isTrue()
+        assertThat(delta.changed.map { it.serviceName }).containsExactly("a")
+    }
+
+    @Test
+    fun `should return full state to a client older than the remembered removals`() {
+        // given
+        val since = history.changesSince(servicesState("a" to 1, "b" to 1, "c" to 1, "d" to 1), since = null)!!
+            .stateVersion()
+        history.changesSince(servicesState("c" to 1, "d" to 1), since)
+        val recent = history.changesSince(servicesState("d" to 1), since)!!.stateVersion()
+
+        // when
+        val oldClientDelta = history.changesSince(servicesState("d" to 1, "e" to 1), since)
+        val recentClientDelta = history.changesSince(servicesState("d" to 1, "e" to 1), recent)
+
+        // then
+        assertThat(oldClientDelta!!.full).isTrue()
+        assertThat(oldClientDelta.changed.map { it.serviceName }).containsExactlyInAnyOrder("d", "e")
+        assertThat(recentClientDelta!!.full).isFalse()
+        assertThat(recentClientDelta.changed.map { it.serviceName }).containsExactly("e")
+        assertThat(recentClientDelta.removed).isEmpty()
+    }
+
+    private fun servicesState(vararg services: Pair<String, Int>) = ServicesState(
+        serviceNameToInstances = ConcurrentHashMap(
+            services.associate { (name, instances) ->
+                name to ServiceInstances(
+                    name,
+                    (1..instances).map { ServiceInstance("$name-$it", setOf(), "127.0.0.$it", 80) }.toSet()
+                )
+            }
+        )
+    )
+}
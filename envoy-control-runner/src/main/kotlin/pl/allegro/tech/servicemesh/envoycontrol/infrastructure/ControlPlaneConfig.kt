@@ -4,6 +4,7 @@ import com.ecwid.consul.v1.ConsulClient
 import com.fasterxml.jackson.databind.ObjectMapper
 import io.micrometer.core.instrument.MeterRegistry
 import io.micrometer.core.instrument.Tags
+import org.springframework.beans.factory.ObjectProvider
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty
 import org.springframework.boot.context.properties.ConfigurationProperties
@@ -26,8 +27,11 @@ import pl.allegro.tech.servicemesh.envoycontrol.consul.ConsulProperties
 import pl.allegro.tech.servicemesh.envoycontrol.consul.services.ConsulLocalClusterStateChanges
 import pl.allegro.tech.servicemesh.envoycontrol.consul.services.ConsulServiceChanges
 import pl.allegro.tech.servicemesh.envoycontrol.consul.services.ConsulServiceMapper
+import pl.allegro.tech.servicemesh.envoycontrol.consul.services.EcwidConsulHealthClient
 import pl.allegro.tech.servicemesh.envoycontrol.consul.services.NoOpServiceWatchPolicy
+import pl.allegro.tech.servicemesh.envoycontrol.consul.services.ServiceSubscriptionPriority
 import pl.allegro.tech.servicemesh.envoycontrol.consul.services.ServiceWatchPolicy
+import pl.allegro.tech.servicemesh.envoycontrol.infrastructure.consul.EnvoyDependenciesSubscriptionPriority
 import pl.allegro.tech.servicemesh.envoycontrol.server.NoopReadinessStateHandler
 import pl.allegro.tech.servicemesh.envoycontrol.server.ReadinessStateHandler
 import pl.allegro.tech.servicemesh.envoycontrol.services.ClusterStateChanges
@@ -91,6 +95,12 @@ class ControlPlaneConfig {
     @ConditionalOnMissingBean(ServiceWatchPolicy::class)
     fun serviceWatchPolicy(): ServiceWatchPolicy = NoOpServiceWatchPolicy
 
+    @Bean
+    @ConditionalOnMissingBean(ServiceSubscriptionPriority::class)
+    fun serviceSubscriptionPriority(controlPlane: ObjectProvider<ControlPlane>): ServiceSubscriptionPriority =
+        // the control plane depends on services, so its cache is looked up only when subscriptions are prioritized
+        EnvoyDependenciesSubscriptionPriority { controlPlane.ifAvailable?.cache }
+
     @Bean
     @Suppress("LongParameterList")
     fun consulServiceChanges(
@@ -101,6 +111,7 @@ class ControlPlaneConfig {
         consulProperties: ConsulProperties,
         readinessStateHandler: ReadinessStateHandler,
         watchPolicy: ServiceWatchPolicy,
+        subscriptionPriority: ServiceSubscriptionPriority,
     ) = ConsulServiceChanges(
         watcher,
         serviceMapper,
@@ -108,7 +119,11 @@ class ControlPlaneConfig {
         objectMapper,
         consulProperties.subscriptionDelay,
         readinessStateHandler,
-        watchPolicy
+        watchPolicy,
+        consulProperties.subscriptionPacing,
+        subscriptionPriority,
+        consulProperties.bulkWatch,
+        EcwidConsulHealthClient(ConsulClient(consulProperties.host, consulProperties.port))
     )
 
     @Bean
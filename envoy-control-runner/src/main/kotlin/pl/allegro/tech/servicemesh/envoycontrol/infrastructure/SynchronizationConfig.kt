@@ -55,7 +55,8 @@ class SynchronizationConfig {
             meterRegistry = meterRegistry,
             controlPlaneInstanceFetcher = controlPlaneInstanceFetcher,
             remoteClusters = remoteClusters.clusters,
-            cacheDuration = properties.sync.cacheDuration
+            cacheDuration = properties.sync.cacheDuration,
+            deltaEnabled = properties.sync.deltaEnabled
         )
         return RemoteClusterStateChanges(properties, service)
     }
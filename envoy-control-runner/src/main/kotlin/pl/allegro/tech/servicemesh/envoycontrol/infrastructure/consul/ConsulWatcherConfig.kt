@@ -14,6 +14,7 @@ import pl.allegro.tech.discovery.consul.recipes.json.JacksonJsonSerializer
 import pl.allegro.tech.discovery.consul.recipes.watch.ConsulWatcher
 import pl.allegro.tech.servicemesh.envoycontrol.consul.ConsulProperties
 import pl.allegro.tech.servicemesh.envoycontrol.consul.ConsulWatcherOkHttpProperties
+import pl.allegro.tech.servicemesh.envoycontrol.logger
 import java.net.URI
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
@@ -26,6 +27,11 @@ import java.util.concurrent.atomic.AtomicInteger
 @Configuration
 open class ConsulWatcherConfig {
 
+    companion object {
+        private val logger by logger()
+        private const val DISPATCHER_THREAD_NAME = "consul-okhttp-dispatcher"
+    }
+
     @Bean
     fun consulWatcher(
         consulProperties: ConsulProperties,
@@ -70,9 +76,12 @@ open class ConsulWatcherConfig {
         builder: OkHttpClient.Builder,
         watcherConfig: ConsulWatcherOkHttpProperties
     ): OkHttpClient.Builder {
-        val dispatcher = Dispatcher(createDispatcherPool(watcherConfig))
-        dispatcher.maxRequests = watcherConfig.dispatcherMaxPoolSize
-        dispatcher.maxRequestsPerHost = watcherConfig.dispatcherMaxPoolSize
+        val virtualThreadsPool = if (watcherConfig.virtualThreads) virtualThreadsDispatcherPool() else null
+        val dispatcher = Dispatcher(virtualThreadsPool ?: createDispatcherPool(watcherConfig))
+        // on virtual threads watches aren't limited by the pool size, so a blocking query of every service runs
+        val maxRequests = if (virtualThreadsPool != null) Int.MAX_VALUE else watcherConfig.dispatcherMaxPoolSize
+        dispatcher.maxRequests = maxRequests
+        dispatcher.maxRequestsPerHost = maxRequests
 
         return builder.addInterceptor(NoGzipIntercetor())
             .dispatcher(dispatcher)
@@ -85,10 +94,36 @@ open class ConsulWatcherConfig {
             watcherConfig.dispatcherPoolKeepAliveTime.toMillis(),
             TimeUnit.MILLISECONDS,
             SynchronousQueue(),
-            threadFactory("consul-okhttp-dispatcher", false)
+            threadFactory(DISPATCHER_THREAD_NAME, false)
         )
     }
 
+    private fun virtualThreadsDispatcherPool(): ExecutorService? {
+        val pool = virtualThreadPerTaskExecutor()
+        if (pool == null) {
+            logger.warn("Virtual threads are not supported by this JVM, Consul watches will run on platform threads")
+        }
+        return pool
+    }
+
+    /**
+     * Watches are blocking queries, so every watched service parks a dispatcher thread until Consul responds.
+     * On virtual threads parked watches don't hold platform threads and their stacks.
+     *
+     * Virtual threads are looked up reflectively, because the project targets Java 17.
+     */
+    private fun virtualThreadPerTaskExecutor(): ExecutorService? = try {
+        val ofVirtual = Class.forName("java.lang.Thread\$Builder\$OfVirtual")
+        val builder = ofVirtual.getMethod("name", String::class.java, Long::class.javaPrimitiveType)
+            .invoke(Thread::class.java.getMethod("ofVirtual").invoke(null), "$DISPATCHER_THREAD_NAME-", 0L)
+        val threadFactory = ofVirtual.getMethod("factory").invoke(builder) as ThreadFactory
+        Executors::class.java.getMethod("newThreadPerTaskExecutor", ThreadFactory::class.java)
+            .invoke(null, threadFactory) as ExecutorService
+    } catch (e: ReflectiveOperationException) {
+        logger.debug("Virtual threads lookup failed", e)
+        null
+    }
+
     protected class NoGzipIntercetor : Interceptor {
         override fun intercept(chain: Interceptor.Chain): Response {
             return chain.proceed(
@@ -0,0 +1,18 @@
+package pl.allegro.tech.servicemesh.envoycontrol.infrastructure.consul
+
+import io.envoyproxy.controlplane.cache.SnapshotCache
+import io.envoyproxy.controlplane.cache.v3.Snapshot
+import pl.allegro.tech.servicemesh.envoycontrol.consul.services.ServiceSubscriptionPriority
+import pl.allegro.tech.servicemesh.envoycontrol.groups.Group
+
+/**
+ * Prioritizes subscriptions to services which Envoys connected to the control plane depend on.
+ * The [cache] returns null until the control plane is built, until then no services are prioritized.
+ */
+class EnvoyDependenciesSubscriptionPriority(
+    private val cache: () -> SnapshotCache<Group, Snapshot>?
+) : ServiceSubscriptionPriority {
+
+    override fun prioritizedServices(): Set<String> = cache()?.groups().orEmpty()
+        .flatMapTo(HashSet()) { group -> group.proxySettings.outgoing.getServiceDependencies().map { it.service } }
+}
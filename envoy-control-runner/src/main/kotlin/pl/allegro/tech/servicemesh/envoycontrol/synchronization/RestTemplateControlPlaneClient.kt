@@ -2,6 +2,10 @@ package pl.allegro.tech.servicemesh.envoycontrol.synchronization
 
 import io.micrometer.core.instrument.MeterRegistry
 import io.micrometer.core.instrument.Tags
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
+import org.springframework.http.MediaType
 import org.springframework.web.client.RestTemplate
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
 import java.net.URI
@@ -21,6 +25,20 @@ class RestTemplateControlPlaneClient(
         }, executors)
     }
 
+    override fun getStateChanges(uri: URI, since: StateVersion?): CompletableFuture<ServicesStateDelta?> {
+        val query = since?.let { "?stateId=${it.stateId}&version=${it.version}" } ?: ""
+        val headers = HttpHeaders()
+        headers.accept = listOf(MediaType.parseMediaType(StateController.SMILE_MEDIA_TYPE))
+        return CompletableFuture.supplyAsync({
+            metered {
+                // not modified responses have no body
+                restTemplate.exchange(
+                    "$uri/state-changes$query", HttpMethod.GET, HttpEntity<Any>(headers), ServicesStateDelta::class.java
+                ).body
+            }
+        }, executors)
+    }
+
     private fun <T> metered(function: () -> T): T {
         try {
             val response = timed { function() }
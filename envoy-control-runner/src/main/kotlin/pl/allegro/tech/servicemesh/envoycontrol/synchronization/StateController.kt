@@ -1,7 +1,11 @@
 package pl.allegro.tech.servicemesh.envoycontrol.synchronization
 
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.GetMapping
 import org.springframework.web.bind.annotation.PathVariable
+import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RestController
 import pl.allegro.tech.servicemesh.envoycontrol.services.LocalClusterStateChanges
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
@@ -9,6 +13,7 @@ import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
 
 @RestController
 class StateController(val localClusterStateChanges: LocalClusterStateChanges) {
+    private val stateHistory = ServicesStateHistory()
 
     @GetMapping("/state")
     fun getState(): ServicesState = localClusterStateChanges.latestServiceState.get()
@@ -16,4 +21,22 @@ class StateController(val localClusterStateChanges: LocalClusterStateChanges) {
     @GetMapping("/state/{serviceName}")
     fun getStateByServiceName(@PathVariable("serviceName") serviceName: String): ServiceInstances? =
         localClusterStateChanges.latestServiceState.get()[serviceName]
+
+    @GetMapping("/state-changes", produces = [SMILE_MEDIA_TYPE, MediaType.APPLICATION_JSON_VALUE])
+    fun getStateChanges(
+        @RequestParam("stateId", required = false) stateId: String?,
+        @RequestParam("version", required = false) version: Long?
+    ): ResponseEntity<ServicesStateDelta> {
+        val since = if (stateId != null && version != null) StateVersion(stateId, version) else null
+        val changes = stateHistory.changesSince(localClusterStateChanges.latestServiceState.get(), since)
+        return if (changes == null) {
+            ResponseEntity.status(HttpStatus.NOT_MODIFIED).build()
+        } else {
+            ResponseEntity.ok(changes)
+        }
+    }
+
+    companion object {
+        const val SMILE_MEDIA_TYPE = "application/x-jackson-smile"
+    }
 }
@@ -0,0 +1,138 @@
+package pl.allegro.tech.servicemesh.envoycontrol.infrastructure.consul
+
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.consul.ConsulWatcherOkHttpProperties
+import java.io.IOException
+import java.lang.management.ManagementFactory
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketException
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.concurrent.thread
+
+class ConsulWatcherConfigTest {
+
+    companion object {
+        private const val WATCHES = 500
+    }
+
+    private val consul = BlockingQueriesConsulStub()
+    private val threads = ManagementFactory.getThreadMXBean()
+    private val config = object : ConsulWatcherConfig() {
+        fun client(properties: ConsulWatcherOkHttpProperties) = okHttpClient(properties)
+    }
+    private var client: OkHttpClient? = null
+
+    @AfterEach
+    fun cleanup() {
+        client?.dispatcher?.cancelAll()
+        client?.dispatcher?.executorService?.shutdown()
+        consul.close()
+    }
+
+    @Test
+    fun `should not hold a platform thread per watch when watches run on virtual threads`() {
+        assumeTrue(Runtime.version().feature() >= 21, "virtual threads require Java 21")
+
+        // given
+        val client = createClient(ConsulWatcherOkHttpProperties().apply { virtualThreads = true })
+        val threadsBefore = threads.threadCount
+
+        // when
+        startWatches(client)
+
+        // then
+        assertThat(threads.threadCount - threadsBefore).isLessThan(WATCHES / 10)
+    }
+
+    @Test
+    fun `should run more watches than dispatcher pool size when watches run on virtual threads`() {
+        assumeTrue(Runtime.version().feature() >= 21, "virtual threads require Java 21")
+
+        // given
+        val client = createClient(
+            ConsulWatcherOkHttpProperties().apply {
+                virtualThreads = true
+                dispatcherMaxPoolSize = WATCHES / 5
+            }
+        )
+
+        // when
+        startWatches(client)
+
+        // then
+        assertThat(consul.heldQueries).isEqualTo(WATCHES)
+    }
+
+    @Test
+    fun `should hold a platform thread per watch by default`() {
+        // given
+        val client = createClient(ConsulWatcherOkHttpProperties())
+        val threadsBefore = threads.threadCount
+
+        // when
+        startWatches(client)
+
+        // then
+        assertThat(threads.threadCount - threadsBefore).isGreaterThanOrEqualTo(WATCHES)
+    }
+
+    private fun createClient(properties: ConsulWatcherOkHttpProperties) = config.client(properties)
+        .also { client = it }
+
+    private fun startWatches(client: OkHttpClient) {
+        repeat(WATCHES) {
+            client.newCall(
+                Request.Builder()
+                    .url("http://localhost:${consul.port}/v1/health/service/service-$it?index=1&wait=5m")
+                    .build()
+            ).enqueue(IgnoringCallback)
+        }
+        val deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos()
+        while (consul.heldQueries < WATCHES && System.nanoTime() < deadline) {
+            Thread.sleep(10)
+        }
+        assertThat(consul.heldQueries).isEqualTo(WATCHES)
+    }
+
+    private object IgnoringCallback : Callback {
+        override fun onFailure(call: Call, e: IOException) = Unit
+        override fun onResponse(call: Call, response: Response) = response.close()
+    }
+
+    /**
+     * Consul which holds every blocking query until it's closed, like Consul holds them until a watched service
+     * changes.
+     */
+    private class BlockingQueriesConsulStub : AutoCloseable {
+        private val server = ServerSocket(0, WATCHES * 2)
+        private val connections = CopyOnWriteArrayList<Socket>()
+        private val acceptor = thread(name = "consul-stub-acceptor") {
+            while (!server.isClosed) {
+                try {
+                    connections.add(server.accept())
+                } catch (ignored: SocketException) {
+                    // closed
+                }
+            }
+        }
+
+        val port = server.localPort
+        val heldQueries get() = connections.size
+
+        override fun close() {
+            server.close()
+            acceptor.join()
+            connections.forEach { it.close() }
+        }
+    }
+}
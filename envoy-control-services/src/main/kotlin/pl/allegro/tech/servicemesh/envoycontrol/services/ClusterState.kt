@@ -7,13 +7,38 @@ enum class Locality {
 data class ClusterState(
     val servicesState: ServicesState,
     val locality: Locality,
-    val cluster: String
+    val cluster: String,
+    // null when the source doesn't track changes, every service has to be treated as changed then
+    val changes: ServicesChanges? = null
 )
 
 data class MultiClusterState(private val l: List<ClusterState> = listOf()) : Collection<ClusterState> by l {
 
     constructor(state: ClusterState) : this(listOf(state))
 
+    /**
+     * Returns names of services touched since the [previous] state or null if they can't be determined.
+     * Cluster states with tracked changes which are the same instances as in the [previous] state are treated
+     * as unchanged.
+     */
+    fun changedServicesSince(previous: MultiClusterState): Set<ServiceName>? {
+        if (l.size != previous.l.size) {
+            return null
+        }
+        val changed = HashSet<ServiceName>()
+        l.zip(previous.l).forEach { (current, old) ->
+            val changes = current.changes ?: return null
+            if (current === old) {
+                return@forEach
+            }
+            if (current.cluster != old.cluster || current.locality != old.locality || !changes.follows(old.changes)) {
+                return null
+            }
+            changed.addAll(changes.touched())
+        }
+        return changed
+    }
+
     companion object {
         fun empty() = MultiClusterState(emptyList())
         fun ClusterState.toMultiClusterState() = MultiClusterState(this)
@@ -0,0 +1,244 @@
+package pl.allegro.tech.servicemesh.envoycontrol.services
+
+/**
+ * Immutable map backed by a hash array mapped trie. An update copies only the path from the root to the updated key
+ * and shares the rest of the trie with the previous map, so it costs O(log n) instead of a copy of the whole map.
+ *
+ * Maps derived from one another share subtries, so [changedKeys] finds differences between them by walking only
+ * branches which are not shared.
+ */
+@Suppress("UNCHECKED_CAST", "TooManyFunctions")
+internal class PersistentHashMap<K : Any, V : Any> private constructor(
+    private val root: Node?,
+    override val size: Int
+) : AbstractMap<K, V>() {
+
+    override val entries: Set<Map.Entry<K, V>>
+        get() = object : AbstractSet<Map.Entry<K, V>>() {
+            override val size: Int
+                get() = this@PersistentHashMap.size
+
+            override fun iterator(): Iterator<Map.Entry<K, V>> =
+                (root?.leaves() ?: emptySequence()).iterator() as Iterator<Map.Entry<K, V>>
+        }
+
+    override fun get(key: K): V? = root?.get(key.hashCode(), key, 0) as V?
+
+    override fun containsKey(key: K): Boolean = get(key) != null
+
+    /**
+     * Returns a map with [key] mapped to [value], or this map if [key] is already mapped to an equal value.
+     */
+    fun with(key: K, value: V): PersistentHashMap<K, V> {
+        val hash = key.hashCode()
+        val newRoot = (root ?: Node.EMPTY).put(hash, key, value, 0)
+        return when {
+            newRoot === root -> this
+            else -> PersistentHashMap(newRoot, if (containsKey(key)) size else size + 1)
+        }
+    }
+
+    /**
+     * Returns a map without [key], or this map if there is no such key.
+     */
+    fun without(key: K): PersistentHashMap<K, V> {
+        val root = root ?: return this
+        val newRoot = root.remove(key.hashCode(), key, 0)
+        return if (newRoot === root) this else PersistentHashMap(newRoot, size - 1)
+    }
+
+    /**
+     * Returns keys mapped to different values in this and the [other] map, including keys present in only one of them.
+     */
+    fun changedKeys(other: PersistentHashMap<K, V>): Set<K> {
+        val changed = HashSet<K>()
+        diff(root, other.root, 0) { changed.add(it as K) }
+        return changed
+    }
+
+    override fun equals(other: Any?): Boolean =
+        (other is PersistentHashMap<*, *> && other.root === root) || super.equals(other)
+
+    override fun hashCode(): Int = super.hashCode()
+
+    companion object {
+        private const val BITS = 5
+        private const val MASK = (1 shl BITS) - 1
+
+        private val EMPTY = PersistentHashMap<Any, Any>(null, 0)
+
+        fun <K : Any, V : Any> empty(): PersistentHashMap<K, V> = EMPTY as PersistentHashMap<K, V>
+
+        fun <K : Any, V : Any> from(map: Map<K, V>): PersistentHashMap<K, V> = when (map) {
+            is PersistentHashMap<K, V> -> map
+            else -> map.entries.fold(empty<K, V>()) { result, (key, value) -> result.with(key, value) }
+        }
+
+        private fun bit(hash: Int, shift: Int): Int = 1 shl ((hash ushr shift) and MASK)
+
+        private fun hashOf(slot: Any): Int = when (slot) {
+            is Leaf -> slot.hash
+            is Collision -> slot.hash
+            else -> error("node has no hash")
+        }
+
+        /**
+         * Creates a subtrie at [shift] holding [existing] leaf or collision and a [leaf] with a different hash.
+         */
+        private fun merge(existing: Any, leaf: Leaf, shift: Int): Node {
+            val existingBit = bit(hashOf(existing), shift)
+            val leafBit = bit(leaf.hash, shift)
+            val bitmap = existingBit or leafBit
+            return when {
+                existingBit == leafBit -> Node(existingBit, arrayOf(merge(existing, leaf, shift + BITS)))
+                Integer.compareUnsigned(existingBit, leafBit) < 0 -> Node(bitmap, arrayOf(existing, leaf))
+                else -> Node(bitmap, arrayOf(leaf, existing))
+            }
+        }
+
+        // subtries of the same position at the same shift in both maps
+        private fun diff(left: Any?, right: Any?, shift: Int, changed: (Any) -> Unit) {
+            when {
+                left === right -> return
+                left is Node && right is Node -> {
+                    var bits = left.bitmap or right.bitmap
+                    while (bits != 0) {
+                        val bit = Integer.lowestOneBit(bits)
+                        diff(left.slot(bit), right.slot(bit), shift + BITS, changed)
+                        bits = bits xor bit
+                    }
+                }
+                else -> {
+                    val leftLeaves = leaves(left).associateBy { it.key }
+                    val rightLeaves = leaves(right).associateBy { it.key }
+                    leftLeaves.forEach { (key, leaf) ->
+                        if (rightLeaves[key]?.value != leaf.value) {
+                            changed(key)
+                        }
+                    }
+                    rightLeaves.keys.forEach { key ->
+                        if (key !in leftLeaves) {
+                            changed(key)
+                        }
+                    }
+                }
+            }
+        }
+
+        private fun leaves(slot: Any?): Sequence<Leaf> = when (slot) {
+            null -> emptySequence()
+            is Leaf -> sequenceOf(slot)
+            is Collision -> slot.leaves.asSequence()
+            else -> (slot as Node).leaves()
+        }
+    }
+
+    private class Leaf(override val key: Any, override val value: Any, val hash: Int) : Map.Entry<Any, Any> {
+        override fun equals(other: Any?): Boolean = other is Map.Entry<*, *> && other.key == key && other.value == value
+
+        override fun hashCode(): Int = key.hashCode() xor value.hashCode()
+
+        override fun toString(): String = "$key=$value"
+    }
+
+    /**
+     * Leaves of different keys with the same hash.
+     */
+    private class Collision(val hash: Int, val leaves: List<Leaf>) {
+        fun get(key: Any): Any? = leaves.firstOrNull { it.key == key }?.value
+
+        fun put(leaf: Leaf): Collision {
+            val index = leaves.indexOfFirst { it.key == leaf.key }
+            return when {
+                index < 0 -> Collision(hash, leaves + leaf)
+                leaves[index].value == leaf.value -> this
+                else -> Collision(hash, leaves.toMutableList().also { it[index] = leaf })
+            }
+        }
+
+        // returns the only remaining leaf instead of a collision of one leaf
+        fun remove(key: Any): Any {
+            val remaining = leaves.filter { it.key != key }
+            return when {
+                remaining.size == leaves.size -> this
+                remaining.size == 1 -> remaining.single()
+                else -> Collision(hash, remaining)
+            }
+        }
+    }
+
+    /**
+     * Slots of a node are leaves, collisions and subnodes. A node other than the root has at least one subnode or
+     * two other slots, otherwise it's replaced with its only slot.
+     */
+    private class Node(val bitmap: Int, val slots: Array<Any>) {
+        private fun index(bit: Int): Int = Integer.bitCount(bitmap and (bit - 1))
+
+        fun slot(bit: Int): Any? = if (bitmap and bit == 0) null else slots[index(bit)]
+
+        fun get(hash: Int, key: Any, shift: Int): Any? = when (val slot = slot(bit(hash, shift))) {
+            null -> null
+            is Leaf -> slot.value.takeIf { slot.key == key }
+            is Collision -> slot.get(key)
+            else -> (slot as Node).get(hash, key, shift + BITS)
+        }
+
+        fun put(hash: Int, key: Any, value: Any, shift: Int): Node {
+            val bit = bit(hash, shift)
+            val index = index(bit)
+            if (bitmap and bit == 0) {
+                return Node(bitmap or bit, insert(slots, index, Leaf(key, value, hash)))
+            }
+            val slot = slots[index]
+            val updated: Any = when {
+                slot is Leaf && slot.key == key -> if (slot.value == value) slot else Leaf(key, value, hash)
+                slot is Leaf && slot.hash == hash -> Collision(hash, listOf(slot, Leaf(key, value, hash)))
+                slot is Collision && slot.hash == hash -> slot.put(Leaf(key, value, hash))
+                slot is Node -> slot.put(hash, key, value, shift + BITS)
+                else -> merge(slot, Leaf(key, value, hash), shift + BITS)
+            }
+            return if (updated === slot) this else Node(bitmap, slots.copyOf().also { it[index] = updated })
+        }
+
+        fun remove(hash: Int, key: Any, shift: Int): Node? {
+            val bit = bit(hash, shift)
+            val slot = slot(bit) ?: return this
+            val index = index(bit)
+            val updated: Any? = when (slot) {
+                is Leaf -> if (slot.key == key) null else slot
+                is Collision -> slot.remove(key)
+                else -> (slot as Node).remove(hash, key, shift + BITS)?.let { it.single() ?: it }
+            }
+            return when {
+                updated === slot -> this
+                updated == null && slots.size == 1 -> null
+                updated == null -> Node(bitmap xor bit, delete(slots, index))
+                else -> Node(bitmap, slots.copyOf().also { it[index] = updated })
+            }
+        }
+
+        fun leaves(): Sequence<Leaf> = slots.asSequence().flatMap { PersistentHashMap.leaves(it) }
+
+        // the only slot, if it can be moved to the parent node
+        private fun single(): Any? = slots.singleOrNull()?.takeIf { it !is Node }
+
+        companion object {
+            val EMPTY = Node(0, arrayOf())
+
+            private fun insert(slots: Array<Any>, index: Int, slot: Any): Array<Any> {
+                val result = arrayOfNulls<Any>(slots.size + 1)
+                System.arraycopy(slots, 0, result, 0, index)
+                result[index] = slot
+                System.arraycopy(slots, index, result, index + 1, slots.size - index)
+                return result as Array<Any>
+            }
+
+            private fun delete(slots: Array<Any>, index: Int): Array<Any> {
+                val result = arrayOfNulls<Any>(slots.size - 1)
+                System.arraycopy(slots, 0, result, 0, index)
+                System.arraycopy(slots, index + 1, result, index, slots.size - index - 1)
+                return result as Array<Any>
+            }
+        }
+    }
+}
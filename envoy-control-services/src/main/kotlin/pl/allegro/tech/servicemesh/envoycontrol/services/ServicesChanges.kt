@@ -0,0 +1,56 @@
+package pl.allegro.tech.servicemesh.envoycontrol.services
+
+/**
+ * Names of services touched between two states of a cluster identified by [previousVersion] and [version].
+ * Versions are assigned by a source of states and grow with every emitted state. A consumer can apply the changes
+ * incrementally only if the state it processed last had [previousVersion], otherwise it has to process all services.
+ */
+data class ServicesChanges(
+    val previousVersion: Long,
+    val version: Long,
+    val added: Set<ServiceName> = emptySet(),
+    val removed: Set<ServiceName> = emptySet(),
+    val changed: Set<ServiceName> = emptySet()
+) {
+    fun touched(): Set<ServiceName> = added + removed + changed
+
+    fun isEmpty(): Boolean = added.isEmpty() && removed.isEmpty() && changed.isEmpty()
+
+    fun follows(previous: ServicesChanges?): Boolean = previous != null && previous.version == previousVersion
+
+    companion object {
+        /**
+         * Compares [candidates] services of [previous] and [current] states. By default, services which differ
+         * between the states are found by walking only their parts which aren't shared.
+         */
+        fun between(
+            previous: ServicesState,
+            current: ServicesState,
+            previousVersion: Long,
+            version: Long,
+            candidates: Collection<ServiceName> = current.changedServicesSince(previous)
+        ): ServicesChanges {
+            val added = HashSet<ServiceName>()
+            val removed = HashSet<ServiceName>()
+            val changed = HashSet<ServiceName>()
+            candidates.forEach { serviceName ->
+                val previousInstances = previous[serviceName]
+                val currentInstances = current[serviceName]
+                when {
+                    previousInstances == null && currentInstances != null -> added.add(serviceName)
+                    previousInstances != null && currentInstances == null -> removed.add(serviceName)
+                    previousInstances != currentInstances -> changed.add(serviceName)
+                }
+            }
+            return ServicesChanges(previousVersion, version, added, removed, changed)
+        }
+    }
+}
+
+/**
+ * Snapshot of services state emitted by a source together with changes since its previous emission.
+ */
+data class ServicesStateChange(
+    val state: ServicesState,
+    val changes: ServicesChanges
+)
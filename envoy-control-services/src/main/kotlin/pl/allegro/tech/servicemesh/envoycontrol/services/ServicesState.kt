@@ -1,43 +1,65 @@
 package pl.allegro.tech.servicemesh.envoycontrol.services
 
-import java.util.concurrent.ConcurrentHashMap
-
 typealias ServiceName = String
 
-data class ServicesState(
-    // TODO this field should be private but right now jackson ignores it and it cannot be instantiate.
-    //  Will fix this i next pr
-    val serviceNameToInstances: ConcurrentHashMap<ServiceName, ServiceInstances> = ConcurrentHashMap()
+/**
+ * Immutable state of services. Updates return a new state which shares unchanged services with this one, so they cost
+ * O(log n) instead of a copy of the whole state, and a state can be published without a defensive copy.
+ *
+ * Every update increments [version], so states derived from the same one are told apart without comparing services.
+ */
+class ServicesState(
+    serviceNameToInstances: Map<ServiceName, ServiceInstances> = emptyMap(),
+    private val version: Long = 0
 ) {
-    operator fun get(serviceName: ServiceName): ServiceInstances? = serviceNameToInstances[serviceName]
+    private val services = PersistentHashMap.from(serviceNameToInstances)
 
-    fun hasService(serviceName: String): Boolean = serviceNameToInstances.containsKey(serviceName)
-    fun serviceNames(): Set<ServiceName> = serviceNameToInstances.keys
-    fun allInstances(): Collection<ServiceInstances> = serviceNameToInstances.values
+    val serviceNameToInstances: Map<ServiceName, ServiceInstances>
+        get() = services
 
-    fun removeServicesWithoutInstances(): ServicesState {
-        serviceNameToInstances.entries.retainAll { (_, value) -> value.instances.isNotEmpty() }
-        return this
-    }
+    operator fun get(serviceName: ServiceName): ServiceInstances? = services[serviceName]
 
-    fun remove(serviceName: ServiceName): Boolean {
-        return serviceNameToInstances.remove(serviceName) != null
-    }
+    fun version(): Long = version
 
-    fun add(serviceName: ServiceName): Boolean {
-        return if (serviceNameToInstances.containsKey(serviceName)) {
-            false
-        } else {
-            change(ServiceInstances(serviceName, instances = emptySet()))
-        }
-    }
+    fun hasService(serviceName: String): Boolean = services.containsKey(serviceName)
+    fun serviceNames(): Set<ServiceName> = services.keys
+    fun allInstances(): Collection<ServiceInstances> = services.values
+
+    fun removeServicesWithoutInstances(): ServicesState = services.values
+        .filter { it.instances.isEmpty() }
+        .fold(this) { state, instances -> state.remove(instances.serviceName) }
+
+    /**
+     * Returns the state without the service, or this state if there is no such service.
+     */
+    fun remove(serviceName: ServiceName): ServicesState = update(services.without(serviceName))
 
-    fun change(serviceInstances: ServiceInstances): Boolean {
-        return if (serviceNameToInstances[serviceInstances.serviceName] == serviceInstances) {
-            false
-        } else {
-            serviceNameToInstances[serviceInstances.serviceName] = serviceInstances
-            true
-        }
+    /**
+     * Returns the state with the service without instances, or this state if the service is already present.
+     */
+    fun add(serviceName: ServiceName): ServicesState = when {
+        services.containsKey(serviceName) -> this
+        else -> change(ServiceInstances(serviceName, instances = emptySet()))
     }
+
+    /**
+     * Returns the state with the given instances of the service, or this state if they didn't change.
+     */
+    fun change(serviceInstances: ServiceInstances): ServicesState =
+        update(services.with(serviceInstances.serviceName, serviceInstances))
+
+    /**
+     * Returns names of services added, removed or changed since the [previous] state. Services shared by both states
+     * aren't compared, so it's cheap for states derived from one another.
+     */
+    fun changedServicesSince(previous: ServicesState): Set<ServiceName> = services.changedKeys(previous.services)
+
+    private fun update(updated: PersistentHashMap<ServiceName, ServiceInstances>): ServicesState =
+        if (updated === services) this else ServicesState(updated, version + 1)
+
+    override fun equals(other: Any?): Boolean = other is ServicesState && other.services == services
+
+    override fun hashCode(): Int = services.hashCode()
+
+    override fun toString(): String = "ServicesState(serviceNameToInstances=$services)"
 }
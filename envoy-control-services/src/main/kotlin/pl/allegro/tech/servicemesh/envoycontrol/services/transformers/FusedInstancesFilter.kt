@@ -0,0 +1,67 @@
+package pl.allegro.tech.servicemesh.envoycontrol.services.transformers
+
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstance
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+
+/**
+ * Consecutive built-in transformers applied in a single pass over instances of a service. Instances are filtered by
+ * address and port first, so it's equivalent only to transformers in the order of [BUILT_IN_ORDER].
+ */
+internal class FusedInstancesFilter private constructor(
+    private val emptyAddress: Boolean,
+    private val invalidPort: Boolean,
+    private val merge: Boolean,
+    private val ipAddressFilter: IpAddressFilter?
+) {
+    /**
+     * Returns transformed instances, the same object if nothing changed, or null if the service is filtered out.
+     */
+    fun transform(serviceInstances: ServiceInstances): ServiceInstances? {
+        val instances = serviceInstances.instances
+        val kept = ArrayList<ServiceInstance>(instances.size)
+        var ipAddressesOnly = true
+        instances.forEach { instance ->
+            if (isKept(instance)) {
+                kept.add(instance)
+                ipAddressesOnly = ipAddressesOnly && isIpAddress(instance.address.orEmpty())
+            }
+        }
+        return when {
+            !ipAddressesOnly -> null
+            merge && InstanceMerger.hasDuplicateTargets(kept) ->
+                serviceInstances.copy(instances = InstanceMerger.merge(kept))
+            kept.size == instances.size -> serviceInstances
+            else -> serviceInstances.copy(instances = kept.toSet())
+        }
+    }
+
+    private fun isIpAddress(address: String): Boolean = ipAddressFilter?.isIpAddress(address) ?: true
+
+    private fun isKept(instance: ServiceInstance): Boolean =
+        !(emptyAddress && instance.address.isNullOrEmpty()) && !(invalidPort && instance.port == null)
+
+    companion object {
+        val BUILT_IN_ORDER = listOf(
+            EmptyAddressFilter::class, InvalidPortFilter::class, InstanceMerger::class, IpAddressFilter::class
+        )
+
+        /**
+         * Fuses [transformers] if all of them are built-in and they're in the order of [BUILT_IN_ORDER].
+         */
+        fun fuse(transformers: List<ServiceInstancesTransformer>): FusedInstancesFilter? {
+            val types = transformers.map { it::class }
+            val fusable = types.isNotEmpty() && types.distinct().size == types.size &&
+                types.all { it in BUILT_IN_ORDER } && types.sortedBy { BUILT_IN_ORDER.indexOf(it) } == types
+            return if (fusable) {
+                FusedInstancesFilter(
+                    emptyAddress = EmptyAddressFilter::class in types,
+                    invalidPort = InvalidPortFilter::class in types,
+                    merge = InstanceMerger::class in types,
+                    ipAddressFilter = transformers.filterIsInstance<IpAddressFilter>().firstOrNull()
+                )
+            } else {
+                null
+            }
+        }
+    }
+}
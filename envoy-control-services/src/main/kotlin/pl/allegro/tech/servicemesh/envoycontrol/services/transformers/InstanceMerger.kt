@@ -6,34 +6,44 @@ import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
 class InstanceMerger : ServiceInstancesTransformer {
 
     override fun transform(services: Sequence<ServiceInstances>): Sequence<ServiceInstances> = services.map {
-
-        val containsDuplicates = it.instances
-            .groupingBy { it.address to it.port }.eachCount()
-            .any { it.value > 1 }
-
-        if (containsDuplicates) {
+        if (hasDuplicateTargets(it.instances)) {
             it.copy(instances = merge(it.instances))
         } else {
             it
         }
     }
 
-    private fun merge(instances: Set<ServiceInstance>): Set<ServiceInstance> = instances
-        .groupBy { it.address to it.port }
-        .map { (target, instances) ->
-            if (instances.size == 1) {
-                instances[0]
-            } else {
-                ServiceInstance(
-                    id = instances.map { it.id }.joinToString(","),
-                    tags = instances.map { it.tags }.reduce { s1, s2 -> s1 + s2 },
-                    address = target.first,
-                    port = target.second,
-                    regular = instances.any { it.regular },
-                    canary = instances.any { it.canary },
-                    weight = instances.sumOf { it.weight }
-                )
+    internal companion object {
+        private val TARGET_ORDER = compareBy<ServiceInstance>({ it.address }, { it.port })
+
+        /**
+         * Checks if any instances have the same address and port, without allocating a key per instance.
+         */
+        fun hasDuplicateTargets(instances: Collection<ServiceInstance>): Boolean {
+            if (instances.size < 2) {
+                return false
             }
+            val sorted = instances.sortedWith(TARGET_ORDER)
+            return (1 until sorted.size).any { TARGET_ORDER.compare(sorted[it - 1], sorted[it]) == 0 }
         }
-        .toSet()
+
+        fun merge(instances: Collection<ServiceInstance>): Set<ServiceInstance> = instances
+            .groupBy { it.address to it.port }
+            .map { (target, instances) ->
+                if (instances.size == 1) {
+                    instances[0]
+                } else {
+                    ServiceInstance(
+                        id = instances.map { it.id }.joinToString(","),
+                        tags = instances.map { it.tags }.reduce { s1, s2 -> s1 + s2 },
+                        address = target.first,
+                        port = target.second,
+                        regular = instances.any { it.regular },
+                        canary = instances.any { it.canary },
+                        weight = instances.sumOf { it.weight }
+                    )
+                }
+            }
+            .toSet()
+    }
 }
@@ -1,17 +1,27 @@
 package pl.allegro.tech.servicemesh.envoycontrol.services.transformers
 
+import com.github.benmanes.caffeine.cache.Caffeine
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
 
 /**
  * TODO https://github.com/allegro/envoy-control/issues/9
  * Envoy & Envoy Control supports only IP and not hostnames
+ *
+ * Validity of addresses is cached, as instances rarely change their addresses.
  */
-class IpAddressFilter : ServiceInstancesTransformer {
+class IpAddressFilter(cacheSize: Long = DEFAULT_CACHE_SIZE) : ServiceInstancesTransformer {
+
+    private val validAddresses = Caffeine.newBuilder().maximumSize(cacheSize).build<String, Boolean>()
 
     override fun transform(services: Sequence<ServiceInstances>): Sequence<ServiceInstances> =
         services.filter { (_, instances) ->
             instances.all { isIpAddress(it.address.orEmpty()) }
         }
 
-    private fun isIpAddress(address: String): Boolean = address.all { !it.isLetter() }
+    internal fun isIpAddress(address: String): Boolean =
+        validAddresses.get(address) { it.all { char -> !char.isLetter() } }
+
+    companion object {
+        const val DEFAULT_CACHE_SIZE = 100_000L
+    }
 }
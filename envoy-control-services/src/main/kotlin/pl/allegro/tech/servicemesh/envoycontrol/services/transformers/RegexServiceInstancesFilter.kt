@@ -1,11 +1,44 @@
 package pl.allegro.tech.servicemesh.envoycontrol.services.transformers
 
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.google.re2j.Pattern
+import com.google.re2j.PatternSyntaxException
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
 
-class RegexServiceInstancesFilter(private val excludedRegexes: Collection<Regex>) : ServiceInstancesTransformer {
+/**
+ * Filters out services with names matching any of [excludedRegexes].
+ *
+ * The regexes are combined into a single re2j automaton, so a name is matched once instead of once per regex, and
+ * decisions are cached per service name. Regexes with options or features re2j doesn't support are matched one by one.
+ */
+class RegexServiceInstancesFilter(
+    private val excludedRegexes: Collection<Regex>,
+    cacheSize: Long = DEFAULT_CACHE_SIZE
+) : ServiceInstancesTransformer {
+
+    private val combinedRegex: Pattern? = combine(excludedRegexes)
+    private val decisions = Caffeine.newBuilder().maximumSize(cacheSize).build<String, Boolean>()
 
     override fun transform(services: Sequence<ServiceInstances>): Sequence<ServiceInstances> =
         services.filter { (serviceName, _) ->
-            !excludedRegexes.any { serviceName.matches(it) }
+            !decisions.get(serviceName, ::isExcluded)
+        }
+
+    private fun isExcluded(serviceName: String): Boolean = when (combinedRegex) {
+        null -> excludedRegexes.any { serviceName.matches(it) }
+        else -> combinedRegex.matches(serviceName)
+    }
+
+    companion object {
+        const val DEFAULT_CACHE_SIZE = 100_000L
+
+        private fun combine(regexes: Collection<Regex>): Pattern? = try {
+            regexes
+                .takeIf { it.all { regex -> regex.options.isEmpty() } }
+                ?.joinToString("|") { "(?:${it.pattern})" }
+                ?.let { Pattern.compile(it) }
+        } catch (e: PatternSyntaxException) {
+            null
         }
+    }
 }
@@ -2,6 +2,10 @@ package pl.allegro.tech.servicemesh.envoycontrol.services.transformers
 
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
 
+/**
+ * Transforms or filters out instances of each service independently of other services - a transformer may be
+ * invoked only for services which changed since the previous state.
+ */
 interface ServiceInstancesTransformer {
     fun transform(services: Sequence<ServiceInstances>): Sequence<ServiceInstances>
 }
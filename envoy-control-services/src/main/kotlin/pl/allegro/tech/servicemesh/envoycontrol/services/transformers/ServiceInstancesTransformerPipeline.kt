@@ -0,0 +1,74 @@
+package pl.allegro.tech.servicemesh.envoycontrol.services.transformers
+
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceName
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Applies [transformers] to instances of services one by one.
+ *
+ * The output is remembered per service and reused as long as the service gets the same instances, so only services
+ * whose instances changed are transformed again. Consecutive built-in transformers are fused into a single pass over
+ * instances.
+ */
+class ServiceInstancesTransformerPipeline(transformers: List<ServiceInstancesTransformer>) {
+    private val stages: List<(ServiceInstances) -> ServiceInstances?> = stages(transformers)
+    private val transformed = ConcurrentHashMap<ServiceName, Transformed>()
+
+    /**
+     * Returns transformed instances of the service, or null if the service is filtered out.
+     */
+    fun transform(serviceInstances: ServiceInstances): ServiceInstances? {
+        val previous = transformed[serviceInstances.serviceName]
+        if (previous != null && previous.reusableFor(serviceInstances)) {
+            return previous.output
+        }
+        val output = stages.fold(serviceInstances as ServiceInstances?) { instances, stage -> instances?.let(stage) }
+        transformed[serviceInstances.serviceName] = Transformed(serviceInstances, output)
+        return output
+    }
+
+    /**
+     * Forgets the output for a service which is no longer present.
+     */
+    fun evict(serviceName: ServiceName) {
+        transformed.remove(serviceName)
+    }
+
+    /**
+     * Forgets outputs for services other than [serviceNames].
+     */
+    fun retainAll(serviceNames: Set<ServiceName>) {
+        transformed.keys.retainAll(serviceNames)
+    }
+
+    private class Transformed(val input: ServiceInstances, val output: ServiceInstances?) {
+        fun reusableFor(instances: ServiceInstances) = instances === input || instances == input
+    }
+
+    private companion object {
+        fun stages(transformers: List<ServiceInstancesTransformer>): List<(ServiceInstances) -> ServiceInstances?> {
+            val stages = mutableListOf<(ServiceInstances) -> ServiceInstances?>()
+            val builtIns = mutableListOf<ServiceInstancesTransformer>()
+            val flushBuiltIns = {
+                FusedInstancesFilter.fuse(builtIns)
+                    ?.let { fused -> stages.add(fused::transform) }
+                    ?: builtIns.forEach { stages.add(stage(it)) }
+                builtIns.clear()
+            }
+            transformers.forEach { transformer ->
+                if (transformer::class in FusedInstancesFilter.BUILT_IN_ORDER) {
+                    builtIns.add(transformer)
+                } else {
+                    flushBuiltIns()
+                    stages.add(stage(transformer))
+                }
+            }
+            flushBuiltIns()
+            return stages
+        }
+
+        fun stage(transformer: ServiceInstancesTransformer): (ServiceInstances) -> ServiceInstances? =
+            { instances -> transformer.transform(sequenceOf(instances)).firstOrNull() }
+    }
+}
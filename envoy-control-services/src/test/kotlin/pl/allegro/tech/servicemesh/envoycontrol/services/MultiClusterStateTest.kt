@@ -16,6 +16,57 @@ internal class MultiClusterStateTest {
         assertThat(multiClusterState1).isEqualTo(multiClusterState2)
     }
 
+    @Test
+    fun `should return services touched since previous state`() {
+        // given
+        val previous = ClusterState(servicesState("a", "b"), Locality.LOCAL, "dc1", ServicesChanges(0, 1))
+        val remote = ClusterState(servicesState("c"), Locality.REMOTE, "dc2", ServicesChanges(0, 1))
+        val current = ClusterState(
+            servicesState("a", "d"), Locality.LOCAL, "dc1",
+            ServicesChanges(previousVersion = 1, version = 2, added = setOf("d"), removed = setOf("b"))
+        )
+
+        // when
+        val changed = MultiClusterState(listOf(current, remote))
+            .changedServicesSince(MultiClusterState(listOf(previous, remote)))
+
+        // then
+        assertThat(changed).containsExactlyInAnyOrder("b", "d")
+    }
+
+    @Test
+    fun `should not determine touched services when changes don't follow previous state`() {
+        // given
+        val previous = ClusterState(servicesState("a"), Locality.LOCAL, "dc1", ServicesChanges(0, 1))
+        val withVersionGap = previous.copy(changes = ServicesChanges(2, 3, changed = setOf("a")))
+        val untracked = previous.copy(changes = null)
+
+        // expect
+        assertThat(MultiClusterState(withVersionGap).changedServicesSince(MultiClusterState(previous))).isNull()
+        assertThat(MultiClusterState(untracked).changedServicesSince(MultiClusterState(previous))).isNull()
+        assertThat(MultiClusterState(previous).changedServicesSince(MultiClusterState.empty())).isNull()
+    }
+
+    @Test
+    fun `should compute changes between services states`() {
+        // given
+        val previous = servicesState("a", "b", "c")
+        val current = servicesState("a", "c", "d")
+            .change(ServiceInstances("c", setOf(ServiceInstance("2", address = "0.0.0.1", port = 1, tags = setOf()))))
+
+        // when
+        val changes = ServicesChanges.between(previous, current, previousVersion = 1, version = 2)
+
+        // then
+        assertThat(changes.added).containsExactly("d")
+        assertThat(changes.removed).containsExactly("b")
+        assertThat(changes.changed).containsExactly("c")
+    }
+
+    private fun servicesState(vararg services: String) = ServicesState(
+        ConcurrentHashMap(services.associateWith { ServiceInstances(it, emptySet()) })
+    )
+
     private fun createMultiClusterState(): MultiClusterState {
         val serviceInstance = ServiceInstance("1", address = "0.0.0.0", port = 1, tags = setOf("a"))
         val serviceInstances = ServiceInstances("a", setOf(serviceInstance))
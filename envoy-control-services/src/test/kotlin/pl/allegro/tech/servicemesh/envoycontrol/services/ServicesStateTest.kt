@@ -0,0 +1,94 @@
+package pl.allegro.tech.servicemesh.envoycontrol.services
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+internal class ServicesStateTest {
+
+    @Test
+    fun `should not modify state on update`() {
+        // given
+        val state = servicesState("a", "b")
+
+        // when
+        val updated = state.remove("a").add("c").change(instances("b", port = 2))
+
+        // then
+        assertThat(state.serviceNames()).containsExactlyInAnyOrder("a", "b")
+        assertThat(state["b"]).isEqualTo(instances("b"))
+        assertThat(updated.serviceNames()).containsExactlyInAnyOrder("b", "c")
+        assertThat(updated["b"]).isEqualTo(instances("b", port = 2))
+        assertThat(updated.version()).isEqualTo(state.version() + 3)
+    }
+
+    @Test
+    fun `should return the same state when update doesn't change it`() {
+        // given
+        val state = servicesState("a")
+
+        // expect
+        assertThat(state.add("a")).isSameAs(state)
+        assertThat(state.remove("b")).isSameAs(state)
+        assertThat(state.change(instances("a"))).isSameAs(state)
+        assertThat(state.removeServicesWithoutInstances()).isSameAs(state)
+    }
+
+    @Test
+    fun `should be equal to state with the same services regardless of how it was built`() {
+        // given
+        val built = servicesState(*(0 until 1000).map { "service-$it" }.toTypedArray())
+        val added = (0 until 2000).fold(ServicesState()) { state, index ->
+            state.change(instances("service-$index"))
+        }
+        val derived = (1000 until 2000).fold(added) { state, index -> state.remove("service-$index") }
+
+        // expect
+        assertThat(derived).isEqualTo(built).hasSameHashCodeAs(built)
+        assertThat(derived.serviceNameToInstances).isEqualTo(built.serviceNameToInstances)
+    }
+
+    @Test
+    fun `should find services changed since previous state`() {
+        // given
+        val previous = servicesState(*(0 until 1000).map { "service-$it" }.toTypedArray())
+
+        // when
+        val current = previous
+            .remove("service-1")
+            .add("service-1000")
+            .change(instances("service-2", port = 2))
+            .change(instances("service-3", port = 3))
+            .change(instances("service-3"))
+
+        // then
+        assertThat(current.changedServicesSince(previous))
+            .containsExactlyInAnyOrder("service-1", "service-1000", "service-2")
+        assertThat(previous.changedServicesSince(current))
+            .containsExactlyInAnyOrder("service-1", "service-1000", "service-2")
+        assertThat(current.changedServicesSince(current)).isEmpty()
+    }
+
+    @Test
+    fun `should keep services with colliding hashes`() {
+        // given
+        assertThat("Aa".hashCode()).isEqualTo("BB".hashCode())
+        val state = ServicesState().change(instances("Aa")).change(instances("BB", port = 2))
+
+        // when
+        val withoutAa = state.remove("Aa")
+
+        // then
+        assertThat(state["Aa"]).isEqualTo(instances("Aa"))
+        assertThat(state["BB"]).isEqualTo(instances("BB", port = 2))
+        assertThat(withoutAa.serviceNames()).containsExactly("BB")
+        assertThat(withoutAa.changedServicesSince(state)).containsExactly("Aa")
+    }
+
+    private fun servicesState(vararg services: String) = ServicesState(
+        services.associateWith { instances(it) }
+    )
+
+    private fun instances(service: String, port: Int = 1) = ServiceInstances(
+        service, setOf(ServiceInstance("$service-1", address = "127.0.0.1", port = port, tags = setOf()))
+    )
+}
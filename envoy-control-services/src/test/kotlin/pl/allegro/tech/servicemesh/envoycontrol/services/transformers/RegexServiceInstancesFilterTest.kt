@@ -0,0 +1,49 @@
+package pl.allegro.tech.servicemesh.envoycontrol.services.transformers
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+
+internal class RegexServiceInstancesFilterTest {
+
+    private val services = sequenceOf("service-a", "service-b", "other", "other-service", "SERVICE-C")
+        .map { ServiceInstances(it, emptySet()) }
+
+    @Test
+    fun `should filter out services with names matching whole excluded regexes`() {
+        // given
+        val filter = RegexServiceInstancesFilter(listOf(Regex("service-.*"), Regex("other")))
+
+        // when
+        val filtered = filter.transform(services)
+
+        // then
+        assertThat(filtered.map { it.serviceName }.toList()).containsExactly("other-service", "SERVICE-C")
+    }
+
+    @Test
+    fun `should filter out services with regexes which can't be combined`() {
+        // given
+        val filter = RegexServiceInstancesFilter(
+            listOf(Regex("(?!service).*-service"), Regex("service-c", RegexOption.IGNORE_CASE))
+        )
+
+        // when
+        val filtered = filter.transform(services)
+
+        // then
+        assertThat(filtered.map { it.serviceName }.toList()).containsExactly("service-a", "service-b", "other")
+    }
+
+    @Test
+    fun `should not filter out services when there are no excluded regexes`() {
+        // given
+        val filter = RegexServiceInstancesFilter(emptyList())
+
+        // when
+        val filtered = filter.transform(services)
+
+        // then
+        assertThat(filtered.toList()).isEqualTo(services.toList())
+    }
+}
@@ -0,0 +1,100 @@
+package pl.allegro.tech.servicemesh.envoycontrol.services.transformers
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstance
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+
+internal class ServiceInstancesTransformerPipelineTest {
+
+    private val builtIns = listOf(EmptyAddressFilter(), InvalidPortFilter(), InstanceMerger(), IpAddressFilter())
+
+    private val services = listOf(
+        ServiceInstances("valid", setOf(instance("1", "127.0.0.1", 80), instance("2", "127.0.0.2", 80))),
+        ServiceInstances("empty-address", setOf(instance("1", "", 80), instance("2", null, 80))),
+        ServiceInstances("invalid-port", setOf(instance("1", "127.0.0.1", null), instance("2", "127.0.0.2", 80))),
+        ServiceInstances("duplicates", setOf(instance("1", "127.0.0.1", 80), instance("2", "127.0.0.1", 80))),
+        ServiceInstances("hostname", setOf(instance("1", "localhost", 80), instance("2", "127.0.0.2", 80))),
+        ServiceInstances("hostname-without-port", setOf(instance("1", "localhost", null))),
+        ServiceInstances("no-instances", setOf())
+    )
+
+    @Test
+    fun `should transform instances the same way as chained built-in transformers`() {
+        // given
+        val pipeline = ServiceInstancesTransformerPipeline(builtIns)
+
+        // when
+        val transformed = services.mapNotNull { pipeline.transform(it) }
+
+        // then
+        assertThat(transformed).isEqualTo(chained(builtIns, services))
+        assertThat(transformed.map { it.serviceName }).containsExactly(
+            "valid", "empty-address", "invalid-port", "duplicates", "hostname-without-port", "no-instances"
+        )
+    }
+
+    @Test
+    fun `should transform instances the same way as chained transformers in custom order`() {
+        // given
+        val excludingTransformer = RegexServiceInstancesFilter(listOf(Regex("valid")))
+        val transformers = listOf(IpAddressFilter(), InvalidPortFilter(), excludingTransformer, InstanceMerger())
+        val pipeline = ServiceInstancesTransformerPipeline(transformers)
+
+        // when
+        val transformed = services.mapNotNull { pipeline.transform(it) }
+
+        // then
+        assertThat(transformed).isEqualTo(chained(transformers, services))
+        assertThat(transformed.map { it.serviceName }).doesNotContain("valid", "hostname", "hostname-without-port")
+    }
+
+    @Test
+    fun `should return the same instances when nothing is filtered out`() {
+        // given
+        val pipeline = ServiceInstancesTransformerPipeline(builtIns)
+        val valid = services.first()
+
+        // expect
+        assertThat(pipeline.transform(valid)).isSameAs(valid)
+    }
+
+    @Test
+    fun `should transform instances again only when they changed`() {
+        // given
+        val counting = CountingTransformer()
+        val pipeline = ServiceInstancesTransformerPipeline(builtIns + counting)
+        val duplicates = services[3]
+        val first = pipeline.transform(duplicates)
+
+        // when
+        val second = pipeline.transform(duplicates.copy())
+
+        // then
+        assertThat(second).isSameAs(first)
+        assertThat(counting.invocations).isEqualTo(1)
+
+        // when
+        pipeline.transform(duplicates.copy(instances = setOf(instance("3", "127.0.0.3", 80))))
+        pipeline.evict(duplicates.serviceName)
+        pipeline.transform(duplicates)
+
+        // then
+        assertThat(counting.invocations).isEqualTo(3)
+    }
+
+    private fun chained(transformers: List<ServiceInstancesTransformer>, services: List<ServiceInstances>) =
+        transformers.fold(services.asSequence()) { instances, transformer -> transformer.transform(instances) }
+            .toList()
+
+    private fun instance(id: String, address: String?, port: Int?) = ServiceInstance(
+        id = id, tags = setOf("tag-$id"), address = address, port = port
+    )
+
+    private class CountingTransformer : ServiceInstancesTransformer {
+        var invocations = 0
+
+        override fun transform(services: Sequence<ServiceInstances>): Sequence<ServiceInstances> =
+            services.onEach { invocations++ }
+    }
+}
@@ -8,6 +8,8 @@ class ConsulProperties {
     var host: String = "localhost"
     var port = 8500
     var subscriptionDelay: Duration = Duration.ofMillis(20) // max 50 subscription/s
+    var subscriptionPacing = SubscriptionPacingProperties()
+    var bulkWatch = BulkWatchProperties()
     var watcher = ConsulWatcherOkHttpProperties()
     var tags = TagsProperties()
     var blacklist = BlacklistProperties()
@@ -18,6 +20,19 @@ class ConsulWatcherOkHttpProperties {
     var connectTimeout: Duration = Duration.ofSeconds(2)
     var dispatcherMaxPoolSize = 2000
     var dispatcherPoolKeepAliveTime: Duration = Duration.ofSeconds(30)
+    var virtualThreads = false
+}
+
+class SubscriptionPacingProperties {
+    var enabled = false
+    var rate = 50.0 // subscriptions/s
+    var burst = 100
+}
+
+class BulkWatchProperties {
+    var enabled = false
+    var batchSize = 20
+    var waitTime: Duration = Duration.ofSeconds(50)
 }
 
 class TagsProperties {
@@ -0,0 +1,161 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+import pl.allegro.tech.discovery.consul.recipes.watch.Canceller
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Watches instances of all watched services with a blocking query on health checks and one on catalog services,
+ * instead of a blocking query per service. When checks change, instances are fetched only for services whose checks
+ * changed. A registration which doesn't change checks moves only the index of the catalog, then instances are fetched
+ * for services whose tags changed in the catalog and for services without checks. A registration which changes
+ * neither checks nor tags of a service with checks, e.g. of an instance with a new port, isn't noticed until the next
+ * change of the service. Instances are fetched in batches of [batchSize] concurrent requests. Instances of a newly
+ * watched service are fetched right away.
+ */
+internal class BulkServiceInstancesWatcher(
+    private val client: ConsulHealthClient,
+    private val serviceMapper: ConsulServiceMapper,
+    private val batchSize: Int,
+    private val waitTime: Duration,
+    private val onInstances: (ServiceInstances) -> Unit,
+    private val onError: (String, Exception) -> Unit
+) : AutoCloseable {
+    // locks of fetches of watched services
+    private val watched = ConcurrentHashMap<String, Any>()
+    private val failed = ConcurrentHashMap.newKeySet<String>()
+    private val checksIndex = ServiceChecksIndex()
+    private val checksPolled = AtomicBoolean()
+    // tags of services in the catalog, used only by the catalog poll
+    private var catalogTags = emptyMap<String, List<String>>()
+    private val pollExecutor = Executors.newFixedThreadPool(2, threadFactory("consul-bulk-watcher"))
+    private val fetchExecutor = Executors.newFixedThreadPool(batchSize, threadFactory("consul-bulk-fetch"))
+
+    @Volatile
+    private var running = true
+
+    fun start() {
+        pollExecutor.execute { poll("catalog services", ::pollCatalog) }
+    }
+
+    fun watch(service: String): Canceller {
+        val fetchNow = synchronized(checksIndex) {
+            watched.putIfAbsent(service, Any())
+            // before the first poll all watched services are fetched by it
+            checksIndex.initialized
+        }
+        if (fetchNow) {
+            fetchExecutor.execute { fetch(service) }
+        }
+        return Canceller {
+            watched.remove(service)
+            failed.remove(service)
+        }
+    }
+
+    override fun close() {
+        running = false
+        pollExecutor.shutdownNow()
+        fetchExecutor.shutdownNow()
+    }
+
+    private fun poll(what: String, pollOnce: (Long) -> Long) {
+        var index = 0L
+        while (running) {
+            index = try {
+                pollOnce(index)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                return
+            } catch (e: Exception) {
+                if (running) {
+                    onError(what, e)
+                    sleepBeforeRetry()
+                }
+                index
+            }
+        }
+    }
+
+    private fun pollCatalog(index: Long): Long {
+        val catalog = client.catalogServices(index, waitTime)
+        val previousTags = catalogTags
+        catalogTags = catalog.tags
+        if (checksPolled.compareAndSet(false, true)) {
+            // checks are polled after the first index of the catalog is known, so a registration can't slip between
+            // the first fetch of all services and the index
+            pollExecutor.execute { poll("checks of all services", ::pollChecks) }
+        } else if (catalog.index != index) {
+            fetchInBatches(changedInCatalog(previousTags, catalog.tags))
+        }
+        // the index going backwards means that Consul state was reset
+        return if (catalog.index < index) 0 else catalog.index
+    }
+
+    /**
+     * Returns watched services whose tags changed in the catalog and watched services without checks, because the
+     * catalog doesn't tell which services were registered again.
+     */
+    private fun changedInCatalog(previous: Map<String, List<String>>, current: Map<String, List<String>>): Set<String> {
+        val services = watched.keys.toSet()
+        val unchecked = synchronized(checksIndex) { checksIndex.unchecked(services) }
+        return services.filterTo(HashSet()) { it in unchecked || previous[it]?.toSet() != current[it]?.toSet() }
+    }
+
+    private fun pollChecks(index: Long): Long {
+        val checks = client.checks(index, waitTime)
+        val changed = synchronized(checksIndex) { checksIndex.update(checks.checks, watched.keys) }
+        fetchInBatches(changed + drainFailed())
+        // the index going backwards means that Consul state was reset
+        return if (checks.index < index) 0 else checks.index
+    }
+
+    private fun sleepBeforeRetry() {
+        try {
+            Thread.sleep(RETRY_DELAY.toMillis())
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    private fun drainFailed(): Set<String> = failed.toSet().also { failed.removeAll(it) }
+
+    private fun fetchInBatches(services: Set<String>) {
+        services.chunked(batchSize).forEach { batch ->
+            batch.map { service -> fetchExecutor.submit { fetch(service) } }
+                .forEach { it.get() }
+        }
+    }
+
+    private fun fetch(service: String) {
+        val fetchLock = watched[service] ?: return
+        try {
+            // both polls may fetch the service at once, the later fetch has to be handed over after the earlier one
+            synchronized(fetchLock) {
+                val instances = client.passingInstances(service)
+                    .mapTo(HashSet()) { serviceMapper.toDomainInstance(it) }
+                onInstances(ServiceInstances(service, instances))
+            }
+        } catch (e: Exception) {
+            // fetched again after the next poll
+            failed.add(service)
+            onError(service, e)
+        }
+    }
+
+    private fun threadFactory(name: String): ThreadFactory {
+        val counter = AtomicInteger()
+        return ThreadFactory { runnable ->
+            Thread(runnable, "$name-${counter.getAndIncrement()}").apply { isDaemon = true }
+        }
+    }
+
+    private companion object {
+        val RETRY_DELAY: Duration = Duration.ofSeconds(1)
+    }
+}
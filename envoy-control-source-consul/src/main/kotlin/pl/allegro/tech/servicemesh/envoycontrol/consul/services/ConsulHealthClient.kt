@@ -0,0 +1,70 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+import com.ecwid.consul.v1.ConsulClient
+import com.ecwid.consul.v1.QueryParams
+import com.ecwid.consul.v1.catalog.CatalogServicesRequest
+import com.ecwid.consul.v1.health.model.Check
+import java.time.Duration
+
+/**
+ * Consul endpoints used to watch instances of all services with blocking queries on health checks and catalog services.
+ */
+interface ConsulHealthClient {
+    /**
+     * Blocking query for health checks of all nodes and services, which returns when the Consul index moves past
+     * [index] or when [wait] passes.
+     */
+    fun checks(index: Long, wait: Duration): ConsulChecks
+
+    /**
+     * Blocking query for catalog services, which returns tags of all services when the Consul index of the catalog
+     * moves past [index] or when [wait] passes. The index moves on every registration, also when checks of the instance
+     * don't change.
+     */
+    fun catalogServices(index: Long, wait: Duration): ConsulCatalogServices
+
+    fun passingInstances(service: String): List<ConsulServiceInstance>
+}
+
+data class ConsulCheck(
+    val node: String,
+    // empty for checks of nodes
+    val serviceName: String,
+    val modifyIndex: Long
+)
+
+class ConsulChecks(val index: Long, val checks: List<ConsulCheck>)
+
+class ConsulCatalogServices(val index: Long, val tags: Map<String, List<String>>)
+
+class EcwidConsulHealthClient(private val client: ConsulClient) : ConsulHealthClient {
+
+    override fun checks(index: Long, wait: Duration): ConsulChecks {
+        // checks in any state
+        val response = client.getHealthChecksState(null as Check.CheckStatus?, QueryParams(wait.seconds, index))
+        return ConsulChecks(
+            index = response.consulIndex ?: index,
+            checks = response.value.orEmpty().map {
+                ConsulCheck(node = it.node, serviceName = it.serviceName.orEmpty(), modifyIndex = it.modifyIndex ?: 0)
+            }
+        )
+    }
+
+    override fun catalogServices(index: Long, wait: Duration): ConsulCatalogServices {
+        val request = CatalogServicesRequest.newBuilder()
+            .setQueryParams(QueryParams(wait.seconds, index))
+            .build()
+        val response = client.getCatalogServices(request)
+        return ConsulCatalogServices(index = response.consulIndex ?: index, tags = response.value.orEmpty())
+    }
+
+    override fun passingInstances(service: String): List<ConsulServiceInstance> =
+        client.getHealthServices(service, true, QueryParams.DEFAULT).value.orEmpty().map {
+            ConsulServiceInstance(
+                it.service.id,
+                it.service.tags.orEmpty(),
+                it.service.address?.takeIf { address -> address.isNotEmpty() } ?: it.node.address,
+                it.service.port ?: 0
+            )
+        }
+}
@@ -6,37 +6,66 @@ import pl.allegro.tech.servicemesh.envoycontrol.services.ClusterState
 import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState
 import pl.allegro.tech.servicemesh.envoycontrol.services.MultiClusterState.Companion.toMultiClusterState
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceName
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesChanges
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesStateChange
 import pl.allegro.tech.servicemesh.envoycontrol.services.transformers.ServiceInstancesTransformer
+import pl.allegro.tech.servicemesh.envoycontrol.services.transformers.ServiceInstancesTransformerPipeline
 import reactor.core.publisher.Flux
-import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicReference
 
 class ConsulLocalClusterStateChanges(
     private val consulChanges: ConsulServiceChanges,
     private val locality: Locality,
     private val cluster: String,
-    private val transformers: List<ServiceInstancesTransformer> = emptyList(),
+    transformers: List<ServiceInstancesTransformer> = emptyList(),
     override val latestServiceState: AtomicReference<ServicesState> = AtomicReference(ServicesState())
 ) : LocalClusterStateChanges {
+    private val pipeline = ServiceInstancesTransformerPipeline(transformers)
+    private val initialState = ClusterState(ServicesState(), locality, cluster, ServicesChanges(0, 0))
+
     override fun stream(): Flux<MultiClusterState> =
         consulChanges
-            .watchState()
-            .map { state ->
-                transformers
-                    .fold(state.allInstances().asSequence()) { instancesSequence, transformer ->
-                        transformer.transform(instancesSequence)
-                    }
-                    .associateBy { it.serviceName }
-                    .toConcurrentHashMap()
-                    .let(::ServicesState)
-            }
-            .doOnNext { latestServiceState.set(it) }
-            .map {
-                ClusterState(it, locality, cluster).toMultiClusterState()
-            }
+            .watchStateChanges()
+            .scan(initialState) { previous, change -> transform(previous, change) }
+            .filter { it !== initialState }
+            .doOnNext { latestServiceState.set(it.servicesState) }
+            .map { it.toMultiClusterState() }
 
     override fun isInitialStateLoaded(): Boolean = latestServiceState.get() != ServicesState()
 
-    private fun Map<String, ServiceInstances>.toConcurrentHashMap() = ConcurrentHashMap(this)
+    private fun transform(previous: ClusterState, change: ServicesStateChange): ClusterState {
+        val changes = change.changes
+        if (!changes.follows(previous.changes)) {
+            // outputs of the pipeline are reused for services which didn't change
+            val serviceNames = previous.servicesState.serviceNames() + change.state.serviceNames()
+            val servicesState = serviceNames.fold(previous.servicesState) { state, serviceName ->
+                state.withTransformed(serviceName, change.state[serviceName])
+            }
+            return ClusterState(servicesState, locality, cluster, changes.copy(previousVersion = -1))
+        }
+
+        // only touched services are transformed, the rest is taken from the previous state
+        val touched = changes.touched()
+        val servicesState = touched.fold(previous.servicesState) { state, serviceName ->
+            state.withTransformed(serviceName, change.state[serviceName])
+        }
+        val transformedChanges = ServicesChanges.between(
+            previous = previous.servicesState,
+            current = servicesState,
+            previousVersion = changes.previousVersion,
+            version = changes.version,
+            candidates = touched
+        )
+        return ClusterState(servicesState, locality, cluster, transformedChanges)
+    }
+
+    private fun ServicesState.withTransformed(serviceName: ServiceName, instances: ServiceInstances?): ServicesState {
+        if (instances == null) {
+            pipeline.evict(serviceName)
+        }
+        val transformed = instances?.let { pipeline.transform(it) }
+        return transformed?.let { change(it) } ?: remove(serviceName)
+    }
 }
@@ -9,16 +9,24 @@ import pl.allegro.tech.discovery.consul.recipes.watch.catalog.ServicesWatcher
 import pl.allegro.tech.discovery.consul.recipes.watch.health.HealthServiceInstancesWatcher
 import pl.allegro.tech.servicemesh.envoycontrol.DefaultEnvoyControlMetrics
 import pl.allegro.tech.servicemesh.envoycontrol.EnvoyControlMetrics
+import pl.allegro.tech.servicemesh.envoycontrol.consul.BulkWatchProperties
+import pl.allegro.tech.servicemesh.envoycontrol.consul.SubscriptionPacingProperties
 import pl.allegro.tech.servicemesh.envoycontrol.logger
 import pl.allegro.tech.servicemesh.envoycontrol.server.ReadinessStateHandler
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstances
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesChanges
 import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesStateChange
 import pl.allegro.tech.servicemesh.envoycontrol.utils.CHECKPOINT_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.ENVOY_CONTROL_WARM_UP_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.ENVOY_CONTROL_WARM_UP_PHASE_METRIC
+import pl.allegro.tech.servicemesh.envoycontrol.utils.PHASE_TAG
 import pl.allegro.tech.servicemesh.envoycontrol.utils.SERVICES_STATE_METRIC
 import pl.allegro.tech.servicemesh.envoycontrol.utils.measureDiscardedItems
 import reactor.core.publisher.Flux
 import reactor.core.publisher.FluxSink
+import reactor.core.scheduler.Scheduler
+import reactor.core.scheduler.Schedulers
 import java.time.Duration
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
@@ -34,10 +42,20 @@ class ConsulServiceChanges(
     private val subscriptionDelay: Duration = Duration.ZERO,
     private val readinessStateHandler: ReadinessStateHandler,
     private val serviceWatchPolicy: ServiceWatchPolicy = NoOpServiceWatchPolicy,
+    private val subscriptionPacing: SubscriptionPacingProperties = SubscriptionPacingProperties(),
+    private val subscriptionPriority: ServiceSubscriptionPriority = NoOpServiceSubscriptionPriority,
+    private val bulkWatch: BulkWatchProperties = BulkWatchProperties(),
+    private val healthClient: ConsulHealthClient? = null,
 ) {
     private val logger by logger()
 
-    fun watchState(): Flux<ServicesState> {
+    fun watchState(): Flux<ServicesState> = watchStateChanges().map { it.state }
+
+    /**
+     * Emits snapshots of the state together with services changed since the previous emission. Changes made while
+     * the subscriber is busy are accumulated, so none of them is lost when intermediate emissions are dropped.
+     */
+    fun watchStateChanges(): Flux<ServicesStateChange> {
         val watcher =
             StateWatcher(
                 watcher,
@@ -47,14 +65,19 @@ class ConsulServiceChanges(
                 subscriptionDelay,
                 readinessStateHandler,
                 serviceWatchPolicy,
+                subscriptionPacing,
+                subscriptionPriority,
+                bulkWatch,
+                healthClient,
             )
-        return Flux.create<ServicesState>(
+        return Flux.create<Unit>(
             { sink ->
-                watcher.start { state: ServicesState -> sink.next(state) }
+                watcher.start { sink.next(Unit) }
             },
             FluxSink.OverflowStrategy.LATEST
         )
             .measureDiscardedItems("consul-service-changes", metrics.meterRegistry)
+            .handle<ServicesStateChange> { _, sink -> watcher.drainChanges()?.let { sink.next(it) } }
             .checkpoint("consul-service-changes-emitted")
             .name(SERVICES_STATE_METRIC)
             .tag(CHECKPOINT_TAG, "consul-emitted")
@@ -77,8 +100,12 @@ class ConsulServiceChanges(
         private val subscriptionDelay: Duration,
         private val readinessStateHandler: ReadinessStateHandler,
         private val serviceWatchPolicy: ServiceWatchPolicy,
+        subscriptionPacing: SubscriptionPacingProperties,
+        subscriptionPriority: ServiceSubscriptionPriority,
+        bulkWatch: BulkWatchProperties,
+        healthClient: ConsulHealthClient?,
     ) : AutoCloseable {
-        lateinit var stateReceiver: (ServicesState) -> (Unit)
+        lateinit var stateReceiver: () -> (Unit)
 
         private val logger by logger()
 
@@ -88,6 +115,9 @@ class ConsulServiceChanges(
         @Volatile
         private var state = ServicesState()
         private val stateLock = Any()
+        private val pendingServices = mutableSetOf<String>()
+        private var publishedState = ServicesState()
+        private var publishedVersion = 0L
         private val watchedServices = mutableMapOf<String, Canceller>()
 
         @Volatile
@@ -96,7 +126,31 @@ class ConsulServiceChanges(
 
         private val initialLoader = InitialLoader(readinessStateHandler, metrics)
 
-        fun start(stateReceiver: (ServicesState) -> Unit) {
+        private val pacerScheduler: Scheduler? = if (subscriptionPacing.enabled) {
+            Schedulers.newSingle("consul-subscription-pacer")
+        } else null
+        private val subscriptionPacer = pacerScheduler?.let {
+            SubscriptionPacer(
+                rate = subscriptionPacing.rate,
+                burst = subscriptionPacing.burst,
+                priority = subscriptionPriority,
+                scheduler = it,
+                subscribe = ::subscribe
+            )
+        }
+
+        private val bulkWatcher = if (bulkWatch.enabled) {
+            BulkServiceInstancesWatcher(
+                client = requireNotNull(healthClient) { "Consul health client is required to watch services in bulk" },
+                serviceMapper = serviceMapper,
+                batchSize = bulkWatch.batchSize,
+                waitTime = bulkWatch.waitTime,
+                onInstances = ::handleFetchedInstances,
+                onError = { name, error -> logger.warn("Error while watching $name", error) }
+            )
+        } else null
+
+        fun start(stateReceiver: () -> Unit) {
             if (canceller == null) {
                 synchronized(StateWatcher::class.java) {
                     if (canceller == null) {
@@ -112,6 +166,7 @@ class ConsulServiceChanges(
                                     )
                                 }
                             )
+                        bulkWatcher?.start()
                     }
                 }
             }
@@ -125,6 +180,8 @@ class ConsulServiceChanges(
                 canceller?.cancel()
                 canceller = null
             }
+            pacerScheduler?.dispose()
+            bulkWatcher?.close()
         }
 
         private fun handleServicesChange(services: RecipesServices) = synchronized(servicesLock) {
@@ -133,42 +190,77 @@ class ConsulServiceChanges(
             initialLoader.update(serviceNames)
 
             val newServices = serviceNames - lastServices
-            newServices.forEach { service ->
-                handleNewService(service)
-                Thread.sleep(subscriptionDelay.toMillis())
+            val removedServices = lastServices - serviceNames
+            if (subscriptionPacer != null) {
+                removedServices.forEach { subscriptionPacer.cancel(it) }
+                subscriptionPacer.submit(newServices)
+            } else {
+                newServices.forEach { service ->
+                    handleNewService(service)
+                    Thread.sleep(subscriptionDelay.toMillis())
+                }
             }
 
-            val removedServices = lastServices - serviceNames
             removedServices.forEach { handleServiceRemoval(it) }
 
             lastServices = serviceNames
         }
 
+        private fun subscribe(service: String) = synchronized(servicesLock) {
+            // the service could have been removed while it was waiting for the subscription
+            if (service in lastServices) {
+                handleNewService(service)
+            }
+        }
+
         private fun shouldBeWatched(service: String, tags: List<String>?): Boolean =
             serviceWatchPolicy.shouldBeWatched(service, tags ?: emptyList())
 
         private fun handleNewService(service: String) = synchronized(stateLock) {
+            val canceller = bulkWatcher?.watch(service)
+                ?.also { logger.info("Start watching $service in bulk") }
+                ?: watchServiceInstances(service)
+            val oldCanceller = watchedServices.put(service, canceller)
+            oldCanceller?.cancel()
+            initialLoader.subscriptionDone(service)
+
+            val previousState = state
+            state = state.add(service)
+            if (state !== previousState) {
+                pendingServices.add(service)
+                publishState()
+            }
+            metrics.serviceAdded()
+        }
+
+        private fun watchServiceInstances(service: String): Canceller {
             val instancesWatcher = HealthServiceInstancesWatcher(
                 service, watcher, JacksonJsonDeserializer(objectMapper)
             )
             logger.info("Start watching $service on ${instancesWatcher.endpoint()}")
-            val canceller = instancesWatcher.watch(
+            return instancesWatcher.watch(
                 { instances -> handleServiceInstancesChange(instances.body) },
                 { error -> logger.warn("Error while watching service $service", error) }
             )
-            val oldCanceller = watchedServices.put(service, canceller)
-            oldCanceller?.cancel()
-
-            val stateChanged = state.add(service)
-            if (stateChanged) publishState()
-            metrics.serviceAdded()
         }
 
         private fun handleServiceInstancesChange(recipesInstances: RecipesServiceInstances) = synchronized(stateLock) {
-            initialLoader.observed(recipesInstances.serviceName)
-            val instances = recipesInstances.toDomainInstances()
-            val stateChanged = state.change(instances)
-            if (stateChanged) {
+            handleInstancesChange(recipesInstances.toDomainInstances())
+        }
+
+        private fun handleFetchedInstances(instances: ServiceInstances) = synchronized(stateLock) {
+            // instances could have been fetched after the service was removed
+            if (instances.serviceName in watchedServices) {
+                handleInstancesChange(instances)
+            }
+        }
+
+        private fun handleInstancesChange(instances: ServiceInstances) {
+            initialLoader.observed(instances.serviceName)
+            val previousState = state
+            state = state.change(instances)
+            if (state !== previousState) {
+                pendingServices.add(instances.serviceName)
                 val addresses = instances.instances.joinToString { "[${it.id} - ${it.address}:${it.port}]" }
                 logger.info("Instances for ${instances.serviceName} changed: $addresses")
 
@@ -187,28 +279,63 @@ class ConsulServiceChanges(
 
         private fun handleServiceRemoval(service: String) = synchronized(stateLock) {
             logger.info("Stop watching $service")
-            val stateChanged = state.remove(service)
-            if (stateChanged) publishState()
+            val previousState = state
+            state = state.remove(service)
+            if (state !== previousState) {
+                pendingServices.add(service)
+                publishState()
+            }
             watchedServices[service]?.cancel()
             watchedServices.remove(service)
+            initialLoader.subscriptionDone(service)
             metrics.serviceRemoved()
         }
 
         private fun publishState() {
             if (initialLoader.ready) {
-                stateReceiver(state)
+                stateReceiver()
+            }
+        }
+
+        fun drainChanges(): ServicesStateChange? = synchronized(stateLock) {
+            if (pendingServices.isEmpty()) {
+                return null
+            }
+            val currentState = state
+            val changes = ServicesChanges.between(
+                previous = publishedState,
+                current = currentState,
+                previousVersion = publishedVersion,
+                version = publishedVersion + 1,
+                candidates = pendingServices.toList()
+            )
+            pendingServices.clear()
+            if (changes.isEmpty()) {
+                return null
             }
+            publishedState = currentState
+            publishedVersion = changes.version
+            ServicesStateChange(currentState, changes)
         }
 
+        /**
+         * Marks the control plane ready when instances of all services known at startup are loaded. The warm-up is
+         * measured in phases: listing services, subscribing to them and loading their instances.
+         */
         private class InitialLoader(
             private val readinessStateHandler: ReadinessStateHandler,
             private val metrics: EnvoyControlMetrics
         ) {
             private val remaining = ConcurrentHashMap.newKeySet<String>()
+            private val unsubscribed = ConcurrentHashMap.newKeySet<String>()
             private var startTimer: Long = 0
 
+            @Volatile
+            private var phaseStartTimer: Long = 0
+
             init {
                 startTimer = System.currentTimeMillis()
+                phaseStartTimer = startTimer
                 readinessStateHandler.unready()
             }
 
@@ -222,7 +349,18 @@ class ConsulServiceChanges(
             fun update(services: Collection<String>) {
                 if (!initialized) {
                     remaining.addAll(services)
+                    unsubscribed.addAll(services)
                     initialized = true
+                    phaseFinished("services")
+                }
+            }
+
+            /**
+             * Called when the service is subscribed or removed, which may happen before its subscription.
+             */
+            fun subscriptionDone(service: String) {
+                if (unsubscribed.remove(service) && unsubscribed.isEmpty()) {
+                    phaseFinished("subscriptions")
                 }
             }
 
@@ -238,9 +376,17 @@ class ConsulServiceChanges(
                                 stopTimer - startTimer,
                                 TimeUnit.SECONDS
                             )
+                        phaseFinished("instances")
                     }
                 }
             }
+
+            private fun phaseFinished(phase: String) {
+                val now = System.currentTimeMillis()
+                metrics.meterRegistry.timer(ENVOY_CONTROL_WARM_UP_PHASE_METRIC, PHASE_TAG, phase)
+                    .record(now - phaseStartTimer, TimeUnit.MILLISECONDS)
+                phaseStartTimer = now
+            }
         }
     }
 }
@@ -0,0 +1,48 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+/**
+ * Fingerprints of health checks of services. A fingerprint of a service changes when its instances change: an instance
+ * with its checks is registered or deregistered, or a check of the instance or of its node changes. It doesn't change
+ * for services without checks nor for registrations which keep checks as they were, e.g. with new tags of an instance.
+ */
+internal class ServiceChecksIndex {
+    private var fingerprints: Map<String, Fingerprint>? = null
+
+    val initialized: Boolean
+        get() = fingerprints != null
+
+    /**
+     * Returns [services] whose checks changed since the previous update, all of them on the first update.
+     */
+    fun update(checks: List<ConsulCheck>, services: Collection<String>): Set<String> {
+        val servicesByNode = HashMap<String, MutableSet<String>>()
+        checks.forEach {
+            if (it.serviceName.isNotEmpty()) {
+                servicesByNode.getOrPut(it.node) { HashSet() }.add(it.serviceName)
+            }
+        }
+        val current = HashMap<String, Fingerprint>()
+        checks.forEach { check ->
+            val checkedServices = when {
+                check.serviceName.isEmpty() -> servicesByNode[check.node].orEmpty()
+                else -> listOf(check.serviceName)
+            }
+            checkedServices.forEach { current[it] = current[it].orEmpty().add(check.modifyIndex) }
+        }
+        val previous = fingerprints
+        fingerprints = current
+        return services.filterTo(HashSet()) { previous == null || previous[it] != current[it] }
+    }
+
+    /**
+     * Returns [services] without checks, whose fingerprints don't change when their instances change.
+     */
+    fun unchecked(services: Collection<String>): Set<String> =
+        services.filterTo(HashSet()) { fingerprints?.containsKey(it) != true }
+
+    private fun Fingerprint?.orEmpty() = this ?: Fingerprint(maxModifyIndex = 0, checks = 0)
+
+    private data class Fingerprint(val maxModifyIndex: Long, val checks: Int) {
+        fun add(modifyIndex: Long) = Fingerprint(maxOf(maxModifyIndex, modifyIndex), checks + 1)
+    }
+}
@@ -0,0 +1,12 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+interface ServiceSubscriptionPriority {
+    /**
+     * Services which should be subscribed to before the others, e.g. dependencies of connected Envoys.
+     */
+    fun prioritizedServices(): Set<String>
+}
+
+object NoOpServiceSubscriptionPriority : ServiceSubscriptionPriority {
+    override fun prioritizedServices(): Set<String> = emptySet()
+}
@@ -0,0 +1,91 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+import pl.allegro.tech.servicemesh.envoycontrol.logger
+import reactor.core.scheduler.Scheduler
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+import kotlin.math.min
+
+/**
+ * Subscribes to services at a pace limited by a token bucket, which allows up to [burst] subscriptions at once and
+ * refills at [rate] subscriptions per second.
+ *
+ * Submitted services wait in a queue, so the caller isn't blocked. Services returned by [priority] are subscribed
+ * before the others.
+ */
+internal class SubscriptionPacer(
+    private val rate: Double,
+    private val burst: Int,
+    private val priority: ServiceSubscriptionPriority,
+    private val scheduler: Scheduler,
+    private val subscribe: (String) -> Unit
+) {
+    private val logger by logger()
+
+    // guarded by this
+    private val pending = LinkedHashSet<String>()
+    private var tokens = burst.toDouble()
+    private var refilledAt = scheduler.now(TimeUnit.NANOSECONDS)
+    private var drainScheduled = false
+
+    init {
+        require(rate > 0 && burst > 0) { "Subscription rate and burst must be positive" }
+    }
+
+    @Synchronized
+    fun submit(services: Collection<String>) {
+        pending.addAll(services)
+        scheduleDrain(0)
+    }
+
+    @Synchronized
+    fun cancel(service: String) {
+        pending.remove(service)
+    }
+
+    private fun scheduleDrain(delayNanos: Long) {
+        if (!drainScheduled && pending.isNotEmpty()) {
+            drainScheduled = true
+            scheduler.schedule(::drain, delayNanos, TimeUnit.NANOSECONDS)
+        }
+    }
+
+    private fun drain() {
+        takeAvailable().forEach { service ->
+            try {
+                subscribe(service)
+            } catch (e: Exception) {
+                logger.warn("Error while subscribing to service $service", e)
+            }
+        }
+        synchronized(this) {
+            scheduleDrain(nanosUntilNextToken())
+        }
+    }
+
+    @Synchronized
+    private fun takeAvailable(): List<String> {
+        drainScheduled = false
+        val now = scheduler.now(TimeUnit.NANOSECONDS)
+        tokens = min(burst.toDouble(), tokens + (now - refilledAt) * rate / NANOS_PER_SECOND)
+        refilledAt = now
+        val available = min(tokens.toInt(), pending.size)
+        if (available == 0) {
+            return emptyList()
+        }
+        val prioritized = priority.prioritizedServices().asSequence().filter { it in pending }
+        val services = (prioritized + pending.asSequence()).distinct().take(available).toList()
+        pending.removeAll(services.toSet())
+        tokens -= services.size
+        return services
+    }
+
+    private fun nanosUntilNextToken(): Long =
+        maxOf(((1 - tokens) * NANOS_PER_SECOND / rate).toLong(), MIN_DRAIN_INTERVAL.toNanos())
+
+    private companion object {
+        const val NANOS_PER_SECOND = 1_000_000_000.0
+        // the interval in which tokens are accumulated, so priorities aren't computed for every subscription
+        val MIN_DRAIN_INTERVAL: Duration = Duration.ofMillis(100)
+    }
+}
@@ -0,0 +1,92 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+import com.ecwid.consul.v1.ConsulClient
+import org.assertj.core.api.Assertions.assertThat
+import org.awaitility.Awaitility
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import pl.allegro.tech.servicemesh.envoycontrol.config.consul.FakeConsul
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServiceInstance
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+class BulkServiceInstancesWatcherTest {
+
+    private val consul = FakeConsul()
+    private val instances = ConcurrentHashMap<String, Set<ServiceInstance>>()
+    private val watcher = BulkServiceInstancesWatcher(
+        client = EcwidConsulHealthClient(ConsulClient("localhost", consul.port)),
+        serviceMapper = ConsulServiceMapper(),
+        batchSize = 2,
+        waitTime = Duration.ofSeconds(1),
+        onInstances = { instances[it.serviceName] = it.instances },
+        onError = { _, _ -> }
+    )
+
+    @AfterEach
+    fun tearDown() {
+        watcher.close()
+        consul.close()
+    }
+
+    @Test
+    fun `should fetch instances of service without checks when it's registered again`() {
+        // given
+        consul.register("service-1", withCheck = false)
+        watcher.watch("service-1")
+        watcher.start()
+        awaitInstance("service-1") { assertThat(it.port).isEqualTo(1) }
+
+        // when
+        val port = consul.change("service-1")
+
+        // then
+        awaitInstance("service-1") { assertThat(it.port).isEqualTo(port) }
+    }
+
+    @Test
+    fun `should fetch instances of service when only its tags change`() {
+        // given
+        consul.register("service-1", tags = listOf("a"))
+        consul.register("service-2")
+        watcher.watch("service-1")
+        watcher.watch("service-2")
+        watcher.start()
+        awaitInstance("service-1") { assertThat(it.tags).containsExactly("a") }
+
+        // when
+        consul.retag("service-1", listOf("b"))
+
+        // then
+        awaitInstance("service-1") { assertThat(it.tags).containsExactly("b") }
+    }
+
+    @Test
+    fun `should fetch only services whose tags changed when catalog changes`() {
+        // given
+        consul.register("service-1")
+        consul.register("service-2")
+        watcher.watch("service-1")
+        watcher.watch("service-2")
+        watcher.start()
+        awaitInstance("service-2") { assertThat(it.port).isEqualTo(1) }
+        val requests = consul.instancesRequests("service-2")
+
+        // when
+        consul.retag("service-1", listOf("b"))
+
+        // then
+        awaitInstance("service-1") { assertThat(it.tags).containsExactly("b") }
+        assertThat(consul.instancesRequests("service-2")).isEqualTo(requests)
+    }
+
+    private fun awaitInstance(service: String, assertion: (ServiceInstance) -> Unit) {
+        Awaitility.await()
+            .atMost(10, TimeUnit.SECONDS)
+            .untilAsserted {
+                assertThat(instances[service]).hasSize(1)
+                assertion(instances.getValue(service).single())
+            }
+    }
+}
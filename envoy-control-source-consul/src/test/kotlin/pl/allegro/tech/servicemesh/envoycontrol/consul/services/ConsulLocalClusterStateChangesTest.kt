@@ -0,0 +1,86 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+import com.ecwid.consul.v1.agent.AgentConsulClient
+import com.ecwid.consul.v1.agent.model.NewService
+import org.assertj.core.api.Assertions.assertThat
+import org.awaitility.Awaitility
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.extension.RegisterExtension
+import pl.allegro.tech.discovery.consul.recipes.ConsulRecipes
+import pl.allegro.tech.servicemesh.envoycontrol.config.consul.ConsulExtension
+import pl.allegro.tech.servicemesh.envoycontrol.server.NoopReadinessStateHandler
+import pl.allegro.tech.servicemesh.envoycontrol.services.Locality
+import pl.allegro.tech.servicemesh.envoycontrol.services.ServicesState
+import java.net.URI
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ConsulLocalClusterStateChangesTest {
+
+    companion object {
+
+        @JvmField
+        @RegisterExtension
+        val consulExtension = ConsulExtension()
+    }
+
+    private val watcherPool = Executors.newFixedThreadPool(10)
+    private val watcher = ConsulRecipes
+        .consulRecipes()
+        .build()
+        .consulWatcher(watcherPool)
+        .withAgentUri(URI("http://localhost:${consulExtension.server.port}"))
+        .build()
+    private val localClusterStateChanges = ConsulLocalClusterStateChanges(
+        ConsulServiceChanges(watcher = watcher, readinessStateHandler = NoopReadinessStateHandler),
+        Locality.LOCAL,
+        "dc1"
+    )
+    private val client = AgentConsulClient("localhost", consulExtension.server.port)
+
+    @AfterEach
+    fun tearDown() {
+        watcher.close()
+        watcherPool.shutdownNow()
+        client.agentServiceDeregister("service-1")
+        client.agentServiceDeregister("service-2")
+    }
+
+    @Test
+    fun `should share unchanged services between emitted states`() {
+        // given
+        registerService(name = "service-1", port = 1)
+        registerService(name = "service-2", port = 1)
+        val subscription = localClusterStateChanges.stream().subscribe()
+        val before = awaitState { state ->
+            state["service-1"]?.instances?.isNotEmpty() == true && state["service-2"]?.instances?.isNotEmpty() == true
+        }
+
+        // when
+        registerService(name = "service-1", port = 2)
+
+        // then
+        val after = awaitState { state -> state["service-1"]?.instances?.any { it.port == 2 } == true }
+        assertThat(after["service-2"]).isSameAs(before["service-2"])
+        subscription.dispose()
+    }
+
+    private fun registerService(name: String, port: Int) {
+        client.agentServiceRegister(
+            NewService().also {
+                it.id = name
+                it.name = name
+                it.address = "localhost"
+                it.port = port
+            }
+        )
+    }
+
+    private fun awaitState(condition: (ServicesState) -> Boolean): ServicesState {
+        Awaitility.await()
+            .atMost(10, TimeUnit.SECONDS)
+            .until { condition(localClusterStateChanges.latestServiceState.get()) }
+        return localClusterStateChanges.latestServiceState.get()
+    }
+}
@@ -0,0 +1,89 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+
+class ServiceChecksIndexTest {
+
+    private val index = ServiceChecksIndex()
+    private val services = listOf("service-1", "service-2", "service-3")
+    private val checks = listOf(
+        ConsulCheck(node = "node-1", serviceName = "", modifyIndex = 1),
+        ConsulCheck(node = "node-1", serviceName = "service-1", modifyIndex = 2),
+        ConsulCheck(node = "node-2", serviceName = "", modifyIndex = 3),
+        ConsulCheck(node = "node-2", serviceName = "service-2", modifyIndex = 4),
+        ConsulCheck(node = "node-2", serviceName = "service-3", modifyIndex = 5)
+    )
+
+    @Test
+    fun `should return all services on the first update`() {
+        // when
+        val changed = index.update(checks, services)
+
+        // then
+        assertThat(changed).containsExactlyInAnyOrderElementsOf(services)
+    }
+
+    @Test
+    fun `should return only services whose checks changed`() {
+        // given
+        index.update(checks, services)
+
+        // when
+        val changed = index.update(checks.withModified(checks[3]), services)
+
+        // then
+        assertThat(changed).containsExactly("service-2")
+    }
+
+    @Test
+    fun `should return services of a node whose check changed`() {
+        // given
+        index.update(checks, services)
+
+        // when
+        val changed = index.update(checks.withModified(checks[2]), services)
+
+        // then
+        assertThat(changed).containsExactlyInAnyOrder("service-2", "service-3")
+    }
+
+    @Test
+    fun `should return services whose checks were deregistered`() {
+        // given
+        index.update(checks, services)
+
+        // when
+        val changed = index.update(checks.filter { it.serviceName != "service-3" }, services)
+
+        // then
+        assertThat(changed).containsExactly("service-3")
+    }
+
+    @Test
+    fun `should not return services whose checks did not change`() {
+        // given
+        index.update(checks, services)
+
+        // when
+        val changed = index.update(checks, services)
+
+        // then
+        assertThat(changed).isEmpty()
+    }
+
+    @Test
+    fun `should return services without checks as unchecked`() {
+        // given
+        index.update(checks, services + "service-4")
+
+        // when
+        val unchecked = index.unchecked(services + "service-4")
+
+        // then
+        assertThat(unchecked).containsExactly("service-4")
+    }
+
+    private fun List<ConsulCheck>.withModified(check: ConsulCheck) =
+        map { if (it == check) it.copy(modifyIndex = 6) else it }
+}
@@ -0,0 +1,87 @@
+package pl.allegro.tech.servicemesh.envoycontrol.consul.services
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import reactor.test.scheduler.VirtualTimeScheduler
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+
+class SubscriptionPacerTest {
+
+    private val scheduler = VirtualTimeScheduler.create()
+    private val subscribed = CopyOnWriteArrayList<String>()
+    private var prioritized = emptySet<String>()
+    private val priority = object : ServiceSubscriptionPriority {
+        override fun prioritizedServices() = prioritized
+    }
+
+    @Test
+    fun `should subscribe a burst of services at once and the rest at the rate`() {
+        // given
+        val pacer = pacer(rate = 10.0, burst = 5)
+
+        // when
+        pacer.submit(services(20))
+        scheduler.advanceTime()
+
+        // then
+        assertThat(subscribed).hasSize(5)
+
+        // when
+        scheduler.advanceTimeBy(Duration.ofMillis(1000))
+
+        // then
+        assertThat(subscribed).hasSize(15)
+
+        // when
+        scheduler.advanceTimeBy(Duration.ofMillis(500))
+
+        // then
+        assertThat(subscribed).containsExactlyElementsOf(services(20))
+    }
+
+    @Test
+    fun `should subscribe prioritized services first`() {
+        // given
+        val pacer = pacer(rate = 10.0, burst = 2)
+        prioritized = setOf("service-7", "service-3", "other")
+
+        // when
+        pacer.submit(services(10))
+        scheduler.advanceTime()
+
+        // then
+        assertThat(subscribed).containsExactlyInAnyOrder("service-7", "service-3")
+
+        // when
+        scheduler.advanceTimeBy(Duration.ofMillis(100))
+
+        // then
+        assertThat(subscribed).hasSize(3).last().isEqualTo("service-0")
+    }
+
+    @Test
+    fun `should not subscribe cancelled services`() {
+        // given
+        val pacer = pacer(rate = 10.0, burst = 1)
+        pacer.submit(services(3))
+        scheduler.advanceTime()
+
+        // when
+        pacer.cancel("service-1")
+        scheduler.advanceTimeBy(Duration.ofSeconds(1))
+
+        // then
+        assertThat(subscribed).containsExactly("service-0", "service-2")
+    }
+
+    private fun pacer(rate: Double, burst: Int) = SubscriptionPacer(
+        rate = rate,
+        burst = burst,
+        priority = priority,
+        scheduler = scheduler,
+        subscribe = { subscribed.add(it) }
+    )
+
+    private fun services(count: Int) = (0 until count).map { "service-$it" }
+}
@@ -0,0 +1,185 @@
+package pl.allegro.tech.servicemesh.envoycontrol.config.consul
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import java.net.InetSocketAddress
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * In-process Consul with [services] services of one instance each, serving blocking queries on catalog services,
+ * passing instances of a service and health checks of all services. Like in Consul, the index of catalog services
+ * moves on every registration, the index of health checks only when a check is added or changed.
+ */
+class FakeConsul(services: Int = 0) : AutoCloseable {
+    companion object {
+        private const val INITIAL_INDEX = 1L
+        private val DEFAULT_WAIT = Duration.ofMinutes(5)
+    }
+
+    private val lock = Object()
+
+    // guarded by lock
+    private var index = INITIAL_INDEX
+    private var catalogIndex = INITIAL_INDEX
+    private var checksIndex = INITIAL_INDEX
+    private val services = LinkedHashMap<String, Service>()
+    private var closed = false
+
+    private val executor = Executors.newCachedThreadPool { runnable -> Thread(runnable).apply { isDaemon = true } }
+    private val server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+
+    val requests = AtomicLong()
+    private val instancesRequests = ConcurrentHashMap<String, AtomicLong>()
+    val port: Int
+        get() = server.address.port
+
+    init {
+        (0 until services).forEach {
+            this.services["service-$it"] = Service(
+                index = INITIAL_INDEX, port = 1, tags = emptyList(), checkIndex = INITIAL_INDEX
+            )
+        }
+        server.executor = executor
+        server.createContext("/v1/") { handle(it) }
+        server.start()
+    }
+
+    /**
+     * Registers an instance of the [service] on port 1, with a check of the instance unless [withCheck] is false.
+     */
+    fun register(service: String, tags: List<String> = emptyList(), withCheck: Boolean = true) = synchronized(lock) {
+        val index = nextIndex()
+        services[service] = Service(index = index, port = 1, tags = tags, checkIndex = index.takeIf { withCheck })
+        if (withCheck) {
+            checksIndex = index
+        }
+        lock.notifyAll()
+    }
+
+    /**
+     * Registers the instance of the [service] again on the next port and returns the port. Its check doesn't change.
+     */
+    fun change(service: String): Int = reregister(service) { it.port++ }.port
+
+    /**
+     * Registers the instance of the [service] again with [tags]. Its check doesn't change.
+     */
+    fun retag(service: String, tags: List<String>) {
+        reregister(service) { it.tags = tags }
+    }
+
+    /**
+     * Returns the number of requests for instances of the [service].
+     */
+    fun instancesRequests(service: String): Long = instancesRequests[service]?.get() ?: 0
+
+    override fun close() {
+        synchronized(lock) {
+            closed = true
+            lock.notifyAll()
+        }
+        server.stop(0)
+        executor.shutdownNow()
+    }
+
+    private fun reregister(service: String, change: (Service) -> Unit): Service = synchronized(lock) {
+        val instance = services.getValue(service)
+        change(instance)
+        instance.index = nextIndex()
+        lock.notifyAll()
+        instance
+    }
+
+    private fun nextIndex(): Long {
+        index++
+        catalogIndex = index
+        return index
+    }
+
+    private fun handle(exchange: HttpExchange) {
+        requests.incrementAndGet()
+        val path = exchange.requestURI.path
+        val params = exchange.requestURI.query.orEmpty().split("&")
+            .associate { it.substringBefore("=") to it.substringAfter("=", "") }
+        val service = path.removePrefix("/v1/health/service/")
+        val endpointIndex: () -> Long = when {
+            path == "/v1/catalog/services" -> { -> catalogIndex }
+            path == "/v1/health/state/any" -> { -> checksIndex }
+            synchronized(lock) { services.containsKey(service) } -> { -> services.getValue(service).index }
+            else -> {
+                exchange.sendResponseHeaders(404, -1)
+                exchange.close()
+                return
+            }
+        }
+        if (path.startsWith("/v1/health/service/")) {
+            instancesRequests.computeIfAbsent(service) { AtomicLong() }.incrementAndGet()
+        }
+        val (responseIndex, body) = synchronized(lock) {
+            await(endpointIndex, params["index"]?.toLongOrNull() ?: 0, wait(params["wait"]))
+            endpointIndex() to when (path) {
+                "/v1/catalog/services" -> catalogServices()
+                "/v1/health/state/any" -> checks()
+                else -> instances(service)
+            }
+        }
+        exchange.responseHeaders.add("X-Consul-Index", responseIndex.toString())
+        exchange.responseHeaders.add("Content-Type", "application/json")
+        val bytes = body.toByteArray()
+        exchange.sendResponseHeaders(200, bytes.size.toLong())
+        exchange.responseBody.use { it.write(bytes) }
+    }
+
+    // blocking query: waits until the index moves past the requested one
+    private fun await(endpointIndex: () -> Long, requestedIndex: Long, wait: Duration) {
+        val deadline = System.nanoTime() + wait.toNanos()
+        while (!closed && endpointIndex() <= requestedIndex) {
+            val remaining = Duration.ofNanos(deadline - System.nanoTime())
+            if (remaining.isNegative || remaining.isZero) {
+                return
+            }
+            lock.wait(remaining.toMillis().coerceAtLeast(1))
+        }
+    }
+
+    private fun wait(param: String?): Duration = when {
+        param == null -> DEFAULT_WAIT
+        param.endsWith("ms") -> Duration.ofMillis(param.removeSuffix("ms").toLong())
+        param.endsWith("s") -> Duration.ofSeconds(param.removeSuffix("s").toLong())
+        param.endsWith("m") -> Duration.ofMinutes(param.removeSuffix("m").toLong())
+        else -> DEFAULT_WAIT
+    }
+
+    private fun catalogServices() = services.entries.joinToString(",", "{", "}") { (service, instance) ->
+        "\"$service\":${instance.tags.toJson()}"
+    }
+
+    private fun instances(service: String) = services.getValue(service).let { instance ->
+        """[{
+            "Node": {"Node": "node-1", "Address": "127.0.0.1"},
+            "Service": {
+                "ID": "$service-1", "Service": "$service", "Tags": ${instance.tags.toJson()}, "Address": "127.0.0.1",
+                "Port": ${instance.port}
+            },
+            "Checks": []
+        }]"""
+    }
+
+    private fun checks(): String {
+        val nodeCheck = """{"Node": "node-1", "CheckID": "serfHealth", "Status": "passing", "ServiceID": "",
+            "ServiceName": "", "CreateIndex": 1, "ModifyIndex": 1}"""
+        val serviceChecks = services.entries.filter { it.value.checkIndex != null }.map { (service, instance) ->
+            """{"Node": "node-1", "CheckID": "service:$service-1", "Status": "passing", "ServiceID": "$service-1",
+                "ServiceName": "$service", "CreateIndex": ${instance.checkIndex},
+                "ModifyIndex": ${instance.checkIndex}}"""
+        }
+        return (listOf(nodeCheck) + serviceChecks).joinToString(",", "[", "]")
+    }
+
+    private fun List<String>.toJson() = joinToString(",", "[", "]") { "\"$it\"" }
+
+    private class Service(var index: Long, var port: Int, var tags: List<String>, val checkIndex: Long?)
+}